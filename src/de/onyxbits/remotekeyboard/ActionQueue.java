@@ -0,0 +1,150 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.InterruptedIOException;
+
+import android.os.Handler;
+
+/**
+ * Pipelined alternative to ActionRunner. The connection thread keeps decoding
+ * while the UI thread replays input. Actions are handed over through a bounded
+ * FIFO and the UI thread drains everything that is queued with a single
+ * message, so order is preserved without waiting for every keystroke. The
+ * connection thread only blocks when the queue is full, which in turn stops it
+ * from reading the socket.
+ *
+ * @author patrick
+ *
+ */
+class ActionQueue implements Runnable {
+
+	/**
+	 * Maximum number of actions waiting for the UI thread
+	 */
+	private static final int CAPACITY = 256;
+
+	/**
+	 * Text to commit or null if the slot holds a function code.
+	 */
+	private String[] texts = new String[CAPACITY];
+	private int[] functions = new int[CAPACITY];
+
+	/**
+	 * Next slot to be executed
+	 */
+	private int head;
+
+	/**
+	 * Number of occupied slots
+	 */
+	private int size;
+
+	/**
+	 * Whether we are already posted to the handler
+	 */
+	private boolean scheduled;
+
+	private Handler handler;
+	private TextInputAction tia;
+	private CtrlInputAction cia;
+
+	/**
+	 * @param handler
+	 *          handler of the UI thread
+	 * @param tia
+	 *          the session's text action. Must not be run by anyone else.
+	 * @param cia
+	 *          the session's control action. Must not be run by anyone else.
+	 */
+	public ActionQueue(Handler handler, TextInputAction tia, CtrlInputAction cia) {
+		this.handler = handler;
+		this.tia = tia;
+		this.cia = cia;
+	}
+
+	/**
+	 * Queue text for committing. Blocks while the queue is full.
+	 *
+	 * @param text
+	 *          the text to commit
+	 * @throws InterruptedIOException
+	 *           if the connection thread got interrupted (e.g. the connection
+	 *           was closed) while waiting. The text is dropped.
+	 */
+	public void putText(String text) throws InterruptedIOException {
+		put(text, 0);
+	}
+
+	/**
+	 * Queue a function code. Blocks while the queue is full.
+	 *
+	 * @param function
+	 *          see CtrlInputAction
+	 * @throws InterruptedIOException
+	 *           if the connection thread got interrupted (e.g. the connection
+	 *           was closed) while waiting. The function is dropped.
+	 */
+	public void putFunction(int function) throws InterruptedIOException {
+		put(null, function);
+	}
+
+	private synchronized void put(String text, int function)
+			throws InterruptedIOException {
+		while (size == CAPACITY) {
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				// The UI thread may be stuck, don't keep the connection alive for it.
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		int tail = (head + size) % CAPACITY;
+		texts[tail] = text;
+		functions[tail] = function;
+		size++;
+		if (!scheduled) {
+			scheduled = true;
+			handler.post(this);
+		}
+	}
+
+	/**
+	 * Drain the queue. Must be called on the UI thread.
+	 */
+	public void run() {
+		int start;
+		int count;
+		synchronized (this) {
+			start = head;
+			count = size;
+		}
+
+		// The producer never touches occupied slots, so no need to hold the lock
+		// while replaying.
+		for (int i = 0; i < count; i++) {
+			int slot = (start + i) % CAPACITY;
+			if (texts[slot] != null) {
+				tia.text = texts[slot];
+				texts[slot] = null;
+				tia.run();
+			}
+			else {
+				cia.function = functions[slot];
+				cia.run();
+			}
+		}
+
+		synchronized (this) {
+			head = (head + count) % CAPACITY;
+			size -= count;
+			if (size > 0) {
+				handler.post(this);
+			}
+			else {
+				scheduled = false;
+			}
+			notifyAll();
+		}
+	}
+}
@@ -3,13 +3,12 @@ package de.onyxbits.remotekeyboard;
 import net.wimpi.telnetd.io.TerminalIO;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.KeyEvent;
 import android.view.inputmethod.EditorInfo;
-import android.view.inputmethod.ExtractedText;
-import android.view.inputmethod.ExtractedTextRequest;
 import android.view.inputmethod.InputConnection;
 import android.widget.Toast;
 
@@ -26,6 +25,12 @@ class CtrlInputAction implements Runnable {
 	public static final String TAG = "InputAction";
 	public static final String PREF_QUICKLAUNCHER="pref_quicklauncher";
 
+	/**
+	 * Number of lines to move on PAGE UP/DOWN. We can't know how many lines the
+	 * editor actually shows.
+	 */
+	private static final int PAGESIZE = 20;
+
 	/**
 	 * A control character (anything thats not printable)
 	 */
@@ -36,6 +41,17 @@ class CtrlInputAction implements Runnable {
 	 */
 	private RemoteKeyboardService myService;
 
+	/**
+	 * Cached down/up events for typeKey(), keyed by keycode. KeyEvents are
+	 * immutable and get copied when sent, so they can be sent over and over.
+	 */
+	private SparseArray<KeyEvent[]> keyEvents = new SparseArray<KeyEvent[]>();
+
+	/**
+	 * Cached event sequences for markText(), keyed by keycode.
+	 */
+	private SparseArray<KeyEvent[]> markEvents = new SparseArray<KeyEvent[]>();
+
 	public CtrlInputAction(RemoteKeyboardService myService) {
 		this.myService = myService;
 	}
@@ -130,6 +146,22 @@ class CtrlInputAction implements Runnable {
 				jumpForward(con, '\n');
 				break;
 			}
+			case Decoder.SYM_PAGE_UP: {
+				jumpLines(con, -PAGESIZE);
+				break;
+			}
+			case Decoder.SYM_PAGE_DOWN: {
+				jumpLines(con, PAGESIZE);
+				break;
+			}
+			case Decoder.SYM_CTRL_HOME: {
+				jumpToLimit(con, false);
+				break;
+			}
+			case Decoder.SYM_CTRL_END: {
+				jumpToLimit(con, true);
+				break;
+			}
 
 			// Hacky time! We redefine ASCII control chars to our needs.
 			case TerminalIO.COLORINIT: { // CTRL-A
@@ -219,15 +251,22 @@ class CtrlInputAction implements Runnable {
 	 *          DPAD keycode
 	 */
 	private void markText(InputConnection con, int keycode) {
-		long now = SystemClock.uptimeMillis();
-		con.sendKeyEvent(new KeyEvent(now, now, KeyEvent.ACTION_DOWN,
-				KeyEvent.KEYCODE_SHIFT_LEFT, 0, 0));
-		con.sendKeyEvent(new KeyEvent(now, now, KeyEvent.ACTION_DOWN, keycode, 0,
-				KeyEvent.META_SHIFT_LEFT_ON));
-		con.sendKeyEvent(new KeyEvent(now, now, KeyEvent.ACTION_UP, keycode, 0,
-				KeyEvent.META_SHIFT_LEFT_ON));
-		con.sendKeyEvent(new KeyEvent(now, now, KeyEvent.ACTION_UP,
-				KeyEvent.KEYCODE_SHIFT_LEFT, 0, 0));
+		KeyEvent[] events = markEvents.get(keycode);
+		if (events == null) {
+			events = new KeyEvent[] {
+					new KeyEvent(0, 0, KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_SHIFT_LEFT,
+							0, 0),
+					new KeyEvent(0, 0, KeyEvent.ACTION_DOWN, keycode, 0,
+							KeyEvent.META_SHIFT_LEFT_ON),
+					new KeyEvent(0, 0, KeyEvent.ACTION_UP, keycode, 0,
+							KeyEvent.META_SHIFT_LEFT_ON),
+					new KeyEvent(0, 0, KeyEvent.ACTION_UP, KeyEvent.KEYCODE_SHIFT_LEFT, 0,
+							0) };
+			markEvents.put(keycode, events);
+		}
+		for (KeyEvent event : events) {
+			con.sendKeyEvent(event);
+		}
 	}
 
 	/**
@@ -238,14 +277,15 @@ class CtrlInputAction implements Runnable {
 	 * @param symbol
 	 *          the symbol to jump to
 	 */
-	private void jumpForward(InputConnection con, int symbol) {
-		ExtractedText txt = con.getExtractedText(new ExtractedTextRequest(), 0);
-		if (txt != null) {
-			int pos = txt.text.toString().indexOf(symbol, txt.selectionEnd + 1);
+	private void jumpForward(InputConnection con, char symbol) {
+		TextMirror mirror = myService.mirror;
+		if (mirror.sync(con)) {
+			int pos = mirror.indexOf(symbol, mirror.getSelectionEnd() + 1);
 			if (pos == -1) {
-				pos = txt.text.length();
+				pos = mirror.getText().length();
 			}
 			con.setSelection(pos, pos);
+			mirror.setSelection(pos, pos);
 		}
 	}
 
@@ -257,17 +297,58 @@ class CtrlInputAction implements Runnable {
 	 * @param symbol
 	 *          the symbol to jump to
 	 */
-	private void jumpBackward(InputConnection con, int symbol) {
-		ExtractedText txt = con.getExtractedText(new ExtractedTextRequest(), 0);
-		if (txt != null) {
-			int pos = txt.text.toString().lastIndexOf(symbol, txt.selectionEnd - 2);
+	private void jumpBackward(InputConnection con, char symbol) {
+		TextMirror mirror = myService.mirror;
+		if (mirror.sync(con)) {
+			int pos = mirror.lastIndexOf(symbol, mirror.getSelectionEnd() - 2);
 			pos++;
 
 			con.setSelection(pos, pos);
+			mirror.setSelection(pos, pos);
 		}
 
 	}
 
+	/**
+	 * Move the cursor a number of lines up or down, trying to keep the column.
+	 * 
+	 * @param con
+	 *          driver
+	 * @param lines
+	 *          number of lines to move (negative for up)
+	 */
+	private void jumpLines(InputConnection con, int lines) {
+		TextMirror mirror = myService.mirror;
+		if (mirror.sync(con)) {
+			int cursor = mirror.getSelectionEnd();
+			int line = mirror.getLine(cursor);
+			int column = cursor - mirror.getLineStart(line);
+			int target = Math.max(0,
+					Math.min(mirror.getLineCount() - 1, line + lines));
+			int pos = Math.min(mirror.getLineStart(target) + column,
+					mirror.getLineEnd(target));
+			con.setSelection(pos, pos);
+			mirror.setSelection(pos, pos);
+		}
+	}
+
+	/**
+	 * Place the cursor at the beginning or the end of the text.
+	 * 
+	 * @param con
+	 *          driver
+	 * @param end
+	 *          true to jump to the end, false to jump to the beginning.
+	 */
+	private void jumpToLimit(InputConnection con, boolean end) {
+		TextMirror mirror = myService.mirror;
+		if (mirror.sync(con)) {
+			int pos = end ? mirror.getText().length() : 0;
+			con.setSelection(pos, pos);
+			mirror.setSelection(pos, pos);
+		}
+	}
+
 	/**
 	 * Send an down/up event
 	 * 
@@ -276,32 +357,40 @@ class CtrlInputAction implements Runnable {
 	 *          keycode
 	 */
 	private void typeKey(InputConnection con, int key) {
-		con.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, key));
-		con.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, key));
+		KeyEvent[] events = keyEvents.get(key);
+		if (events == null) {
+			events = new KeyEvent[] { new KeyEvent(KeyEvent.ACTION_DOWN, key),
+					new KeyEvent(KeyEvent.ACTION_UP, key) };
+			keyEvents.put(key, events);
+		}
+		con.sendKeyEvent(events[0]);
+		con.sendKeyEvent(events[1]);
 	}
 
 	/**
 	 * Try to replace the current word with its substitution.
 	 */
 	private void replaceText(InputConnection con) {
-		ExtractedText txt = con.getExtractedText(new ExtractedTextRequest(), 0);
-		if (txt != null) {
-			int end = txt.text.toString().indexOf(" ", txt.selectionEnd);
+		TextMirror mirror = myService.mirror;
+		if (mirror.sync(con)) {
+			CharSequence text = mirror.getText();
+			int end = mirror.indexOf(' ', mirror.getSelectionEnd());
 			if (end == -1) {
-				end = txt.text.length();
+				end = text.length();
 			}
-			int start = txt.text.toString().lastIndexOf(" ", txt.selectionEnd - 1);
+			int start = mirror.lastIndexOf(' ', mirror.getSelectionEnd() - 1);
 			start++;
-			String sel = txt.text.subSequence(start, end).toString();
-			String rep = myService.replacements.get(sel);
+			String rep = myService.replacements.getTrie().get(text, start,
+					end);
 			if (rep != null) {
 				con.setComposingRegion(start, end);
 				con.setComposingText(rep, 1);
 				con.finishComposingText();
+				myService.replacements.touch(text.subSequence(start, end).toString());
 			}
 			else {
 				String err = myService.getResources().getString(
-						R.string.err_no_replacement, sel);
+						R.string.err_no_replacement, text.subSequence(start, end));
 				Toast.makeText(myService, err, Toast.LENGTH_SHORT).show();
 			}
 		}
@@ -332,24 +421,22 @@ class CtrlInputAction implements Runnable {
 	 * use ROT13 to scramble the contents of the editor
 	 */
 	private void scramble(InputConnection con) {
-		char[] buffer = null;
-		CharSequence selected = con.getSelectedText(0);
-		if (selected != null) {
-			buffer = selected.toString().toCharArray();
-		}
-		else {
-			ExtractedText txt = con.getExtractedText(new ExtractedTextRequest(), 0);
-			if (txt == null) {
+		CharSequence text = con.getSelectedText(0);
+		boolean selected = (text != null);
+		if (!selected) {
+			TextMirror mirror = myService.mirror;
+			if (!mirror.sync(con)) {
 				return;
 			}
-			buffer = txt.text.toString().toCharArray();
-			if (buffer.length == 0)
+			text = mirror.getText();
+			if (text.length() == 0)
 				return;
 		}
-		// char[] buffer = con.getSelectedText(0).toString().toCharArray();
-		// //con.getExtractedText(new
-		// ExtractedTextRequest(),0).text.toString().toCharArray();
-		for (int i = 0; i < buffer.length; i++) {
+		// Rarely used, so not worth keeping a document sized buffer around.
+		int length = text.length();
+		char[] buffer = new char[length];
+		TextUtils.getChars(text, 0, length, buffer, 0);
+		for (int i = 0; i < length; i++) {
 			if (buffer[i] >= 'a' && buffer[i] <= 'm')
 				buffer[i] += 13;
 			else if (buffer[i] >= 'A' && buffer[i] <= 'M')
@@ -359,10 +446,10 @@ class CtrlInputAction implements Runnable {
 			else if (buffer[i] >= 'N' && buffer[i] <= 'Z')
 				buffer[i] -= 13;
 		}
-		if (selected == null) {
-			con.setComposingRegion(0, buffer.length);
+		if (!selected) {
+			con.setComposingRegion(0, length);
 		}
-		con.setComposingText(new String(buffer), 1);
+		con.setComposingText(new String(buffer, 0, length), 1);
 		con.finishComposingText();
 	}
 }
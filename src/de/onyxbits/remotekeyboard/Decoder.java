@@ -1,5 +1,7 @@
 package de.onyxbits.remotekeyboard;
 
+import java.util.Arrays;
+
 import net.wimpi.telnetd.io.TerminalIO;
 
 
@@ -24,6 +26,8 @@ class Decoder {
 	public static final int SYM_END = BASE + 104;
 	public static final int SYM_PAGE_UP = BASE + 105;
 	public static final int SYM_PAGE_DOWN = BASE + 106;
+	public static final int SYM_CTRL_HOME = BASE + 107;
+	public static final int SYM_CTRL_END = BASE + 108;
 
 	public static final int SYM_F1 = BASE + 201;
 	public static final int SYM_F2 = BASE + 202;
@@ -52,29 +56,70 @@ class Decoder {
 	public static final int SYM_CTRL_CURSOR_RIGHT = BASE + 316;
 	public static final int SYM_CTRL_CURSOR_DOWN = BASE + 317;
 	public static final int SYM_CTRL_CURSOR_LEFT = BASE + 318;
+
+	public static final int SYM_CTRL_SHIFT_CURSOR_UP = BASE + 321;
+	public static final int SYM_CTRL_SHIFT_CURSOR_RIGHT = BASE + 322;
+	public static final int SYM_CTRL_SHIFT_CURSOR_DOWN = BASE + 323;
+	public static final int SYM_CTRL_SHIFT_CURSOR_LEFT = BASE + 324;
 	
 
 	/**
-	 * Used by matchEscapeSeequence. NOTE: In order to keep this small, the first
-	 * slot contains the decoded symbol instead of the escape character.
+	 * Source for the TRANSITIONS table. NOTE: In order to keep this small, the
+	 * first slot contains the decoded symbol instead of the escape character. No
+	 * sequence may be the prefix of another one.
 	 */
-	private int sequences[][] = { 
+	private static final int SEQUENCES[][] = { 
 			{ SYM_CURSOR_UP, '[', 'A' },
 			{ SYM_CURSOR_RIGHT, '[', 'C' }, 
 			{ SYM_CURSOR_DOWN, '[', 'B' },
 			{ SYM_CURSOR_LEFT, '[', 'D' }, 
 			{ SYM_HOME, '[', 'H' },
 			{ SYM_END, '[', 'F' }, 
+			{ SYM_HOME, '[', '1', '~' },
 			{ SYM_INSERT, '[', '2', '~' },
 			{ SYM_DELETE, '[', '3', '~' }, 
+			{ SYM_END, '[', '4', '~' },
 			{ SYM_PAGE_UP, '[', '5', '~' },
-			{ SYM_PAGE_UP, '[', '6', '~' },
+			{ SYM_PAGE_DOWN, '[', '6', '~' },
+			{ SYM_HOME, '[', '7', '~' }, // rxvt
+			{ SYM_END, '[', '8', '~' }, // rxvt
+			{ SYM_CTRL_HOME, '[', '1', ';', '5', 'H' },
+			{ SYM_CTRL_END, '[', '1', ';', '5', 'F' },
+			{ SYM_CTRL_HOME, '[', '7', '^' }, // rxvt
+			{ SYM_CTRL_END, '[', '8', '^' }, // rxvt
+			{ SYM_CTRL_CURSOR_UP, '[', '1', ';', '5', 'A' },
+			{ SYM_CTRL_CURSOR_DOWN, '[', '1', ';', '5', 'B' },
 			{ SYM_CTRL_CURSOR_LEFT, '[', '1', ';', '5', 'D' },
 			{ SYM_CTRL_CURSOR_RIGHT, '[', '1', ';', '5', 'C' },
 			{ SYM_SHIFT_CURSOR_UP, '[','1',';','2','A'},
 			{ SYM_SHIFT_CURSOR_DOWN, '[','1',';','2','B'},
 			{ SYM_SHIFT_CURSOR_RIGHT, '[','1',';','2','C'},
 			{ SYM_SHIFT_CURSOR_LEFT, '[','1',';','2','D'},
+			{ SYM_CTRL_SHIFT_CURSOR_UP, '[','1',';','6','A'},
+			{ SYM_CTRL_SHIFT_CURSOR_DOWN, '[','1',';','6','B'},
+			{ SYM_CTRL_SHIFT_CURSOR_RIGHT, '[','1',';','6','C'},
+			{ SYM_CTRL_SHIFT_CURSOR_LEFT, '[','1',';','6','D'},
+			// xterm reports ALT as modifier 3. We don't have a use for it.
+			{ SYM_CURSOR_UP, '[','1',';','3','A'},
+			{ SYM_CURSOR_DOWN, '[','1',';','3','B'},
+			{ SYM_CURSOR_RIGHT, '[','1',';','3','C'},
+			{ SYM_CURSOR_LEFT, '[','1',';','3','D'},
+			// rxvt
+			{ SYM_SHIFT_CURSOR_UP, '[', 'a' },
+			{ SYM_SHIFT_CURSOR_DOWN, '[', 'b' },
+			{ SYM_SHIFT_CURSOR_RIGHT, '[', 'c' },
+			{ SYM_SHIFT_CURSOR_LEFT, '[', 'd' },
+			{ SYM_CTRL_CURSOR_UP, 'O', 'a' },
+			{ SYM_CTRL_CURSOR_DOWN, 'O', 'b' },
+			{ SYM_CTRL_CURSOR_RIGHT, 'O', 'c' },
+			{ SYM_CTRL_CURSOR_LEFT, 'O', 'd' },
+			// SS3 (application cursor/keypad mode)
+			{ SYM_CURSOR_UP, 'O', 'A' },
+			{ SYM_CURSOR_DOWN, 'O', 'B' },
+			{ SYM_CURSOR_RIGHT, 'O', 'C' },
+			{ SYM_CURSOR_LEFT, 'O', 'D' },
+			{ SYM_HOME, 'O', 'H' },
+			{ SYM_END, 'O', 'F' },
 			{ SYM_F1,'O','P'},
 			{ SYM_F2,'O','Q'},
 			{ SYM_F3,'O','R'},
@@ -90,15 +135,60 @@ class Decoder {
 	};
 
 	/**
-	 * Single byte control char (ASCII code < 32)
+	 * Escape sequences only consist of ASCII chars.
+	 */
+	private static final int ALPHABET = 128;
+
+	/**
+	 * SEQUENCES compiled into a trie. The next state is found at
+	 * TRANSITIONS[state * ALPHABET + symbol], with 0 (the root) meaning that
+	 * there is no such sequence.
+	 */
+	private static final short[] TRANSITIONS;
+
+	/**
+	 * The symbol a state decodes to or 0 if the sequence is not complete yet.
+	 */
+	private static final int[] ACCEPT;
+
+	static {
+		int size = 1;
+		for (int[] sequence : SEQUENCES) {
+			size += sequence.length - 1;
+		}
+		short[] transitions = new short[size * ALPHABET];
+		int[] accept = new int[size];
+		int states = 1;
+		for (int[] sequence : SEQUENCES) {
+			int state = 0;
+			for (int y = 1; y < sequence.length; y++) {
+				int slot = state * ALPHABET + sequence[y];
+				if (transitions[slot] == 0) {
+					transitions[slot] = (short) states++;
+				}
+				state = transitions[slot];
+			}
+			accept[state] = sequence[0];
+		}
+		TRANSITIONS = Arrays.copyOf(transitions, states * ALPHABET);
+		ACCEPT = Arrays.copyOf(accept, states);
+	}
+
+	/**
+	 * Not in the middle of a sequence
 	 */
-	private static final int CONTROLCHAR = 2;
+	private static final int IDLE = 2;
 
 	/**
 	 * Decoding an escape sequence
 	 */
 	private static final int ESCSEQ = 3;
 
+	/**
+	 * Decoding a multibyte UTF-8 sequence
+	 */
+	private static final int UTF8SEQ = 7;
+
 	/**
 	 * Decoded sequence is a unicode character
 	 */
@@ -119,12 +209,37 @@ class Decoder {
 	 */
 	public static final int UNSUPPORTED = -1;
 
-	private int type = PRINTABLE;
-	private int expectedLength;
-	private byte[] buffer = new byte[6];
-	private int index;
+	/**
+	 * Substitute for malformed UTF-8 input
+	 */
+	public static final char REPLACEMENT = '\uFFFD';
+
+	private int type = IDLE;
 	private int functionCode;
-	private boolean complete = true;
+	private int state;
+
+	/**
+	 * The code point decoded so far
+	 */
+	private int codePoint;
+
+	/**
+	 * Number of continuation bytes still missing from the UTF-8 sequence
+	 */
+	private int remaining;
+
+	/**
+	 * Smallest code point the current UTF-8 sequence may encode (anything below
+	 * is an overlong form).
+	 */
+	private int minimum;
+
+	/**
+	 * Output of the last PRINTABLE result. Holds at most a replacement char
+	 * followed by a surrogate pair.
+	 */
+	private char[] chars = new char[3];
+	private int charCount;
 
 	public Decoder() {
 	}
@@ -138,50 +253,74 @@ class Decoder {
 	 *         how to (or not to) retrieve the decoded symbol.
 	 */
 	public int decode(int symbol) {
-		buffer[index] = (byte) symbol;
-
-		if (complete) {
-			// Check if we need to start a sequence
-			if ((symbol >= 0 && symbol < 32) || (symbol > 255)) {
-				// NOTE: >255 means the telnet lib already mapped it to a function code.
-				type = CONTROLCHAR;
-				functionCode = symbol;
-			}
-			if (symbol == TerminalIO.ESCAPE) {
-				type = ESCSEQ;
-				complete = false;
-				functionCode = UNSUPPORTED;
-			}
-			if (symbol >= 32 && symbol <= 255) {
-				type = PRINTABLE;
-				expectedLength = runLength(symbol);
-				complete = (expectedLength == 1);
-			}
-		}
+		charCount = 0;
 
-		if (!complete) {
-			// Check if if the sequence is completed. NOTE: This block may interleave
-			// with the previous one -> must not be an else branch.
+		if (type == ESCSEQ) {
+			matchEscapeSequence(symbol);
 			if (type == ESCSEQ) {
-				matchEscapeSequence();
+				return INCOMPLETE;
 			}
-			else {
-				complete = (index == expectedLength - 1);
+			return FUNCTIONCODE;
+		}
+
+		if (type == UTF8SEQ) {
+			if (symbol >= 0x80 && symbol <= 0xBF) {
+				codePoint = (codePoint << 6) | (symbol & 0x3F);
+				remaining--;
+				if (remaining > 0) {
+					return INCOMPLETE;
+				}
+				type = IDLE;
+				if (codePoint < minimum
+						|| (codePoint >= 0xD800 && codePoint <= 0xDFFF)
+						|| codePoint > Character.MAX_CODE_POINT) {
+					chars[charCount++] = REPLACEMENT;
+				}
+				else {
+					charCount += Character.toChars(codePoint, chars, charCount);
+				}
+				return PRINTABLE;
 			}
+			// Truncated sequence -> substitute it and resync on the current symbol.
+			// NOTE: The substitute gets lost if the current symbol is a control
+			// char as we can only report one result at a time.
+			type = IDLE;
+			chars[charCount++] = REPLACEMENT;
 		}
 
-		if (complete) {
-			index = 0;
-			int ret = PRINTABLE;
-			if (type == CONTROLCHAR || type == ESCSEQ) {
-				ret = FUNCTIONCODE;
+		if ((symbol >= 0 && symbol < 32) || (symbol > 255)) {
+			// NOTE: >255 means the telnet lib already mapped it to a function code.
+			charCount = 0;
+			if (symbol == TerminalIO.ESCAPE) {
+				type = ESCSEQ;
+				state = 0;
+				return INCOMPLETE;
 			}
-			return ret;
+			functionCode = symbol;
+			return FUNCTIONCODE;
+		}
+
+		if (symbol < 0x80) {
+			chars[charCount++] = (char) symbol;
+		}
+		else if (symbol >= 0xC2 && symbol <= 0xDF) {
+			startSequence(symbol & 0x1F, 1, 0x80);
+		}
+		else if (symbol >= 0xE0 && symbol <= 0xEF) {
+			startSequence(symbol & 0x0F, 2, 0x800);
+		}
+		else if (symbol >= 0xF0 && symbol <= 0xF4) {
+			startSequence(symbol & 0x07, 3, 0x10000);
 		}
 		else {
-			index++;
-			return INCOMPLETE;
+			// Stray continuation byte, overlong lead byte or obsolete 5/6 byte form
+			chars[charCount++] = REPLACEMENT;
 		}
+
+		if (charCount > 0) {
+			return PRINTABLE;
+		}
+		return INCOMPLETE;
 	}
 
 	/**
@@ -190,7 +329,18 @@ class Decoder {
 	 * @return the string representation of the buffer's contents
 	 */
 	public String getPrintable() {
-		return new String(buffer, 0, expectedLength);
+		return new String(chars, 0, charCount);
+	}
+
+	/**
+	 * Append the decoded chars to a buffer. Unlike getPrintable(), this does not
+	 * allocate.
+	 * 
+	 * @param dest
+	 *          where to append to
+	 */
+	public void appendPrintable(StringBuilder dest) {
+		dest.append(chars, 0, charCount);
 	}
 
 	/**
@@ -205,60 +355,43 @@ class Decoder {
 	}
 
 	/**
-	 * Compute the length of a UTF-8 sequence.
+	 * Begin decoding a multibyte UTF-8 sequence
 	 * 
-	 * @param input
-	 *          first byte of the sequence
-	 * @return number of bytes in the sequence.
+	 * @param bits
+	 *          payload of the lead byte
+	 * @param length
+	 *          number of continuation bytes to expect
+	 * @param min
+	 *          smallest legal code point for this length
 	 */
-	public static int runLength(int input) {
-		// SEE: http://en.wikipedia.org/wiki/UTF-8#Description
-		if ((((byte) input) & 252) == 252)
-			return 6;
-		if ((((byte) input) & 248) == 248)
-			return 5;
-		if ((((byte) input) & 240) == 240)
-			return 4;
-		if ((((byte) input) & 224) == 224)
-			return 3;
-		if ((((byte) input) & 192) == 192)
-			return 2;
-		return 1;
+	private void startSequence(int bits, int length, int min) {
+		type = UTF8SEQ;
+		codePoint = bits;
+		remaining = length;
+		minimum = min;
 	}
 
 	/**
-	 * Figure out if the buffer contains a (n in)complete escape sequence
-	 * and if so, which one.
+	 * Feed the next symbol of an escape sequence to the trie and figure out if
+	 * it completes a sequence and if so, which one.
+	 * 
+	 * @param symbol
+	 *          the symbol following the ones already matched
 	 */
-	private void matchEscapeSequence() {
-		complete=false;
-		functionCode=UNSUPPORTED;
-		
-		if (index == 0) { // Skip over the initial escape character
-			return;					// We abuse its slot for other purposes.
+	private void matchEscapeSequence(int symbol) {
+		if (symbol < 0 || symbol >= ALPHABET) {
+			state = 0;
 		}
-		
-		int candidates=0;
-		for (int x = 0; x < sequences.length; x++) {
-			if (index >=sequences[x].length) {
-				continue;
-			}
-			boolean matched=true;
-			for (int y=1;y<=index;y++) { // Start at slot 1!
-				if (buffer[y]!=sequences[x][y]) {
-					matched=false;
-					break;
-				}
-			}
-			if (matched && sequences[x].length-1==index) {
-				functionCode=sequences[x][0];
-				complete=true;
-				return;
-			}
-			if (matched && sequences[x].length>index) {
-				candidates++;
-			}
+		else {
+			state = TRANSITIONS[state * ALPHABET + symbol];
+		}
+		if (state == 0) {
+			functionCode = UNSUPPORTED;
+			type = IDLE;
+		}
+		else if (ACCEPT[state] != 0) {
+			functionCode = ACCEPT[state];
+			type = IDLE;
 		}
-		complete=(candidates==0);
 	}
 }
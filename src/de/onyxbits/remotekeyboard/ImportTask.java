@@ -1,95 +1,225 @@
 package de.onyxbits.remotekeyboard;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Iterator;
+import java.net.URLConnection;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.util.Log;
+import android.view.Window;
 import android.widget.Toast;
 
 /**
- * Populate the replacement database by downloading a JSON file from a
- * webserver.
- * 
+ * Populate the replacement database from a JSON file. The file may be
+ * downloaded from a webserver or read from a local path or content URI. It is
+ * parsed as a stream and inserted in a single transaction, so neither the size
+ * of the file nor the number of entries matter much. Existing keys get
+ * overwritten.
+ *
  * @author patrick
- * 
+ *
  */
 class ImportTask extends AsyncTask<String, Integer, String> {
 
 	public static final String TAG="de.onyxbits.remotekeyboard.ImportTask";
-	
+
+	/**
+	 * Number of rows to insert between progress updates.
+	 */
+	private static final int BATCH = 1000;
+
+	private static final String INSERT = "INSERT OR REPLACE INTO "
+			+ Schema.TABLE_REPLACEMENTS + " (" + Schema.COLUMN_KEY + ","
+			+ Schema.COLUMN_VALUE + ") VALUES (?,?)";
+
 	private ReplacementsListActivity master;
+	private Context context;
+	private Schema schema;
+
+	/**
+	 * Size of the input in bytes or -1 if unknown.
+	 */
+	private long total = -1;
 
 	public ImportTask(ReplacementsListActivity master) {
+		this(master, Schema.getInstance(master));
 		this.master = master;
 	}
 
+	/**
+	 * Import without an activity to report to (for testing). Subclasses must
+	 * take care of the UI callbacks.
+	 *
+	 * @param context
+	 *          for resolving content URIs and notifying observers
+	 * @param schema
+	 *          the database to import into
+	 */
+	ImportTask(Context context, Schema schema) {
+		this.context = context;
+		this.schema = schema;
+	}
+
 	@Override
 	public void onPreExecute() {
 		master.setProgressBarIndeterminate(true);
 		master.setProgressBarVisibility(true);
 	}
 
+	@Override
+	protected void onProgressUpdate(Integer... progress) {
+		master.setProgressBarIndeterminate(false);
+		master.setProgress(progress[0]);
+	}
+
 	@Override
 	protected void onPostExecute(String result) {
 		master.setProgressBarIndeterminate(false);
 		master.setProgressBarVisibility(false);
-		SQLiteDatabase database = new Schema(master).getReadableDatabase();
-		master.load(database);
-		database.close();
 		Toast.makeText(master, result, Toast.LENGTH_SHORT).show();
 	}
 
 	@Override
-	protected String doInBackground(String... urls) {
+	protected String doInBackground(String... sources) {
 		String result = "Success!";
+		InputStream is = null;
 		try {
-			URL url = new URL(urls[0]);
-			InputStream is = url.openStream(); // throws an IOException
-			BufferedReader br = new BufferedReader(new InputStreamReader(is));
-			StringBuilder sb = new StringBuilder();
-			String line;
-
-			while ((line = br.readLine()) != null) {
-				sb.append(line);
+			CountingInputStream counter = new CountingInputStream(open(sources[0]));
+			is = counter;
+			JsonPairReader reader = new JsonPairReader(new BufferedReader(
+					new InputStreamReader(is, "UTF-8")));
+			// Going through the provider would mean one transaction per row or
+			// holding all rows in memory for bulkInsert().
+			SQLiteDatabase database = schema.getWritableDatabase();
+			SQLiteStatement insert = database.compileStatement(INSERT);
+			int count = 0;
+			database.beginTransaction();
+			try {
+				while (reader.next()) {
+					insert.bindString(1, reader.getName());
+					insert.bindString(2, reader.getValue());
+					insert.executeInsert();
+					count++;
+					if (count % BATCH == 0 && total > 0) {
+						publishProgress((int) (Window.PROGRESS_END * counter.count
+								/ total));
+					}
+				}
+				database.setTransactionSuccessful();
 			}
-			JSONObject json = new JSONObject(sb.toString());
-			Schema dbHelper = new Schema(master);
-			SQLiteDatabase database = dbHelper.getWritableDatabase();
-			@SuppressWarnings("unchecked")
-			Iterator <String>it = json.keys();
-			while (it.hasNext()) {
-				String key = it.next();
-				ContentValues values = new ContentValues();
-				values.put(Schema.COLUMN_KEY, key);
-				values.put(Schema.COLUMN_VALUE, json.getString(key));
-				database.insert(Schema.TABLE_REPLACEMENTS, null, values);
+			finally {
+				database.endTransaction();
+				insert.close();
+				// Only now the rows are visible. Invalidating earlier would let a
+				// snapshot of the old table slip in before the commit.
+				ReplacementDictionary.invalidate(context);
 			}
-			database.close();
+			context.getContentResolver().notifyChange(
+					ReplacementsProvider.CONTENT_URI, null);
 		}
 		catch (MalformedURLException exp) {
-			result=master.getString(R.string.err_malformed_url);
+			result=context.getString(R.string.err_malformed_url);
+			Log.w(TAG,exp);
+		}
+		catch (FileNotFoundException exp) {
+			result=context.getString(R.string.err_file_not_found);
 			Log.w(TAG,exp);
 		}
 		catch (IOException exp) {
-			result=master.getString(R.string.err_network_error);
+			result=context.getString(R.string.err_network_error);
 			Log.w(TAG,exp);
 		}
 		catch (JSONException exp) {
-			result = master.getString(R.string.err_corrupt_data);
+			result = context.getString(R.string.err_corrupt_data);
 			Log.w(TAG,exp);
 		}
+		finally {
+			if (is != null) {
+				try {
+					is.close();
+				}
+				catch (IOException exp) {
+				}
+			}
+		}
 		return result;
 	}
 
+	/**
+	 * Open the source and figure out its size.
+	 *
+	 * @param source
+	 *          an URL, a content/file URI or a plain path.
+	 * @return the stream to read from.
+	 */
+	private InputStream open(String source) throws IOException {
+		String scheme = Uri.parse(source).getScheme();
+		if (scheme == null) {
+			File file = new File(source);
+			total = file.length();
+			return new FileInputStream(file);
+		}
+		if (scheme.equals("content") || scheme.equals("file")) {
+			AssetFileDescriptor afd = context.getContentResolver()
+					.openAssetFileDescriptor(Uri.parse(source), "r");
+			total = afd.getLength();
+			return afd.createInputStream();
+		}
+		URLConnection con = new URL(source).openConnection();
+		total = con.getContentLength();
+		return con.getInputStream();
+	}
+
+	/**
+	 * Keeps track of how far we got for reporting progress.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		protected long count;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int ret = super.read();
+			if (ret != -1) {
+				count++;
+			}
+			return ret;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int ret = super.read(buffer, offset, length);
+			if (ret > 0) {
+				count += ret;
+			}
+			return ret;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long ret = super.skip(n);
+			count += ret;
+			return ret;
+		}
+	}
+
 }
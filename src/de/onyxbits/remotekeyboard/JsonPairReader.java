@@ -0,0 +1,204 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.JSONException;
+
+/**
+ * Streaming parser for flat JSON objects (the format we export replacements
+ * in). Reads one name/value pair at a time instead of building the whole
+ * object in memory. Scalar values (numbers, booleans, null) are returned as
+ * their literal text, nested objects and arrays are rejected. We can't use
+ * android.util.JsonReader since it requires API level 11.
+ *
+ * @author patrick
+ *
+ */
+class JsonPairReader {
+
+	private Reader in;
+	private int pushback = -1;
+	private boolean started;
+	private boolean done;
+	private StringBuilder buffer = new StringBuilder();
+	private String name;
+	private String value;
+
+	/**
+	 * @param in
+	 *          where to read from. Should be buffered.
+	 */
+	public JsonPairReader(Reader in) {
+		this.in = in;
+	}
+
+	/**
+	 * Read the next pair
+	 *
+	 * @return true if a pair was read, false if the end of the object was
+	 *         reached.
+	 * @throws IOException
+	 *           if reading fails
+	 * @throws JSONException
+	 *           if the input is not a flat JSON object
+	 */
+	public boolean next() throws IOException, JSONException {
+		if (done) {
+			return false;
+		}
+		int c = nextClean();
+		if (!started) {
+			if (c != '{') {
+				throw new JSONException("Expected '{'");
+			}
+			started = true;
+			c = nextClean();
+			if (c == '}') {
+				done = true;
+				return false;
+			}
+		}
+		else {
+			if (c == '}') {
+				done = true;
+				return false;
+			}
+			if (c != ',') {
+				throw new JSONException("Expected ',' or '}'");
+			}
+			c = nextClean();
+		}
+		if (c != '"') {
+			throw new JSONException("Expected name");
+		}
+		name = readString();
+		if (nextClean() != ':') {
+			throw new JSONException("Expected ':' after " + name);
+		}
+		value = readValue();
+		return true;
+	}
+
+	/**
+	 * @return name of the pair last read
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return value of the pair last read
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	private int read() throws IOException {
+		if (pushback != -1) {
+			int c = pushback;
+			pushback = -1;
+			return c;
+		}
+		return in.read();
+	}
+
+	/**
+	 * @return the next char that is not whitespace
+	 */
+	private int nextClean() throws IOException, JSONException {
+		int c;
+		do {
+			c = read();
+		} while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+		if (c == -1) {
+			throw new JSONException("Unexpected end of input");
+		}
+		return c;
+	}
+
+	private String readValue() throws IOException, JSONException {
+		int c = nextClean();
+		if (c == '"') {
+			return readString();
+		}
+		if (c == '{' || c == '[') {
+			throw new JSONException("Nested values are not supported");
+		}
+		buffer.setLength(0);
+		while (c != -1 && c != ',' && c != '}' && c > ' ') {
+			buffer.append((char) c);
+			c = read();
+		}
+		pushback = c;
+		return buffer.toString();
+	}
+
+	/**
+	 * Read a string literal. The opening quote must already be consumed.
+	 */
+	private String readString() throws IOException, JSONException {
+		buffer.setLength(0);
+		while (true) {
+			int c = read();
+			switch (c) {
+				case -1: {
+					throw new JSONException("Unterminated string");
+				}
+				case '"': {
+					return buffer.toString();
+				}
+				case '\\': {
+					c = read();
+					switch (c) {
+						case 'b': {
+							buffer.append('\b');
+							break;
+						}
+						case 'f': {
+							buffer.append('\f');
+							break;
+						}
+						case 'n': {
+							buffer.append('\n');
+							break;
+						}
+						case 'r': {
+							buffer.append('\r');
+							break;
+						}
+						case 't': {
+							buffer.append('\t');
+							break;
+						}
+						case 'u': {
+							int code = 0;
+							for (int i = 0; i < 4; i++) {
+								int digit = Character.digit(read(), 16);
+								if (digit == -1) {
+									throw new JSONException("Illegal escape sequence");
+								}
+								code = (code << 4) | digit;
+							}
+							buffer.append((char) code);
+							break;
+						}
+						case '"':
+						case '\\':
+						case '/': {
+							buffer.append((char) c);
+							break;
+						}
+						default: {
+							throw new JSONException("Illegal escape sequence");
+						}
+					}
+					break;
+				}
+				default: {
+					buffer.append((char) c);
+				}
+			}
+		}
+	}
+}
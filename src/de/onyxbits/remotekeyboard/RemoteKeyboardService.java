@@ -8,19 +8,17 @@ import android.inputmethodservice.KeyboardView.OnKeyboardActionListener;
 
 import java.io.InputStream;
 import java.net.InetAddress;
-import java.util.HashMap;
 import java.util.Properties;
 
 import net.wimpi.telnetd.BootException;
 import net.wimpi.telnetd.TelnetD;
+import net.wimpi.telnetd.net.HostNameResolver;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.AssetManager;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.inputmethodservice.InputMethodService;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
@@ -30,6 +28,7 @@ import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.view.View;
 import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.ExtractedText;
 import android.view.inputmethod.ExtractedTextRequest;
 import android.view.inputmethod.InputConnection;
 import android.view.inputmethod.InputMethodManager;
@@ -58,7 +57,17 @@ public class RemoteKeyboardService extends InputMethodService implements
 	/**
 	 * Contains key/value replacement pairs
 	 */
-	protected HashMap<String, String> replacements;
+	protected ReplacementDictionary replacements;
+
+	/**
+	 * The remote host shown in the notification (null if not connected).
+	 */
+	private volatile InetAddress peer;
+
+	/**
+	 * Local copy of the current editor's text.
+	 */
+	protected TextMirror mirror;
 
 	/**
 	 * Reference to the telnetserver instance
@@ -76,6 +85,10 @@ public class RemoteKeyboardService extends InputMethodService implements
 		AssetManager assetManager = getResources().getAssets();
 		self = this;
 		handler = new Handler();
+		mirror = new TextMirror(this);
+		replacements = new ReplacementDictionary(this);
+		replacements.restore();
+		replacements.reload();
 
 		try {
 			InputStream inputStream = assetManager.open("telnetd.properties");
@@ -87,7 +100,6 @@ public class RemoteKeyboardService extends InputMethodService implements
 			telnetServer.start();
 
 			updateNotification(null);
-			loadReplacements();
 		}
 		catch (IOException e) {
 			Log.w(TAG, e);
@@ -97,6 +109,32 @@ public class RemoteKeyboardService extends InputMethodService implements
 		}
 	}
 
+	@Override
+	public void onStartInput(EditorInfo attribute, boolean restarting) {
+		super.onStartInput(attribute, restarting);
+		mirror.invalidate();
+	}
+
+	@Override
+	public void onFinishInput() {
+		super.onFinishInput();
+		mirror.invalidate();
+	}
+
+	@Override
+	public void onUpdateSelection(int oldSelStart, int oldSelEnd,
+			int newSelStart, int newSelEnd, int candidatesStart, int candidatesEnd) {
+		super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
+				candidatesStart, candidatesEnd);
+		mirror.setSelection(newSelStart, newSelEnd);
+	}
+
+	@Override
+	public void onUpdateExtractedText(int token, ExtractedText text) {
+		super.onUpdateExtractedText(token, text);
+		mirror.update(token, text);
+	}
+
 	@Override
 	public boolean onEvaluateFullscreenMode() {
 		SharedPreferences p = PreferenceManager.getDefaultSharedPreferences(this);
@@ -125,6 +163,7 @@ public class RemoteKeyboardService extends InputMethodService implements
 		}
 		NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
 		notificationManager.cancel(NOTIFICATION);
+		replacements.close();
 		self = null;
 	}
 
@@ -210,12 +249,15 @@ public class RemoteKeyboardService extends InputMethodService implements
 	}
 
 	/**
-	 * Update the message in the notification area
+	 * Update the message in the notification area. Shows the address of the
+	 * remote host until its name is resolved in the background, then updates
+	 * again.
 	 * 
 	 * @param remote
 	 *          the remote host we are connected to or null if not connected.
 	 */
-	protected void updateNotification(InetAddress remote) {
+	protected void updateNotification(final InetAddress remote) {
+		peer = remote;
 		String title = getResources().getString(R.string.notification_title);
 		String content = null;
 		if (remote == null) {
@@ -230,8 +272,24 @@ public class RemoteKeyboardService extends InputMethodService implements
 					.getString(R.string.notification_waiting, "" + ip);
 		}
 		else {
-			content = getResources().getString(R.string.notification_peer,
-					remote.getHostName());
+			HostNameResolver resolver = HostNameResolver.getReference();
+			String name = resolver.getCachedHostName(remote);
+			if (name == null) {
+				name = remote.getHostAddress();
+				resolver.resolve(remote, new HostNameResolver.Listener() {
+					public void hostNameResolved(InetAddress addr, String n) {
+						handler.post(new Runnable() {
+							public void run() {
+								// Still talking to the same host?
+								if (remote.equals(peer)) {
+									updateNotification(remote);
+								}
+							}
+						});
+					}
+				});
+			}
+			content = getResources().getString(R.string.notification_peer, name);
 		}
 
 		NotificationCompat.Builder builder = new NotificationCompat.Builder(this);
@@ -247,23 +305,4 @@ public class RemoteKeyboardService extends InputMethodService implements
 		notificationManager.notify(NOTIFICATION, builder.build());
 	}
 
-	/**
-	 * Load the replacements map from the database
-	 */
-	protected void loadReplacements() {
-		HashMap<String, String> tmp = new HashMap<String, String>();
-		SQLiteDatabase database = new Schema(RemoteKeyboardService.self)
-				.getReadableDatabase();
-		String[] columns = { Schema.COLUMN_KEY, Schema.COLUMN_VALUE };
-		Cursor cursor = database.query(Schema.TABLE_REPLACEMENTS, columns, null,
-				null, null, null, null);
-		cursor.moveToFirst();
-		while (!cursor.isAfterLast()) {
-			tmp.put(cursor.getString(0), cursor.getString(1));
-			cursor.moveToNext();
-		}
-		database.close();
-		replacements = tmp;
-	}
-
 }
@@ -2,8 +2,8 @@ package de.onyxbits.remotekeyboard;
 
 import android.os.Bundle;
 import android.app.Activity;
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.database.sqlite.SQLiteDatabase;
 import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -74,21 +74,16 @@ public class ReplacementActivity extends Activity implements
 			return true;
 		}
 
-		Schema dbHelper = new Schema(this);
-		SQLiteDatabase database = dbHelper.getWritableDatabase();
 		ContentValues values = new ContentValues();
 		values.put(Schema.COLUMN_KEY, key);
 		values.put(Schema.COLUMN_VALUE, val);
 		if (rowid == -1) {
-			database.insert(Schema.TABLE_REPLACEMENTS, null, values);
+			getContentResolver().insert(ReplacementsProvider.CONTENT_URI, values);
 		}
 		else {
-			database.update(Schema.TABLE_REPLACEMENTS, values, Schema.COLUMN_ID + "="
-					+ rowid, null);
-		}
-		database.close();
-		if (RemoteKeyboardService.self != null) {
-			RemoteKeyboardService.self.loadReplacements();
+			getContentResolver().update(
+					ContentUris.withAppendedId(ReplacementsProvider.CONTENT_URI, rowid),
+					values, null, null);
 		}
 		finish();
 		return true;
@@ -97,14 +92,9 @@ public class ReplacementActivity extends Activity implements
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
 		if (rowid != -1) {
-			Schema dbHelper = new Schema(this);
-			SQLiteDatabase database = dbHelper.getWritableDatabase();
-			database.delete(Schema.TABLE_REPLACEMENTS, Schema.COLUMN_ID + " = "
-					+ rowid, null);
-			database.close();
-			if (RemoteKeyboardService.self != null) {
-				RemoteKeyboardService.self.loadReplacements();
-			}
+			getContentResolver().delete(
+					ContentUris.withAppendedId(ReplacementsProvider.CONTENT_URI, rowid),
+					null, null);
 			finish();
 			return true;
 		}
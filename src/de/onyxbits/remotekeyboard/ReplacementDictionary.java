@@ -0,0 +1,350 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Keeps the replacements table in memory. All database access and compiling
+ * happens on a background thread. Readers simply grab the current
+ * ReplacementTrie, which gets swapped out as a whole whenever the table
+ * changes. We watch ReplacementsProvider for changes. When it reports a single
+ * row, only that row is fetched and applied to the in memory copy instead of
+ * reading the whole table again.
+ * <p>
+ * Every compiled dictionary is also saved as a snapshot file, which is loaded
+ * on startup before the database is even opened. Whoever modifies the table
+ * must call invalidate() once the change is committed. As a safety net, the
+ * restored snapshot is checked against the table on the initial load and
+ * compiled again if they differ.
+ *
+ * @author patrick
+ *
+ */
+class ReplacementDictionary {
+
+	public static final String TAG = "ReplacementDictionary";
+
+	static final String SNAPSHOT = "replacements.snapshot";
+
+	private static final String[] COLUMNS = { Schema.COLUMN_ID,
+			Schema.COLUMN_KEY, Schema.COLUMN_VALUE };
+
+	private ContentResolver resolver;
+	private File snapshot;
+	private HandlerThread thread;
+	private Handler worker;
+
+	/**
+	 * key -> value. Only modified on the worker thread. Guarded by this, so
+	 * snapshot() can be called from anywhere.
+	 */
+	private HashMap<String, String> values = new HashMap<String, String>();
+
+	/**
+	 * row id -> key and key -> row id. Needed for applying updates and deletes.
+	 * Worker thread only.
+	 */
+	private HashMap<Long, String> keys = new HashMap<Long, String>();
+	private HashMap<String, Long> rows = new HashMap<String, Long>();
+
+	/**
+	 * Whether a compile() is already queued. Worker thread only.
+	 */
+	private boolean compiling;
+
+	/**
+	 * Whether the current trie came from a snapshot and does not need to be
+	 * compiled again after loading the table. Worker thread only.
+	 */
+	private boolean fresh;
+
+	private volatile ReplacementTrie trie;
+
+	private Runnable compiler = new Runnable() {
+		public void run() {
+			compiling = false;
+			compile();
+		}
+	};
+
+	/**
+	 * Gets called on the worker thread.
+	 */
+	private ContentObserver observer;
+
+	/**
+	 * @param context
+	 *          for accessing the provider
+	 */
+	public ReplacementDictionary(Context context) {
+		resolver = context.getContentResolver();
+		snapshot = new File(context.getFilesDir(), SNAPSHOT);
+		trie = new ReplacementTrie(values);
+		thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		worker = new Handler(thread.getLooper());
+		observer = new ContentObserver(worker) {
+			@Override
+			public void onChange(boolean selfChange) {
+				// Pre Jelly Bean, we don't know what changed.
+				load();
+			}
+
+			@Override
+			public void onChange(boolean selfChange, Uri uri) {
+				if (uri != null && !uri.equals(ReplacementsProvider.CONTENT_URI)) {
+					refresh(ContentUris.parseId(uri));
+				}
+				else {
+					load();
+				}
+			}
+		};
+		resolver.registerContentObserver(ReplacementsProvider.CONTENT_URI, true,
+				observer);
+	}
+
+	/**
+	 * @return the current dictionary. Never null, but empty until the initial
+	 *         reload() finished.
+	 */
+	public ReplacementTrie getTrie() {
+		return trie;
+	}
+
+	/**
+	 * @return a copy of all key/value pairs (e.g. for exporting).
+	 */
+	public synchronized HashMap<String, String> snapshot() {
+		return new HashMap<String, String>(values);
+	}
+
+	/**
+	 * Throw away the snapshot. Must be called after modifying the table.
+	 *
+	 * @param context
+	 *          any context of the app
+	 */
+	public static void invalidate(Context context) {
+		new File(context.getFilesDir(), SNAPSHOT).delete();
+	}
+
+	/**
+	 * Load the snapshot (if there is a valid one) in the background. Should be
+	 * called before the initial reload().
+	 */
+	public void restore() {
+		worker.post(new Runnable() {
+			public void run() {
+				if (!snapshot.exists()) {
+					return;
+				}
+				long start = System.currentTimeMillis();
+				try {
+					trie = ReplacementTrie.load(snapshot);
+					fresh = true;
+					Log.d(TAG, "Restored " + trie.size() + " replacements in "
+							+ (System.currentTimeMillis() - start) + "ms");
+				}
+				catch (IOException e) {
+					Log.w(TAG, e);
+					snapshot.delete();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Read the whole table in the background. Only needed initially, later
+	 * changes are picked up automatically.
+	 */
+	public void reload() {
+		worker.post(new Runnable() {
+			public void run() {
+				load();
+			}
+		});
+	}
+
+	/**
+	 * Record that a replacement was applied, so entries can be ranked by usage.
+	 *
+	 * @param key
+	 *          the key that was replaced
+	 */
+	public void touch(final String key) {
+		final ContentValues stats = new ContentValues();
+		stats.put(Schema.COLUMN_LASTUSED, System.currentTimeMillis());
+		worker.post(new Runnable() {
+			public void run() {
+				resolver.update(ReplacementsProvider.USED_URI.buildUpon()
+						.appendPath(key).build(), stats, null, null);
+			}
+		});
+	}
+
+	/**
+	 * Stop watching the table and stop the worker thread once it is done with
+	 * the pending changes.
+	 */
+	public void close() {
+		resolver.unregisterContentObserver(observer);
+		worker.post(new Runnable() {
+			public void run() {
+				thread.quit();
+			}
+		});
+	}
+
+	/**
+	 * Wait for the worker thread to finish after close(), so the table and the
+	 * snapshot can be thrown away safely (for testing).
+	 *
+	 * @param millis
+	 *          how long to wait at most
+	 * @return true if the worker thread is gone.
+	 */
+	boolean join(long millis) throws InterruptedException {
+		thread.join(millis);
+		return !thread.isAlive();
+	}
+
+	private void load() {
+		long start = System.currentTimeMillis();
+		HashMap<String, String> tmpValues = new HashMap<String, String>();
+		HashMap<Long, String> tmpKeys = new HashMap<Long, String>();
+		HashMap<String, Long> tmpRows = new HashMap<String, Long>();
+		Cursor cursor = resolver.query(ReplacementsProvider.CONTENT_URI, COLUMNS,
+				null, null, null);
+		while (cursor.moveToNext()) {
+			String key = cursor.getString(1);
+			tmpKeys.put(cursor.getLong(0), key);
+			tmpRows.put(key, cursor.getLong(0));
+			tmpValues.put(key, cursor.getString(2));
+		}
+		cursor.close();
+		keys = tmpKeys;
+		rows = tmpRows;
+		synchronized (this) {
+			values = tmpValues;
+		}
+		if (!fresh || !matches(trie, tmpValues)) {
+			compile();
+		}
+		fresh = false;
+		Log.d(TAG, "Loaded " + tmpValues.size() + " replacements in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Check a restored snapshot against the table. The table was read anyway, so
+	 * this is cheap compared to compiling and catches snapshots that missed a
+	 * change (e.g. one written while an import was still running).
+	 *
+	 * @param dict
+	 *          the restored dictionary
+	 * @param table
+	 *          key/value pairs as found in the table
+	 * @return true if the dictionary holds exactly the table's pairs.
+	 */
+	private static boolean matches(ReplacementTrie dict,
+			HashMap<String, String> table) {
+		int count = 0;
+		for (Map.Entry<String, String> e : table.entrySet()) {
+			String key = e.getKey();
+			if (key == null || key.length() == 0 || e.getValue() == null) {
+				// Never compiled in, see ReplacementTrie.
+				continue;
+			}
+			if (!e.getValue().equals(dict.get(key))) {
+				return false;
+			}
+			count++;
+		}
+		return count == dict.size();
+	}
+
+	/**
+	 * Fetch a single row and apply it to the in memory copy.
+	 *
+	 * @param rowid
+	 *          the row's _id
+	 */
+	private void refresh(long rowid) {
+		Cursor cursor = resolver.query(
+				ContentUris.withAppendedId(ReplacementsProvider.CONTENT_URI, rowid),
+				COLUMNS, null, null, null);
+		if (cursor.moveToFirst()) {
+			put(rowid, cursor.getString(1), cursor.getString(2));
+		}
+		else {
+			remove(rowid);
+		}
+		cursor.close();
+		scheduleCompile();
+	}
+
+	private void put(long rowid, String key, String value) {
+		String old = keys.put(rowid, key);
+		// Keys are unique. If another row had this key, the database replaced it.
+		Long other = rows.put(key, rowid);
+		if (other != null && other != rowid) {
+			keys.remove(other);
+		}
+		if (old != null && !old.equals(key)) {
+			rows.remove(old);
+		}
+		synchronized (this) {
+			if (old != null) {
+				values.remove(old);
+			}
+			values.put(key, value);
+		}
+	}
+
+	private void remove(long rowid) {
+		String old = keys.remove(rowid);
+		if (old != null) {
+			rows.remove(old);
+			synchronized (this) {
+				values.remove(old);
+			}
+		}
+	}
+
+	/**
+	 * Coalesce a burst of single row changes into one compile run.
+	 */
+	private void scheduleCompile() {
+		if (!compiling) {
+			compiling = true;
+			worker.post(compiler);
+		}
+	}
+
+	private void compile() {
+		// Only the worker thread modifies values, so no need to lock for reading.
+		trie = new ReplacementTrie(values);
+		try {
+			trie.save(snapshot);
+		}
+		catch (IOException e) {
+			Log.w(TAG, e);
+			snapshot.delete();
+		}
+	}
+}
@@ -0,0 +1,579 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compiled form of the replacements table. Keys are stored in a trie, so looking
+ * one up takes O(key length), no matter how many entries there are. Keys may
+ * contain any char, including blanks and punctuation. The trie doubles as an
+ * Aho-Corasick automaton: feeding typed chars into step() one by one tells which
+ * keys the text typed so far ends with, which is what auto expansion needs.
+ * <p>
+ * Nodes and edges are kept in flat arrays (edges sorted per node), so the
+ * memory footprint is a couple of bytes per char of key material rather than an
+ * object per node. Immutable once built, so it may be shared between threads.
+ * <p>
+ * The arrays can be saved to a snapshot file and mapped back in, which is a lot
+ * cheaper than querying the database and compiling again. A loaded trie works
+ * on views of the mapping instead of copies on the heap and only decodes a
+ * replacement when it is asked for. Loading still reads the file once to verify
+ * its checksum, so a corrupt snapshot is caught up front rather than halfway
+ * through a lookup.
+ *
+ * @author patrick
+ *
+ */
+class ReplacementTrie {
+
+	/**
+	 * The automaton's initial state (nothing typed yet).
+	 */
+	public static final int ROOT = 0;
+
+	/**
+	 * Identifies snapshot files and the version of their layout ("RKD2").
+	 */
+	private static final int MAGIC = 0x524b4432;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Per node: index of its first edge. Has one extra slot, so the edges of node
+	 * n are firstEdge[n] to firstEdge[n+1]-1.
+	 */
+	private IntBuffer firstEdge;
+
+	/**
+	 * Per node: the node representing the longest proper suffix of this node's
+	 * path that is also in the trie.
+	 */
+	private IntBuffer fail;
+
+	/**
+	 * Per node: entry of the longest key that the node's path ends with or -1.
+	 */
+	private IntBuffer match;
+
+	/**
+	 * Per edge: the char to follow and the node it leads to.
+	 */
+	private CharBuffer labels;
+	private IntBuffer targets;
+
+	/**
+	 * Per entry: the length of its key and the next shorter key that ends at the
+	 * same position (or -1).
+	 */
+	private IntBuffer lengths;
+	private IntBuffer shorter;
+
+	/**
+	 * The replacements of a compiled trie.
+	 */
+	private String[] values;
+
+	/**
+	 * The replacements of a loaded trie, UTF-8 encoded. Those of entry n are
+	 * valueData[valueStart[n]] to valueData[valueStart[n+1]-1].
+	 */
+	private IntBuffer valueStart;
+	private ByteBuffer valueData;
+
+	/**
+	 * Compile a dictionary
+	 *
+	 * @param replacements
+	 *          key/value pairs. Empty keys are ignored.
+	 */
+	public ReplacementTrie(Map<String, String> replacements) {
+		Builder builder = new Builder();
+		for (Map.Entry<String, String> e : replacements.entrySet()) {
+			builder.add(e.getKey(), e.getValue());
+		}
+		builder.compile();
+	}
+
+	/**
+	 * Read a snapshot
+	 *
+	 * @param buf
+	 *          the whole snapshot, positioned at its start
+	 * @throws IOException
+	 *           if the snapshot is not valid
+	 */
+	private ReplacementTrie(ByteBuffer buf) throws IOException {
+		if (buf.remaining() < 16 || buf.getInt() != MAGIC) {
+			throw new IOException("Not a snapshot");
+		}
+		int nodes = buf.getInt();
+		int entries = buf.getInt();
+		int bytes = buf.getInt();
+		// Ints, labels, value bytes and the checksum have to fill the rest exactly.
+		long ints = 4L * nodes + 3L * entries + 1;
+		if (nodes < 1 || entries < 0 || bytes < 0
+				|| buf.remaining() != 4 * ints + 2L * (nodes - 1) + bytes + 4) {
+			throw new IOException("Corrupt header");
+		}
+		int checksum = buf.getInt(buf.limit() - 4);
+		if (checksum != checksum(buf)) {
+			throw new IOException("Checksum mismatch");
+		}
+		firstEdge = intView(buf, nodes + 1);
+		fail = intView(buf, nodes);
+		match = intView(buf, nodes);
+		targets = intView(buf, nodes - 1);
+		lengths = intView(buf, entries);
+		shorter = intView(buf, entries);
+		valueStart = intView(buf, entries + 1);
+		labels = slice(buf, 2 * (nodes - 1)).asCharBuffer();
+		valueData = slice(buf, bytes);
+		if (firstEdge.get(nodes) != nodes - 1 || valueStart.get(0) != 0
+				|| valueStart.get(entries) != bytes) {
+			throw new IOException("Corrupt tables");
+		}
+	}
+
+	/**
+	 * Map a snapshot written by save().
+	 *
+	 * @param file
+	 *          the snapshot
+	 * @return the dictionary
+	 * @throws IOException
+	 *           if the file can't be read or is corrupt.
+	 */
+	public static ReplacementTrie load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// The mapping stays valid after the file is closed.
+			return new ReplacementTrie(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size()));
+		}
+		catch (RuntimeException e) {
+			// Truncated file or insane sizes in the header.
+			throw new IOException("Corrupt snapshot: " + e);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write a snapshot of the dictionary. The file is replaced atomically, so a
+	 * crash can't leave a half written snapshot behind.
+	 *
+	 * @param file
+	 *          where to save to.
+	 * @throws IOException
+	 *           if writing fails
+	 */
+	public void save(File file) throws IOException {
+		int nodes = fail.capacity();
+		int entries = size();
+		byte[][] encoded = new byte[entries][];
+		int[] starts = new int[entries + 1];
+		for (int i = 0; i < entries; i++) {
+			encoded[i] = getValue(i).getBytes(UTF8);
+			starts[i + 1] = starts[i] + encoded[i].length;
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		CRC32 checksum = new CRC32();
+		DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024),
+				checksum));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(nodes);
+			out.writeInt(entries);
+			out.writeInt(starts[entries]);
+			writeInts(out, firstEdge);
+			writeInts(out, fail);
+			writeInts(out, match);
+			writeInts(out, targets);
+			writeInts(out, lengths);
+			writeInts(out, shorter);
+			writeInts(out, IntBuffer.wrap(starts));
+			for (int i = 0; i < labels.capacity(); i++) {
+				out.writeChar(labels.get(i));
+			}
+			for (byte[] bytes : encoded) {
+				out.write(bytes);
+			}
+			out.writeInt((int) checksum.getValue());
+		}
+		finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Failed to replace " + file);
+		}
+	}
+
+	/**
+	 * Look up a replacement
+	 *
+	 * @param key
+	 *          the key
+	 * @return the replacement or null if there is none.
+	 */
+	public String get(CharSequence key) {
+		return get(key, 0, key.length());
+	}
+
+	/**
+	 * Look up a replacement without having to cut the key out of a text first.
+	 *
+	 * @param text
+	 *          text containing the key
+	 * @param start
+	 *          first char of the key
+	 * @param end
+	 *          first char after the key
+	 * @return the replacement or null if there is none.
+	 */
+	public String get(CharSequence text, int start, int end) {
+		int entry = find(text, start, end);
+		return (entry == -1) ? null : getValue(entry);
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int size() {
+		return lengths.capacity();
+	}
+
+	/**
+	 * Advance the automaton by one char.
+	 *
+	 * @param state
+	 *          current state (ROOT to start with)
+	 * @param c
+	 *          the char that was typed
+	 * @return the new state
+	 */
+	public int step(int state, char c) {
+		while (true) {
+			int next = child(state, c);
+			if (next != -1) {
+				return next;
+			}
+			if (state == ROOT) {
+				return ROOT;
+			}
+			state = fail.get(state);
+		}
+	}
+
+	/**
+	 * @param state
+	 *          state of the automaton
+	 * @return the entry of the longest key the text fed so far ends with or -1.
+	 */
+	public int getMatch(int state) {
+		return match.get(state);
+	}
+
+	/**
+	 * @param entry
+	 *          an entry returned by getMatch() or getShorterMatch()
+	 * @return the next shorter key that ends at the same position or -1.
+	 */
+	public int getShorterMatch(int entry) {
+		return shorter.get(entry);
+	}
+
+	/**
+	 * @param entry
+	 *          an entry returned by getMatch() or getShorterMatch()
+	 * @return the replacement for the entry's key
+	 */
+	public String getValue(int entry) {
+		if (values != null) {
+			return values[entry];
+		}
+		int from = valueStart.get(entry);
+		byte[] bytes = new byte[valueStart.get(entry + 1) - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = valueData.get(from + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * @param entry
+	 *          an entry returned by getMatch() or getShorterMatch()
+	 * @return the number of chars in the entry's key
+	 */
+	public int getKeyLength(int entry) {
+		return lengths.get(entry);
+	}
+
+	/**
+	 * Exact lookup
+	 *
+	 * @param text
+	 *          text containing the key
+	 * @param start
+	 *          first char of the key
+	 * @param end
+	 *          first char after the key
+	 * @return the entry or -1 if the key is not in the dictionary
+	 */
+	public int find(CharSequence text, int start, int end) {
+		int node = ROOT;
+		for (int i = start; i < end && node != -1; i++) {
+			node = child(node, text.charAt(i));
+		}
+		if (node == -1 || node == ROOT) {
+			return -1;
+		}
+		int entry = match.get(node);
+		// match may also point at a shorter key (suffix) of the path.
+		return (entry != -1 && lengths.get(entry) == end - start) ? entry : -1;
+	}
+
+	/**
+	 * Follow an edge
+	 *
+	 * @return the child node or -1 if there is no edge for c.
+	 */
+	private int child(int node, char c) {
+		int low = firstEdge.get(node);
+		int high = firstEdge.get(node + 1) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char label = labels.get(mid);
+			if (label < c) {
+				low = mid + 1;
+			}
+			else if (label > c) {
+				high = mid - 1;
+			}
+			else {
+				return targets.get(mid);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Cut the next count ints out of the buffer.
+	 */
+	private static IntBuffer intView(ByteBuffer buf, int count) {
+		return slice(buf, 4 * count).asIntBuffer();
+	}
+
+	/**
+	 * Cut the next length bytes out of the buffer and move past them.
+	 */
+	private static ByteBuffer slice(ByteBuffer buf, int length) {
+		ByteBuffer ret = buf.slice();
+		ret.limit(length);
+		buf.position(buf.position() + length);
+		return ret;
+	}
+
+	/**
+	 * CRC32 of everything in the snapshot but the checksum at its end. Runs over
+	 * the mapping in chunks, so the snapshot is not copied as a whole.
+	 */
+	private static int checksum(ByteBuffer buf) {
+		ByteBuffer data = buf.duplicate();
+		data.position(0);
+		data.limit(buf.limit() - 4);
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[8192];
+		while (data.hasRemaining()) {
+			int length = Math.min(chunk.length, data.remaining());
+			data.get(chunk, 0, length);
+			crc.update(chunk, 0, length);
+		}
+		return (int) crc.getValue();
+	}
+
+	private static void writeInts(DataOutputStream out, IntBuffer values)
+			throws IOException {
+		for (int i = 0; i < values.capacity(); i++) {
+			out.writeInt(values.get(i));
+		}
+	}
+
+	/**
+	 * Collects keys in a simple linked trie and then flattens it into arrays that
+	 * back the views of the enclosing instance. Only lives as long as the constructor.
+	 */
+	private class Builder {
+
+		private char[] label = new char[64];
+		private int[] child = new int[64];
+		private int[] sibling = new int[64];
+		private int[] entry = new int[64];
+		private int nodes = 1;
+
+		private String[] tmpValues = new String[16];
+		private int[] tmpLengths = new int[16];
+		private int entries;
+
+		private char[] edgeLabels;
+		private int[] edgeTargets;
+
+		public Builder() {
+			child[ROOT] = -1;
+			sibling[ROOT] = -1;
+			entry[ROOT] = -1;
+		}
+
+		public void add(String key, String value) {
+			if (key == null || key.length() == 0 || value == null) {
+				return;
+			}
+			int node = ROOT;
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				int next = child[node];
+				while (next != -1 && label[next] != c) {
+					next = sibling[next];
+				}
+				if (next == -1) {
+					next = newNode(c);
+					sibling[next] = child[node];
+					child[node] = next;
+				}
+				node = next;
+			}
+			if (entry[node] == -1) {
+				if (entries == tmpValues.length) {
+					tmpValues = Arrays.copyOf(tmpValues, entries * 2);
+					tmpLengths = Arrays.copyOf(tmpLengths, entries * 2);
+				}
+				entry[node] = entries++;
+			}
+			tmpValues[entry[node]] = value;
+			tmpLengths[entry[node]] = key.length();
+		}
+
+		private int newNode(char c) {
+			if (nodes == label.length) {
+				int size = nodes * 2;
+				label = Arrays.copyOf(label, size);
+				child = Arrays.copyOf(child, size);
+				sibling = Arrays.copyOf(sibling, size);
+				entry = Arrays.copyOf(entry, size);
+			}
+			label[nodes] = c;
+			child[nodes] = -1;
+			sibling[nodes] = -1;
+			entry[nodes] = -1;
+			return nodes++;
+		}
+
+		/**
+		 * Renumber the nodes in breadth first order, so the edges of each node are
+		 * stored next to each other and fail links can be computed in the same
+		 * pass (they always point to a node closer to the root).
+		 */
+		public void compile() {
+			int[] first = new int[nodes + 1];
+			int[] failLinks = new int[nodes];
+			int[] matches = new int[nodes];
+			int[] shorterMatches = new int[entries];
+			edgeLabels = new char[nodes - 1];
+			edgeTargets = new int[nodes - 1];
+			// step() works on these views while the fail links are computed.
+			firstEdge = IntBuffer.wrap(first);
+			fail = IntBuffer.wrap(failLinks);
+			match = IntBuffer.wrap(matches);
+			labels = CharBuffer.wrap(edgeLabels);
+			targets = IntBuffer.wrap(edgeTargets);
+			values = Arrays.copyOf(tmpValues, entries);
+			lengths = IntBuffer.wrap(Arrays.copyOf(tmpLengths, entries));
+			shorter = IntBuffer.wrap(shorterMatches);
+
+			// order[new id] = old id. Doubles as the BFS queue.
+			int[] order = new int[nodes];
+			int tail = 1;
+			int edges = 0;
+			matches[ROOT] = -1;
+			for (int head = 0; head < nodes; head++) {
+				int old = order[head];
+				first[head] = edges;
+				for (int c = child[old]; c != -1; c = sibling[c]) {
+					edgeLabels[edges] = label[c];
+					order[tail] = c;
+					edgeTargets[edges] = tail++;
+					edges++;
+				}
+				sortEdges(first[head], edges);
+			}
+			first[nodes] = edges;
+
+			// Nodes are numbered in BFS order, so parents and fail targets are
+			// always done before their children.
+			for (int node = 0; node < nodes; node++) {
+				for (int e = first[node]; e < first[node + 1]; e++) {
+					int next = edgeTargets[e];
+					failLinks[next] = (node == ROOT) ? ROOT : step(failLinks[node],
+							edgeLabels[e]);
+					int own = entry[order[next]];
+					int inherited = matches[failLinks[next]];
+					if (own != -1) {
+						matches[next] = own;
+						shorterMatches[own] = inherited;
+					}
+					else {
+						matches[next] = inherited;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Sort the edges in the given range by label. Most nodes only have a
+		 * handful of children, the root may have thousands.
+		 */
+		private void sortEdges(int from, int to) {
+			if (to - from > 16) {
+				long[] tmp = new long[to - from];
+				for (int i = from; i < to; i++) {
+					tmp[i - from] = ((long) edgeLabels[i] << 32) | edgeTargets[i];
+				}
+				Arrays.sort(tmp);
+				for (int i = from; i < to; i++) {
+					edgeLabels[i] = (char) (tmp[i - from] >>> 32);
+					edgeTargets[i] = (int) tmp[i - from];
+				}
+				return;
+			}
+			for (int i = from + 1; i < to; i++) {
+				char l = edgeLabels[i];
+				int t = edgeTargets[i];
+				int j = i - 1;
+				while (j >= from && edgeLabels[j] > l) {
+					edgeLabels[j + 1] = edgeLabels[j];
+					edgeTargets[j + 1] = edgeTargets[j];
+					j--;
+				}
+				edgeLabels[j + 1] = l;
+				edgeTargets[j + 1] = t;
+			}
+		}
+	}
+}
@@ -3,34 +3,47 @@ package de.onyxbits.remotekeyboard;
 import org.json.JSONObject;
 
 import android.app.AlertDialog;
-import android.app.ListActivity;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
 import android.os.Bundle;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
 import android.support.v4.widget.SimpleCursorAdapter;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.Window;
+import android.widget.AdapterView;
 import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.Toast;
 
 /**
- * Provides a list of all the shortcut/phrase replacement patterns we got.
+ * Provides a list of all the shortcut/phrase replacement patterns we got. The
+ * list is queried in the background and can be filtered by key prefix.
  * 
  * @author patrick
  * 
  */
-public class ReplacementsListActivity extends ListActivity implements
-		DialogInterface.OnClickListener {
+public class ReplacementsListActivity extends FragmentActivity implements
+		DialogInterface.OnClickListener, LoaderManager.LoaderCallbacks<Cursor>,
+		AdapterView.OnItemClickListener, TextWatcher {
 
 	private static final int CONFIRMDELETE = 1;
 	private static final int CONFIRMIMPORT = 2;
 
-	private Cursor cursor;
+	/**
+	 * For passing the filter to the loader.
+	 */
+	private static final String FILTER = "filter";
+
+	private SimpleCursorAdapter adapter;
 	private int dialogType;
 	private EditText urlinput;
 	private static final String[] COLUMNS = { Schema.COLUMN_KEY,
@@ -42,18 +55,54 @@ public class ReplacementsListActivity extends ListActivity implements
 		super.onCreate(bundle);
 		requestWindowFeature(Window.FEATURE_PROGRESS);
 		setContentView(R.layout.replacements_list);
+		int[] to = { R.id.entry_key, R.id.entry_value };
+		adapter = new SimpleCursorAdapter(this, R.layout.entry, null, COLUMNS, to,
+				0);
+		ListView list = (ListView) findViewById(android.R.id.list);
+		list.setEmptyView(findViewById(android.R.id.empty));
+		list.setAdapter(adapter);
+		list.setOnItemClickListener(this);
+		((EditText) findViewById(R.id.input_filter)).addTextChangedListener(this);
+		getSupportLoaderManager().initLoader(0, null, this);
+	}
+
+	@Override
+	public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+		Uri uri = ReplacementsProvider.CONTENT_URI;
+		if (args != null && args.getString(FILTER).length() > 0) {
+			uri = ReplacementsProvider.FILTER_URI.buildUpon()
+					.appendPath(args.getString(FILTER)).build();
+		}
+		return new CursorLoader(this, uri, COLUMNS, null, null, null);
+	}
+
+	@Override
+	public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+		adapter.swapCursor(data);
 	}
 
 	@Override
-	protected void onResume() {
-		super.onResume();
-		SQLiteDatabase database = new Schema(this).getReadableDatabase();
-		load(database);
-		database.close();
+	public void onLoaderReset(Loader<Cursor> loader) {
+		adapter.swapCursor(null);
 	}
 
 	@Override
-	public void onListItemClick(ListView l, View v, int position, long id) {
+	public void afterTextChanged(Editable s) {
+		reload();
+	}
+
+	@Override
+	public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count) {
+	}
+
+	@Override
+	public void onItemClick(AdapterView<?> parent, View view, int position,
+			long id) {
+		Cursor cursor = adapter.getCursor();
 		cursor.moveToPosition(position);
 		Intent intent = new Intent(this, ReplacementActivity.class);
 		intent.putExtra(ReplacementActivity.DBKEY, cursor.getString(0));
@@ -107,13 +156,8 @@ public class ReplacementsListActivity extends ListActivity implements
 		switch (dialogType) {
 			case CONFIRMDELETE: {
 				if (which == DialogInterface.BUTTON_POSITIVE) {
-					SQLiteDatabase database = new Schema(this).getWritableDatabase();
-					database.delete(Schema.TABLE_REPLACEMENTS, null, null);
-					load(database);
-					if (RemoteKeyboardService.self != null) {
-						RemoteKeyboardService.self.loadReplacements();
-					}
-					database.close();
+					getContentResolver().delete(ReplacementsProvider.CONTENT_URI, null,
+							null);
 				}
 				break;
 			}
@@ -127,20 +171,13 @@ public class ReplacementsListActivity extends ListActivity implements
 	}
 
 	/**
-	 * Create the Listadapter and put it on display.
-	 * 
-	 * @param database
-	 *          database handle
+	 * Query the list again (in the background), applying the current filter.
 	 */
-	protected void load(SQLiteDatabase database) {
-		int[] to = { R.id.entry_key, R.id.entry_value };
-		cursor = database.query(Schema.TABLE_REPLACEMENTS, COLUMNS, null, null,
-				null, null, Schema.COLUMN_KEY);
-		setListAdapter(new SimpleCursorAdapter(this, R.layout.entry, cursor,
-				COLUMNS, to, 0));
-		if (RemoteKeyboardService.self!=null) {
-			RemoteKeyboardService.self.loadReplacements();
-		}
+	protected void reload() {
+		Bundle args = new Bundle();
+		args.putString(FILTER, ((EditText) findViewById(R.id.input_filter))
+				.getText().toString());
+		getSupportLoaderManager().restartLoader(0, args, this);
 	}
 
 	/**
@@ -152,7 +189,8 @@ public class ReplacementsListActivity extends ListActivity implements
 					.show();
 			return;
 		}
-		JSONObject json = new JSONObject(RemoteKeyboardService.self.replacements);
+		JSONObject json = new JSONObject(
+				RemoteKeyboardService.self.replacements.snapshot());
 		TelnetEditorShell.self.showText(json.toString());
 		Toast.makeText(this, R.string.msg_sent, Toast.LENGTH_SHORT).show();
 	}
@@ -0,0 +1,217 @@
+package de.onyxbits.remotekeyboard;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+/**
+ * Owns the replacements table. All reads and edits go through here, so
+ * observers (the list and the service's dictionary) get notified. Edits of a
+ * single row are reported with the row's URI, everything else with
+ * CONTENT_URI.
+ *
+ * @author patrick
+ *
+ */
+public class ReplacementsProvider extends ContentProvider {
+
+	public static final String AUTHORITY = "de.onyxbits.remotekeyboard.replacements";
+
+	/**
+	 * All replacements. Append an _id for a single one.
+	 */
+	public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY
+			+ "/" + Schema.TABLE_REPLACEMENTS);
+
+	/**
+	 * Replacements whose key starts with a prefix. Append the prefix.
+	 */
+	public static final Uri FILTER_URI = Uri.withAppendedPath(CONTENT_URI,
+			"filter");
+
+	/**
+	 * For recording that a replacement was applied. Append the key and update
+	 * with COLUMN_LASTUSED. Increments COLUMN_USES, does not notify anyone.
+	 */
+	public static final Uri USED_URI = Uri.withAppendedPath(CONTENT_URI, "used");
+
+	private static final String TYPE_DIR = "vnd.android.cursor.dir/vnd.de.onyxbits.replacement";
+	private static final String TYPE_ITEM = "vnd.android.cursor.item/vnd.de.onyxbits.replacement";
+
+	private static final int REPLACEMENTS = 1;
+	private static final int REPLACEMENT = 2;
+	private static final int FILTER = 3;
+	private static final int USED = 4;
+
+	private static final UriMatcher MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+	static {
+		MATCHER.addURI(AUTHORITY, Schema.TABLE_REPLACEMENTS, REPLACEMENTS);
+		MATCHER.addURI(AUTHORITY, Schema.TABLE_REPLACEMENTS + "/#", REPLACEMENT);
+		MATCHER.addURI(AUTHORITY, Schema.TABLE_REPLACEMENTS + "/filter/*", FILTER);
+		// Empty filter
+		MATCHER.addURI(AUTHORITY, Schema.TABLE_REPLACEMENTS + "/filter",
+				REPLACEMENTS);
+		MATCHER.addURI(AUTHORITY, Schema.TABLE_REPLACEMENTS + "/used/*", USED);
+	}
+
+	private Schema schema;
+
+	@Override
+	public boolean onCreate() {
+		schema = openSchema();
+		return true;
+	}
+
+	/**
+	 * @return the database to serve. Tests substitute an in memory one.
+	 */
+	Schema openSchema() {
+		return Schema.getInstance(getContext());
+	}
+
+	@Override
+	public String getType(Uri uri) {
+		switch (MATCHER.match(uri)) {
+			case REPLACEMENTS:
+			case FILTER: {
+				return TYPE_DIR;
+			}
+			case REPLACEMENT: {
+				return TYPE_ITEM;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection,
+			String[] selectionArgs, String sortOrder) {
+		switch (MATCHER.match(uri)) {
+			case REPLACEMENTS: {
+				break;
+			}
+			case REPLACEMENT: {
+				selection = and(Schema.COLUMN_ID + "=" + ContentUris.parseId(uri),
+						selection);
+				break;
+			}
+			case FILTER: {
+				// A range instead of LIKE, so SQLite can use the index on the key.
+				String prefix = uri.getLastPathSegment();
+				char last = prefix.charAt(prefix.length() - 1);
+				String upper = prefix.substring(0, prefix.length() - 1)
+						+ (char) (last + 1);
+				selection = and(Schema.COLUMN_KEY + ">=? AND " + Schema.COLUMN_KEY
+						+ "<?", selection);
+				selectionArgs = prepend(selectionArgs, prefix, upper);
+				break;
+			}
+			default: {
+				throw new IllegalArgumentException("Unknown URI: " + uri);
+			}
+		}
+		if (sortOrder == null) {
+			sortOrder = Schema.COLUMN_KEY;
+		}
+		SQLiteDatabase database = schema.getReadableDatabase();
+		Cursor cursor = database.query(Schema.TABLE_REPLACEMENTS, projection,
+				selection, selectionArgs, null, null, sortOrder);
+		cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+		return cursor;
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+		if (MATCHER.match(uri) != REPLACEMENTS) {
+			throw new IllegalArgumentException("Unknown URI: " + uri);
+		}
+		// Keys are unique, an entry with the same key gets overwritten.
+		long rowid = schema.getWritableDatabase().insertWithOnConflict(
+				Schema.TABLE_REPLACEMENTS, null, values,
+				SQLiteDatabase.CONFLICT_REPLACE);
+		if (rowid == -1) {
+			return null;
+		}
+		Uri ret = ContentUris.withAppendedId(CONTENT_URI, rowid);
+		changed(ret);
+		return ret;
+	}
+
+	@Override
+	public int update(Uri uri, ContentValues values, String selection,
+			String[] selectionArgs) {
+		SQLiteDatabase database = schema.getWritableDatabase();
+		if (MATCHER.match(uri) == USED) {
+			// Statistics only, nobody needs to know.
+			database.execSQL("UPDATE " + Schema.TABLE_REPLACEMENTS + " SET "
+					+ Schema.COLUMN_USES + "=" + Schema.COLUMN_USES + "+1, "
+					+ Schema.COLUMN_LASTUSED + "=? WHERE " + Schema.COLUMN_KEY + "=?",
+					new Object[] { values.getAsLong(Schema.COLUMN_LASTUSED),
+							uri.getLastPathSegment() });
+			return 1;
+		}
+		int count = database.updateWithOnConflict(Schema.TABLE_REPLACEMENTS,
+				values, where(uri, selection), selectionArgs,
+				SQLiteDatabase.CONFLICT_REPLACE);
+		if (count > 0) {
+			changed(uri);
+		}
+		return count;
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		if (selection == null && MATCHER.match(uri) == REPLACEMENTS) {
+			// Make SQLite report the number of deleted rows.
+			selection = "1";
+		}
+		int count = schema.getWritableDatabase().delete(
+				Schema.TABLE_REPLACEMENTS, where(uri, selection), selectionArgs);
+		if (count > 0) {
+			changed(uri);
+		}
+		return count;
+	}
+
+	private void changed(Uri uri) {
+		ReplacementDictionary.invalidate(getContext());
+		getContext().getContentResolver().notifyChange(uri, null);
+	}
+
+	/**
+	 * Build the where clause for modifying the table.
+	 */
+	private static String where(Uri uri, String selection) {
+		switch (MATCHER.match(uri)) {
+			case REPLACEMENTS: {
+				return selection;
+			}
+			case REPLACEMENT: {
+				return and(Schema.COLUMN_ID + "=" + ContentUris.parseId(uri), selection);
+			}
+		}
+		throw new IllegalArgumentException("Unknown URI: " + uri);
+	}
+
+	private static String and(String clause, String selection) {
+		if (selection == null || selection.length() == 0) {
+			return clause;
+		}
+		return "(" + clause + ") AND (" + selection + ")";
+	}
+
+	private static String[] prepend(String[] args, String... first) {
+		if (args == null) {
+			return first;
+		}
+		String[] ret = new String[first.length + args.length];
+		System.arraycopy(first, 0, ret, 0, first.length);
+		System.arraycopy(args, 0, ret, first.length, args.length);
+		return ret;
+	}
+}
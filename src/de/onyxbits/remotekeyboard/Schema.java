@@ -3,10 +3,12 @@ package de.onyxbits.remotekeyboard;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 
 /**
- * Database definitions
+ * Database definitions. There is only one instance per process which is never
+ * closed. Everybody except ImportTask should go through ReplacementsProvider.
  * @author patrick
  *
  */
@@ -16,34 +18,99 @@ public class Schema extends SQLiteOpenHelper {
 	public static final String TABLE_REPLACEMENTS = "replacements";
 	public static final String COLUMN_ID = "_id";
 	private static final String DATABASE_NAME = "keyboard.db";
-	private static final int DATABASE_VERSION = 1;
+	private static final int DATABASE_VERSION = 2;
 	public static final String COLUMN_KEY = "key";
 	public static final String COLUMN_VALUE = "value";
 
+	/**
+	 * How often a replacement was applied (since version 2)
+	 */
+	public static final String COLUMN_USES = "uses";
+
+	/**
+	 * When a replacement was last applied in ms since the epoch, 0 for never
+	 * (since version 2)
+	 */
+	public static final String COLUMN_LASTUSED = "lastused";
+
+	private static final String INDEX_KEY = "replacements_key";
+
   private static final String DATABASE_CREATE = "create table "
       + TABLE_REPLACEMENTS + "(" 
   		+ COLUMN_ID +" integer primary key autoincrement, " 
       + COLUMN_KEY + " text not null," 
-      + COLUMN_VALUE + " text not null);";
+      + COLUMN_VALUE + " text not null,"
+      + COLUMN_USES + " integer not null default 0,"
+      + COLUMN_LASTUSED + " integer not null default 0);";
+
+	private static final String INDEX_CREATE = "create unique index "
+			+ INDEX_KEY + " on " + TABLE_REPLACEMENTS + "(" + COLUMN_KEY + ");";
 	
 
-  public Schema(Context context) {
-    super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	private static Schema instance;
+
+  private Schema(Context context) {
+    this(context, DATABASE_NAME);
   }
+
+	/**
+	 * Open a database other than the app's (for testing).
+	 *
+	 * @param context
+	 *          any context of the app
+	 * @param name
+	 *          file name of the database or null for an in memory one
+	 */
+	Schema(Context context, String name) {
+		super(context, name, null, DATABASE_VERSION);
+	}
+
+	/**
+	 * @param context
+	 *          any context of the app
+	 * @return the shared helper
+	 */
+	public static synchronized Schema getInstance(Context context) {
+		if (instance == null) {
+			instance = new Schema(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		// Lets the list query while the service or an import writes.
+		if (!db.isReadOnly()
+				&& Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			db.enableWriteAheadLogging();
+		}
+	}
   
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(DATABASE_CREATE);
+		db.execSQL(INDEX_CREATE);
 		//db.execSQL("INSERT into filter (key,value) VALUES ('hello key','hello value')");
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-    Log.w(Schema.class.getName(),
+    Log.i(Schema.class.getName(),
         "Upgrading database from version " + oldVersion + " to "
-            + newVersion + ", which will destroy all old data");
-    db.execSQL("DROP TABLE IF EXISTS " + TABLE_REPLACEMENTS);
-    onCreate(db);
+            + newVersion);
+		if (oldVersion < 2) {
+			// Version 1 did not enforce unique keys. Keep the most recent entry, that's
+			// the one that won when the replacements were loaded.
+			db.execSQL("delete from " + TABLE_REPLACEMENTS + " where " + COLUMN_ID
+					+ " not in (select max(" + COLUMN_ID + ") from " + TABLE_REPLACEMENTS
+					+ " group by " + COLUMN_KEY + ");");
+			db.execSQL("alter table " + TABLE_REPLACEMENTS + " add column "
+					+ COLUMN_USES + " integer not null default 0;");
+			db.execSQL("alter table " + TABLE_REPLACEMENTS + " add column "
+					+ COLUMN_LASTUSED + " integer not null default 0;");
+			db.execSQL(INDEX_CREATE);
+		}
 	}
 
 }
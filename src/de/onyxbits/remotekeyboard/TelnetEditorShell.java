@@ -3,6 +3,7 @@ package de.onyxbits.remotekeyboard;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.Scanner;
 
 import org.apache.http.auth.AuthenticationException;
@@ -17,10 +18,6 @@ import android.util.Log;
 
 import net.wimpi.telnetd.io.BasicTerminalIO;
 import net.wimpi.telnetd.io.TerminalIO;
-import net.wimpi.telnetd.io.terminal.ColorHelper;
-import net.wimpi.telnetd.io.toolkit.Label;
-import net.wimpi.telnetd.io.toolkit.Statusbar;
-import net.wimpi.telnetd.io.toolkit.Titlebar;
 import net.wimpi.telnetd.net.Connection;
 import net.wimpi.telnetd.net.ConnectionEvent;
 import net.wimpi.telnetd.shell.Shell;
@@ -30,14 +27,35 @@ public class TelnetEditorShell implements Shell {
 	public static final String TAG = "TelnetEditorShell";
 	
 	public static final String PREF_PASSWORD="pref_password";
+	
+	public static final String PREF_PIPELINED="pref_pipelined";
+
+	/**
+	 * Maximum number of chars to collect before committing them, so a huge paste
+	 * does not stall the editor in a single huge transaction.
+	 */
+	static final int MAXBATCH = 4096;
 
 	protected static TelnetEditorShell self;
 
-	private Titlebar titleBar;
-	private Statusbar statusBar;
-	private Label content;
+	private String title;
+	private String status;
+	private volatile VirtualScreen screen;
 	private BasicTerminalIO m_IO;
 
+	/**
+	 * The session's action objects. Depending on the mode, they are either run
+	 * by the actionRunner or the actionQueue, never both.
+	 */
+	private TextInputAction tia;
+	private CtrlInputAction cia;
+	private ActionRunner actionRunner;
+
+	/**
+	 * Only used in pipelined mode, otherwise null.
+	 */
+	private ActionQueue actionQueue;
+
 	public TelnetEditorShell() {
 	}
 
@@ -141,54 +159,22 @@ public class TelnetEditorShell implements Shell {
 			}
 
 			// Make the terminal window look pretty/informative after logging in.
-			titleBar = new Titlebar(m_IO, "titlebar");
-			titleBar.setTitleText(res.getString(R.string.terminal_title));
-			titleBar.setAlignment(Titlebar.ALIGN_LEFT);
-			titleBar.setForegroundColor(ColorHelper.WHITE);
-			titleBar.setBackgroundColor(ColorHelper.BLUE);
-
-			content = new Label(m_IO, "content");
-			content.setLocation(0, 2);
-
-			statusBar = new Statusbar(m_IO, "statusbar");
-			statusBar.setStatusText(res.getString(R.string.terminal_statusbar));
-			statusBar.setAlignment(Titlebar.ALIGN_LEFT);
-			statusBar.setForegroundColor(ColorHelper.WHITE);
-			statusBar.setBackgroundColor(ColorHelper.BLUE);
+			title = res.getString(R.string.terminal_title);
+			status = res.getString(R.string.terminal_statusbar);
+			screen = new VirtualScreen(m_IO);
 
 			showText(getWelcomeScreen());
 
-			TextInputAction tia = new TextInputAction(RemoteKeyboardService.self);
-			CtrlInputAction cia = new CtrlInputAction(RemoteKeyboardService.self);
-			ActionRunner actionRunner = new ActionRunner();
-
-			// Main loop starts here
-			while (true) {
-				int in = m_IO.read();
-				if (in == TerminalIO.IOERROR || in == TerminalIO.HANDLED) {
-					// NOTE: TerminalIO.read() internally transforms LOGOUTREEQUEST
-					// into HANDLED.
-					break;
-				}
-
-				switch (decoder.decode(in)) {
-					case Decoder.INCOMPLETE: {
-						continue;
-					}
-					case Decoder.PRINTABLE: {
-						tia.text = decoder.getPrintable();
-						actionRunner.setAction(tia);
-						break;
-					}
-					case Decoder.FUNCTIONCODE: {
-						cia.function = decoder.getFunctionCode();
-						actionRunner.setAction(cia);
-						break;
-					}
-				}
-				RemoteKeyboardService.self.handler.post(actionRunner);
-				actionRunner.waitResult();
-			} // End of main loop.
+			tia = new TextInputAction(RemoteKeyboardService.self);
+			tia.autoExpand = sharedPref.getBoolean(TextInputAction.PREF_AUTOEXPAND,
+					false);
+			cia = new CtrlInputAction(RemoteKeyboardService.self);
+			actionRunner = new ActionRunner();
+			if (sharedPref.getBoolean(PREF_PIPELINED, false)) {
+				actionQueue = new ActionQueue(RemoteKeyboardService.self.handler, tia,
+						cia);
+			}
+			readInput(m_IO, decoder);
 
 			m_IO.eraseScreen();
 			m_IO.write("\n");
@@ -219,21 +205,140 @@ public class TelnetEditorShell implements Shell {
 		}
 	}
 
+	/**
+	 * The main loop: turn what the user types into text and control actions
+	 * until the user logs out.
+	 * 
+	 * @param io
+	 *          the session's terminal
+	 * @param decoder
+	 *          decoder to run the input through
+	 * @throws IOException
+	 *           if reading fails or the connection got closed
+	 */
+	void readInput(BasicTerminalIO io, Decoder decoder) throws IOException {
+		StringBuilder pending = new StringBuilder();
+		int[] symbols = new int[MAXBATCH];
+		int count = 0;
+		int pos = 0;
+
+		while (true) {
+			// Printable characters are collected as long as the client keeps
+			// sending (e.g. when pasting) and committed in one go as soon as we
+			// would block on the socket.
+			boolean drained = (pos == count && io.available() == 0);
+			if (pending.length() > 0 && (drained || pending.length() >= MAXBATCH)) {
+				commitText(pending);
+			}
+
+			if (pos == count) {
+				count = io.read(symbols, 0, symbols.length);
+				pos = 0;
+			}
+			int in = symbols[pos++];
+			if (in == TerminalIO.IOERROR || in == TerminalIO.HANDLED) {
+				// NOTE: TerminalIO.read() internally transforms LOGOUTREEQUEST
+				// into HANDLED.
+				break;
+			}
+
+			switch (decoder.decode(in)) {
+				case Decoder.INCOMPLETE: {
+					continue;
+				}
+				case Decoder.PRINTABLE: {
+					decoder.appendPrintable(pending);
+					continue;
+				}
+				case Decoder.FUNCTIONCODE: {
+					// Control actions must never overtake text that arrived earlier.
+					commitText(pending);
+					sendFunction(decoder.getFunctionCode());
+					break;
+				}
+			}
+		}
+		commitText(pending);
+	}
+
+	/**
+	 * Commit the collected printable characters, if there are any.
+	 * 
+	 * @param pending
+	 *          collected characters. Will be empty afterwards.
+	 * @throws InterruptedIOException
+	 *           if the connection got closed while waiting for the queue
+	 */
+	private void commitText(StringBuilder pending) throws InterruptedIOException {
+		if (pending.length() == 0) {
+			return;
+		}
+		String text = pending.toString();
+		pending.setLength(0);
+		commitText(text);
+	}
+
+	/**
+	 * Hand text over to the UI thread. Unless pipelined, wait for it to be
+	 * committed.
+	 * 
+	 * @param text
+	 *          what to commit
+	 * @throws InterruptedIOException
+	 *           if the connection got closed while waiting for the queue
+	 */
+	void commitText(String text) throws InterruptedIOException {
+		if (actionQueue != null) {
+			actionQueue.putText(text);
+			return;
+		}
+		tia.text = text;
+		actionRunner.setAction(tia);
+		RemoteKeyboardService.self.handler.post(actionRunner);
+		actionRunner.waitResult();
+	}
+
+	/**
+	 * Hand a function code over to the UI thread. Unless pipelined, wait for it
+	 * to be executed.
+	 * 
+	 * @param function
+	 *          see CtrlInputAction
+	 * @throws InterruptedIOException
+	 *           if the connection got closed while waiting for the queue
+	 */
+	void sendFunction(int function) throws InterruptedIOException {
+		if (actionQueue != null) {
+			actionQueue.putFunction(function);
+			return;
+		}
+		cia.function = function;
+		actionRunner.setAction(cia);
+		RemoteKeyboardService.self.handler.post(actionRunner);
+		actionRunner.waitResult();
+	}
+
 	/**
 	 * Put some text in the area between title and statusbar
 	 * 
 	 * @param text
 	 *          what to display
 	 */
-	public void showText(String text) {
+	public synchronized void showText(String text) {
+		if (screen == null) {
+			// Not logged in yet
+			return;
+		}
+		// Paint the whole screen off screen, then only send what changed.
+		screen.clear();
+		int last = screen.getRows() - 1;
+		screen.fill(0, VirtualScreen.BAR);
+		screen.print(0, 0, title, VirtualScreen.BAR);
+		screen.print(1, last - 1, text, VirtualScreen.PLAIN);
+		screen.fill(last, VirtualScreen.BAR);
+		screen.print(last, last, status, VirtualScreen.BAR);
 		try {
-			m_IO.eraseScreen();
-			content.setText(text);
-			titleBar.draw();
-			content.draw();
-			statusBar.draw();
-			m_IO.setCursor(m_IO.getRows() - 1, m_IO.getColumns() - 1);
-			m_IO.flush();
+			screen.render(last - 1, screen.getColumns() - 1);
 		}
 		catch (IOException e) {
 			Log.w(TAG, e);
@@ -0,0 +1,161 @@
+package de.onyxbits.remotekeyboard;
+
+/**
+ * Sorted list of the offsets at which a symbol occurs in a text. Allows
+ * finding the next/previous occurrence in O(log n) and can be patched when
+ * parts of the text get replaced instead of scanning the whole text again.
+ *
+ * @author patrick
+ *
+ */
+class TextIndex {
+
+	private char symbol;
+	private int[] offsets = new int[16];
+	private int size;
+
+	/**
+	 * @param symbol
+	 *          the symbol to track
+	 */
+	public TextIndex(char symbol) {
+		this.symbol = symbol;
+	}
+
+	/**
+	 * Index a text from scratch
+	 *
+	 * @param text
+	 *          the text to index
+	 */
+	public void rebuild(CharSequence text) {
+		size = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			if (text.charAt(i) == symbol) {
+				ensureCapacity(size + 1);
+				offsets[size++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Patch the index after a region of the text got replaced.
+	 *
+	 * @param start
+	 *          first offset of the replaced region
+	 * @param end
+	 *          first offset after the replaced region (old text)
+	 * @param replacement
+	 *          the new contents of the region
+	 */
+	public void replace(int start, int end, CharSequence replacement) {
+		int from = search(start);
+		int to = search(end);
+		int length = replacement.length();
+		int added = 0;
+		for (int i = 0; i < length; i++) {
+			if (replacement.charAt(i) == symbol) {
+				added++;
+			}
+		}
+		int newSize = size - (to - from) + added;
+		ensureCapacity(newSize);
+		System.arraycopy(offsets, to, offsets, from + added, size - to);
+		int slot = from;
+		for (int i = 0; i < length; i++) {
+			if (replacement.charAt(i) == symbol) {
+				offsets[slot++] = start + i;
+			}
+		}
+		int delta = length - (end - start);
+		for (int i = from + added; i < newSize; i++) {
+			offsets[i] += delta;
+		}
+		size = newSize;
+	}
+
+	/**
+	 * Find the next occurrence of the symbol
+	 *
+	 * @param from
+	 *          where to start looking
+	 * @return offset of the first occurrence at or after from or -1.
+	 */
+	public int next(int from) {
+		int i = search(from);
+		return (i < size) ? offsets[i] : -1;
+	}
+
+	/**
+	 * Find the previous occurrence of the symbol
+	 *
+	 * @param from
+	 *          where to start looking
+	 * @return offset of the last occurrence at or before from or -1.
+	 */
+	public int previous(int from) {
+		if (from < 0) {
+			return -1;
+		}
+		int i = search(from + 1) - 1;
+		return (i >= 0) ? offsets[i] : -1;
+	}
+
+	/**
+	 * Count occurrences before an offset
+	 *
+	 * @param offset
+	 *          position in the text
+	 * @return number of occurrences before the offset.
+	 */
+	public int rank(int offset) {
+		return search(offset);
+	}
+
+	/**
+	 * @param n
+	 *          number of the occurrence (0 based)
+	 * @return the offset of the n-th occurrence.
+	 */
+	public int get(int n) {
+		return offsets[n];
+	}
+
+	/**
+	 * @return total number of occurrences
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Binary search
+	 *
+	 * @param offset
+	 *          offset to look for
+	 * @return index of the first entry that is >= offset.
+	 */
+	private int search(int offset) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (offsets[mid] < offset) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > offsets.length) {
+			int[] tmp = new int[Math.max(capacity, offsets.length * 2)];
+			System.arraycopy(offsets, 0, tmp, 0, size);
+			offsets = tmp;
+		}
+	}
+}
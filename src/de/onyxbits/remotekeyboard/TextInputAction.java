@@ -9,9 +9,24 @@ import android.view.inputmethod.InputConnection;
  */
 class TextInputAction implements Runnable {
 
+	public static final String PREF_AUTOEXPAND="pref_autoexpand";
+
 	protected String text;
+
+	/**
+	 * Whether to replace abbreviations as soon as they are followed by a blank.
+	 */
+	protected boolean autoExpand;
 	
 	private RemoteKeyboardService myService;
+
+	/**
+	 * The dictionary the automaton state belongs to and the state after the last
+	 * char we committed. Edits of the replacements table show up as a new
+	 * dictionary, in which case we start over.
+	 */
+	private ReplacementTrie dictionary;
+	private int state = ReplacementTrie.ROOT;
 	
 	public TextInputAction(RemoteKeyboardService myservice) {
 		this.myService=myservice;
@@ -21,7 +36,71 @@ class TextInputAction implements Runnable {
 	public void run() {
 		InputConnection con = myService.getCurrentInputConnection();
 		if (con!=null) {
-			con.commitText(text, text.length());
+			if (autoExpand) {
+				commitExpanded(con);
+			}
+			else {
+				con.commitText(text, 1);
+			}
+		}
+	}
+
+	/**
+	 * Commit the text, feeding it through the replacement automaton on the way
+	 * and expanding keys that are followed by a blank.
+	 */
+	private void commitExpanded(InputConnection con) {
+		ReplacementTrie dict = myService.replacements.getTrie();
+		if (dict != dictionary) {
+			dictionary = dict;
+			state = ReplacementTrie.ROOT;
+		}
+		int start = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c) && dict.getMatch(state) != -1) {
+				if (i > start) {
+					con.commitText(text.substring(start, i), 1);
+					start = i;
+				}
+				expand(con, dict, dict.getMatch(state));
+				state = ReplacementTrie.ROOT;
+			}
+			state = dict.step(state, c);
+		}
+		con.commitText(text.substring(start), 1);
+	}
+
+	/**
+	 * Replace the key in front of the cursor with its value.
+	 *
+	 * @param entry
+	 *          longest key the automaton matched
+	 */
+	private void expand(InputConnection con, ReplacementTrie dict, int entry) {
+		// The automaton only knows what we typed, the cursor might have been moved
+		// since. Check what's actually in front of it.
+		CharSequence before = con.getTextBeforeCursor(dict.getKeyLength(entry) + 1,
+				0);
+		if (before == null) {
+			return;
+		}
+		int len = before.length();
+		for (; entry != -1; entry = dict.getShorterMatch(entry)) {
+			int start = len - dict.getKeyLength(entry);
+			if (start < 0 || dict.find(before, start, len) != entry) {
+				continue;
+			}
+			// Only expand whole words.
+			if (start == 0 || Character.isWhitespace(before.charAt(start - 1))) {
+				con.beginBatchEdit();
+				con.deleteSurroundingText(len - start, 0);
+				con.commitText(dict.getValue(entry), 1);
+				con.endBatchEdit();
+				myService.replacements.touch(before.subSequence(start, len).toString());
+				return;
+			}
 		}
 	}
 
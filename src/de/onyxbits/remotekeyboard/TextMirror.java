@@ -0,0 +1,267 @@
+package de.onyxbits.remotekeyboard;
+
+import android.inputmethodservice.InputMethodService;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+
+/**
+ * Local copy of the editor's contents. Fetching the whole text via
+ * getExtractedText() on every navigation key is expensive on large documents,
+ * so we fetch it once, ask the editor to monitor it and apply the deltas it
+ * reports. Since those deltas arrive asynchronously, the mirror is checked
+ * against the text surrounding the cursor before use and refetched if it does
+ * not match. Line breaks and blanks are indexed, so jumping by lines and words
+ * does not require scanning the text. Must only be used on the UI thread.
+ *
+ * @author patrick
+ *
+ */
+class TextMirror {
+
+	/**
+	 * Token for identifying our monitor request in onUpdateExtractedText().
+	 */
+	private static final int TOKEN = 0x52454d4b;
+
+	/**
+	 * Number of chars before/after the cursor to compare when checking if the
+	 * mirror is still in sync.
+	 */
+	private static final int WINDOW = 32;
+
+	private InputMethodService service;
+	private ExtractedTextRequest request;
+	private StringBuilder text = new StringBuilder();
+	private TextIndex lines = new TextIndex('\n');
+	private TextIndex words = new TextIndex(' ');
+	private int selectionStart;
+	private int selectionEnd;
+	private boolean valid;
+
+	public TextMirror(InputMethodService service) {
+		this.service = service;
+		request = new ExtractedTextRequest();
+		request.token = TOKEN;
+	}
+
+	/**
+	 * Make sure the mirror reflects the editor's current state, refetching it if
+	 * necessary.
+	 *
+	 * @param con
+	 *          the editor
+	 * @return true if the mirror may be used, false if the editor did not
+	 *         provide any text.
+	 */
+	public boolean sync(InputConnection con) {
+		if (valid && matches(con)) {
+			return true;
+		}
+		// NOTE: An editor only supports a single monitor. In fullscreen mode that
+		// one belongs to the extract view, so don't steal it.
+		int flags = service.isExtractViewShown() ? 0
+				: InputConnection.GET_EXTRACTED_TEXT_MONITOR;
+		ExtractedText txt = con.getExtractedText(request, flags);
+		valid = false;
+		if (txt == null || txt.text == null) {
+			return false;
+		}
+		text.setLength(0);
+		text.append(txt.text);
+		lines.rebuild(text);
+		words.rebuild(text);
+		selectionStart = txt.selectionStart;
+		selectionEnd = txt.selectionEnd;
+		// We only mirror from the beginning of the text, otherwise selection
+		// updates can't be mapped.
+		valid = (flags != 0 && txt.startOffset == 0);
+		return true;
+	}
+
+	/**
+	 * Forget about the current contents (e.g. because the editor changed)
+	 */
+	public void invalidate() {
+		valid = false;
+		text.setLength(0);
+	}
+
+	/**
+	 * Apply a change reported by the editor.
+	 *
+	 * @param token
+	 *          token of the request the update belongs to
+	 * @param txt
+	 *          the (possibly partial) new text
+	 */
+	public void update(int token, ExtractedText txt) {
+		if (!valid || token != TOKEN) {
+			return;
+		}
+		if (txt.partialStartOffset < 0) {
+			text.setLength(0);
+			text.append(txt.text);
+			lines.rebuild(text);
+			words.rebuild(text);
+		}
+		else {
+			if (txt.partialStartOffset > txt.partialEndOffset
+					|| txt.partialEndOffset > text.length()) {
+				invalidate();
+				return;
+			}
+			text.delete(txt.partialStartOffset, txt.partialEndOffset);
+			text.insert(txt.partialStartOffset, txt.text);
+			lines.replace(txt.partialStartOffset, txt.partialEndOffset, txt.text);
+			words.replace(txt.partialStartOffset, txt.partialEndOffset, txt.text);
+		}
+		setSelection(txt.selectionStart, txt.selectionEnd);
+	}
+
+	/**
+	 * Update the cursor position.
+	 *
+	 * @param start
+	 *          selection start
+	 * @param end
+	 *          selection end
+	 */
+	public void setSelection(int start, int end) {
+		selectionStart = start;
+		selectionEnd = end;
+	}
+
+	/**
+	 * @return the editor's text. Only valid after a successful sync().
+	 */
+	public CharSequence getText() {
+		return text;
+	}
+
+	/**
+	 * @return selection start. Only valid after a successful sync().
+	 */
+	public int getSelectionStart() {
+		return selectionStart;
+	}
+
+	/**
+	 * @return selection end. Only valid after a successful sync().
+	 */
+	public int getSelectionEnd() {
+		return selectionEnd;
+	}
+
+	/**
+	 * Find the next line break or blank.
+	 *
+	 * @param symbol
+	 *          either '\n' or ' '
+	 * @param from
+	 *          where to start looking
+	 * @return offset of the first occurrence at or after from or -1.
+	 */
+	public int indexOf(char symbol, int from) {
+		return getIndex(symbol).next(from);
+	}
+
+	/**
+	 * Find the previous line break or blank.
+	 *
+	 * @param symbol
+	 *          either '\n' or ' '
+	 * @param from
+	 *          where to start looking
+	 * @return offset of the last occurrence at or before from or -1.
+	 */
+	public int lastIndexOf(char symbol, int from) {
+		return getIndex(symbol).previous(from);
+	}
+
+	/**
+	 * @param offset
+	 *          position in the text
+	 * @return number of the line (0 based) the offset is in.
+	 */
+	public int getLine(int offset) {
+		return lines.rank(offset);
+	}
+
+	/**
+	 * @return number of lines in the text
+	 */
+	public int getLineCount() {
+		return lines.size() + 1;
+	}
+
+	/**
+	 * @param line
+	 *          number of the line (0 based)
+	 * @return offset of the first char of the line
+	 */
+	public int getLineStart(int line) {
+		return (line == 0) ? 0 : lines.get(line - 1) + 1;
+	}
+
+	/**
+	 * @param line
+	 *          number of the line (0 based)
+	 * @return offset of the line break terminating the line or the length of the
+	 *         text for the last line.
+	 */
+	public int getLineEnd(int line) {
+		return (line < lines.size()) ? lines.get(line) : text.length();
+	}
+
+	private TextIndex getIndex(char symbol) {
+		switch (symbol) {
+			case '\n':
+				return lines;
+			case ' ':
+				return words;
+		}
+		throw new IllegalArgumentException("Not indexed: " + (int) symbol);
+	}
+
+	/**
+	 * Compare the text around the cursor with the mirror.
+	 *
+	 * @param con
+	 *          the editor
+	 * @return true if the mirror looks up to date.
+	 */
+	private boolean matches(InputConnection con) {
+		int start = Math.min(selectionStart, selectionEnd);
+		int end = Math.max(selectionStart, selectionEnd);
+		if (start < 0 || end > text.length()) {
+			return false;
+		}
+		CharSequence before = con.getTextBeforeCursor(WINDOW, 0);
+		CharSequence after = con.getTextAfterCursor(WINDOW, 0);
+		if (before == null || after == null) {
+			return false;
+		}
+		// A short read means we hit the beginning/end of the text.
+		if (before.length() < WINDOW && before.length() != start) {
+			return false;
+		}
+		if (after.length() < WINDOW && end + after.length() != text.length()) {
+			return false;
+		}
+		return regionMatches(start - before.length(), before)
+				&& regionMatches(end, after);
+	}
+
+	private boolean regionMatches(int offset, CharSequence region) {
+		if (offset < 0 || offset + region.length() > text.length()) {
+			return false;
+		}
+		for (int i = 0; i < region.length(); i++) {
+			if (text.charAt(offset + i) != region.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
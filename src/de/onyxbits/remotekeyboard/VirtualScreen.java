@@ -0,0 +1,480 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.wimpi.telnetd.io.BasicTerminalIO;
+import net.wimpi.telnetd.io.terminal.ColorHelper;
+
+/**
+ * An off screen copy of the terminal. Callers paint the next screen into the
+ * buffer, render() then compares it against what the terminal is known to show
+ * and only sends the cells that changed. For getting to a changed cell, the
+ * cheapest way is picked from absolute positioning, relative cursor movement,
+ * a newline or simply writing the unchanged cells in between once more.
+ * <p>
+ * The last column is never used, so we never have to worry about the terminal
+ * wrapping the cursor around.
+ * <p>
+ * Cells hold code points. East Asian wide glyphs take two cells, the second
+ * one is marked WIDE. Such glyphs are only ever written or kept as a whole,
+ * since overwriting half of one leaves the terminal showing who knows what.
+ *
+ * @author patrick
+ *
+ */
+class VirtualScreen {
+
+	/**
+	 * Normal text
+	 */
+	public static final byte PLAIN = 0;
+
+	/**
+	 * Bold white on blue, the style of the title and status bar.
+	 */
+	public static final byte BAR = 1;
+
+	/**
+	 * Length of a plain ESC [ n m style sequence, as sent by the Colorizer.
+	 */
+	private static final int SGR = 4;
+
+	/**
+	 * Cost of an attribute change, measured in bytes written for styling a run
+	 * and resetting afterwards.
+	 */
+	private static final int[] STYLECOST = { SGR, 5 * SGR };
+
+	private static final int TABSIZE = 8;
+
+	/**
+	 * Content of the cell covered by the right half of a double width glyph.
+	 */
+	private static final int WIDE = 0;
+
+	/**
+	 * Content of a cell when we don't know what the terminal shows there.
+	 */
+	private static final int UNKNOWN = -1;
+
+	/**
+	 * First and last code point of the ranges that are displayed double width
+	 * (East Asian wide and fullwidth forms, after Markus Kuhn's wcwidth()).
+	 */
+	private static final int[] WIDE_RANGES = { 0x1100, 0x115f, 0x2329, 0x232a,
+			0x2e80, 0x303e, 0x3040, 0xa4cf, 0xac00, 0xd7a3, 0xf900, 0xfaff, 0xfe10,
+			0xfe19, 0xfe30, 0xfe6f, 0xff00, 0xff60, 0xffe0, 0xffe6, 0x1f300,
+			0x1f64f, 0x1f900, 0x1f9ff, 0x20000, 0x2fffd, 0x30000, 0x3fffd };
+
+	private BasicTerminalIO io;
+
+	private int rows;
+	private int columns;
+
+	/**
+	 * What the next render() should produce
+	 */
+	private int[][] chars;
+	private byte[][] attrs;
+
+	/**
+	 * What the terminal shows. Null if unknown
+	 */
+	private int[][] shownChars;
+	private byte[][] shownAttrs;
+
+	/**
+	 * Where the terminal's cursor is. -1 if unknown
+	 */
+	private int cursorRow = -1;
+	private int cursorColumn = -1;
+
+	/**
+	 * @param io
+	 *          the terminal to render on
+	 */
+	public VirtualScreen(BasicTerminalIO io) {
+		this.io = io;
+		resize();
+	}
+
+	/**
+	 * @return number of rows in the buffer
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return number of usable columns in the buffer (one less than the
+	 *         terminal has).
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Forget what the terminal shows, so the next render() repaints everything.
+	 */
+	public void invalidate() {
+		shownChars = null;
+		shownAttrs = null;
+		cursorRow = -1;
+		cursorColumn = -1;
+	}
+
+	/**
+	 * Blank the buffer. Adapts it to the terminal's size first, in case it
+	 * changed.
+	 */
+	public void clear() {
+		if (rows != io.getRows() || columns != Math.max(io.getColumns() - 1, 0)) {
+			resize();
+		}
+		for (int row = 0; row < rows; row++) {
+			fill(row, PLAIN);
+		}
+	}
+
+	/**
+	 * Blank a row
+	 *
+	 * @param row
+	 *          the row to fill (0 based)
+	 * @param attr
+	 *          style to paint the row in
+	 */
+	public void fill(int row, byte attr) {
+		if (row < 0 || row >= rows) {
+			return;
+		}
+		for (int col = 0; col < columns; col++) {
+			chars[row][col] = ' ';
+			attrs[row][col] = attr;
+		}
+	}
+
+	/**
+	 * Paint text into the buffer. Lines break on newlines and on the right
+	 * border, everything below the last row is dropped.
+	 *
+	 * @param row
+	 *          first row (0 based)
+	 * @param lastRow
+	 *          last row the text may occupy
+	 * @param text
+	 *          what to paint. Control characters are painted as blanks,
+	 *          combining marks are dropped, broken surrogates are replaced.
+	 * @param attr
+	 *          style to paint the text in
+	 * @return the row after the text
+	 */
+	public int print(int row, int lastRow, String text, byte attr) {
+		lastRow = Math.min(lastRow, rows - 1);
+		int col = 0;
+		int len = text.length();
+		for (int i = 0; i < len && row <= lastRow;) {
+			int c = text.codePointAt(i);
+			i += Character.charCount(c);
+			if (c == '\n') {
+				row++;
+				col = 0;
+				continue;
+			}
+			if (c == '\r') {
+				continue;
+			}
+			if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				// Half a pair, the other half got lost somewhere.
+				c = 0xfffd;
+			}
+			int width = width(c);
+			if (width == 0) {
+				// Would have to share the cell with the previous glyph.
+				continue;
+			}
+			if (width > columns) {
+				c = '?';
+				width = 1;
+			}
+			if (col + width > columns) {
+				row++;
+				col = 0;
+				if (row > lastRow) {
+					break;
+				}
+			}
+			if (c == '\t') {
+				int stop = Math.min(columns, (col / TABSIZE + 1) * TABSIZE);
+				while (col < stop) {
+					put(row, col++, ' ', 1, attr);
+				}
+				continue;
+			}
+			// Markup would be picked up by the Colorizer.
+			put(row, col, Character.isISOControl(c) ? ' ' : c, width, attr);
+			col += width;
+		}
+		return row + 1;
+	}
+
+	/**
+	 * Send everything that changed since the last call.
+	 *
+	 * @param row
+	 *          where to leave the cursor
+	 * @param col
+	 *          where to leave the cursor
+	 * @throws IOException
+	 *           if writing to the terminal fails
+	 */
+	public void render(int row, int col) throws IOException {
+		io.beginFrame();
+		try {
+			if (shownChars == null) {
+				io.eraseScreen();
+				shownChars = new int[rows][columns];
+				shownAttrs = new byte[rows][columns];
+				for (int r = 0; r < rows; r++) {
+					Arrays.fill(shownChars[r], ' ');
+				}
+			}
+			for (int r = 0; r < rows; r++) {
+				renderRow(r);
+			}
+			moveTo(Math.min(row, rows - 1), Math.min(col, columns));
+		}
+		finally {
+			io.commitFrame();
+		}
+	}
+
+	private void renderRow(int row) throws IOException {
+		int[] want = chars[row];
+		byte[] wantAttr = attrs[row];
+		int[] have = shownChars[row];
+		byte[] haveAttr = shownAttrs[row];
+
+		// A double width glyph that is not kept as it is gets destroyed by
+		// whatever overwrites either half of it.
+		for (int i = 1; i < columns; i++) {
+			if (have[i] == WIDE
+					&& (want[i - 1] != have[i - 1] || want[i] != WIDE
+					|| wantAttr[i - 1] != haveAttr[i - 1])) {
+				have[i - 1] = UNKNOWN;
+				have[i] = UNKNOWN;
+			}
+		}
+
+		// Anything after the last visible character can be erased in one go.
+		int tail = columns;
+		while (tail > 0 && want[tail - 1] == ' ' && wantAttr[tail - 1] == PLAIN) {
+			tail--;
+		}
+
+		int col = 0;
+		while (col < tail) {
+			if (want[col] == have[col] && wantAttr[col] == haveAttr[col]) {
+				col++;
+				continue;
+			}
+			// Collect a run of cells in the same style. Unchanged cells are
+			// included as long as rewriting them is cheaper than skipping them.
+			byte attr = wantAttr[col];
+			int start = col;
+			int end = col + 1;
+			for (int i = end; i < tail && wantAttr[i] == attr; i++) {
+				if (want[i] != have[i] || attr != haveAttr[i]) {
+					end = i + 1;
+				}
+				else if (i - end >= STYLECOST[attr] + 3) {
+					break;
+				}
+			}
+			if (end < columns && want[end] == WIDE) {
+				end++;
+			}
+			moveTo(row, start);
+			String run = text(want, start, end);
+			if (attr == BAR) {
+				io.write(ColorHelper.boldcolorizeText(run, ColorHelper.WHITE,
+						ColorHelper.BLUE));
+			}
+			else {
+				io.write(run);
+			}
+			for (int i = start; i < end; i++) {
+				have[i] = want[i];
+				haveAttr[i] = attr;
+			}
+			cursorColumn = end;
+			col = end;
+		}
+
+		for (int i = tail; i < columns; i++) {
+			if (have[i] != ' ' || haveAttr[i] != PLAIN) {
+				moveTo(row, i);
+				io.eraseToEndOfLine();
+				for (int j = i; j < columns; j++) {
+					have[j] = ' ';
+					haveAttr[j] = PLAIN;
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Move the cursor the cheapest way
+	 */
+	private void moveTo(int row, int col) throws IOException {
+		if (row == cursorRow && col == cursorColumn) {
+			return;
+		}
+		int absolute = 4 + digits(row + 1) + digits(col + 1);
+		if (cursorRow == -1) {
+			setCursor(row, col);
+			return;
+		}
+
+		int dy = row - cursorRow;
+		// Going down by newline lands in the first column.
+		int newline = 2 * dy + horizontalCost(row, 0, col);
+		int relative = 3 * Math.abs(dy) + horizontalCost(row, cursorColumn, col);
+		if (dy > 0 && newline <= relative && newline < absolute) {
+			for (int i = 0; i < dy; i++) {
+				io.write('\n');
+			}
+			cursorRow = row;
+			cursorColumn = 0;
+			moveHorizontally(col);
+		}
+		else if (relative < absolute) {
+			if (dy > 0) {
+				io.moveDown(dy);
+			}
+			else if (dy < 0) {
+				io.moveUp(-dy);
+			}
+			cursorRow = row;
+			moveHorizontally(col);
+		}
+		else {
+			setCursor(row, col);
+		}
+	}
+
+	private void setCursor(int row, int col) throws IOException {
+		io.setCursor(row + 1, col + 1);
+		cursorRow = row;
+		cursorColumn = col;
+	}
+
+	/**
+	 * @return bytes needed to get from one column to another within a row.
+	 */
+	private int horizontalCost(int row, int from, int to) {
+		if (to < from) {
+			return 3 * (from - to);
+		}
+		return Math.min(3 * (to - from), rewriteCost(row, from, to));
+	}
+
+	/**
+	 * @return bytes needed for writing the cells in between once more or
+	 *         Integer.MAX_VALUE if they are not plain ASCII.
+	 */
+	private int rewriteCost(int row, int from, int to) {
+		for (int i = from; i < to; i++) {
+			int c = shownChars[row][i];
+			if (shownAttrs[row][i] != PLAIN || c < ' ' || c >= 0x80) {
+				return Integer.MAX_VALUE;
+			}
+		}
+		// The Colorizer appends a reset to everything we write.
+		return to - from + SGR;
+	}
+
+	private void moveHorizontally(int col) throws IOException {
+		int from = cursorColumn;
+		if (col < from) {
+			io.moveLeft(from - col);
+		}
+		else if (col > from) {
+			if (rewriteCost(cursorRow, from, col) < 3 * (col - from)) {
+				io.write(text(shownChars[cursorRow], from, col));
+			}
+			else {
+				io.moveRight(col - from);
+			}
+		}
+		cursorColumn = col;
+	}
+
+	private void put(int row, int col, int c, int width, byte attr) {
+		int[] cells = chars[row];
+		// Don't leave half of a double width glyph behind.
+		if (cells[col] == WIDE) {
+			cells[col - 1] = ' ';
+		}
+		if (col + width < columns && cells[col + width] == WIDE) {
+			cells[col + width] = ' ';
+		}
+		cells[col] = c;
+		attrs[row][col] = attr;
+		if (width == 2) {
+			cells[col + 1] = WIDE;
+			attrs[row][col + 1] = attr;
+		}
+	}
+
+	/**
+	 * @return the glyphs in a range of cells.
+	 */
+	private static String text(int[] cells, int from, int to) {
+		StringBuilder ret = new StringBuilder(to - from);
+		for (int i = from; i < to; i++) {
+			if (cells[i] != WIDE) {
+				ret.appendCodePoint(cells[i]);
+			}
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * @return the number of cells a code point occupies on the terminal.
+	 */
+	private static int width(int c) {
+		switch (Character.getType(c)) {
+			case Character.NON_SPACING_MARK:
+			case Character.ENCLOSING_MARK:
+			case Character.FORMAT: {
+				return 0;
+			}
+		}
+		for (int i = 0; i < WIDE_RANGES.length && c >= WIDE_RANGES[i]; i += 2) {
+			if (c <= WIDE_RANGES[i + 1]) {
+				return 2;
+			}
+		}
+		return 1;
+	}
+
+	private void resize() {
+		rows = Math.max(io.getRows(), 0);
+		columns = Math.max(io.getColumns() - 1, 0);
+		chars = new int[rows][columns];
+		attrs = new byte[rows][columns];
+		invalidate();
+	}
+
+	private static int digits(int n) {
+		int ret = 1;
+		while (n >= 10) {
+			n /= 10;
+			ret++;
+		}
+		return ret;
+	}
+}
@@ -38,10 +38,10 @@ import net.wimpi.telnetd.net.ConnectionEvent;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 
 /**
@@ -77,8 +77,13 @@ public class TelnetIO {
 
   private Connection m_Connection;			//a reference to the connection this instance works for
   private ConnectionData m_ConnectionData;	//holds all important information of the connection
-  private DataOutputStream m_Out;		//the byte oriented outputstream
+  private OutputStream m_Out;		//the byte oriented outputstream
+  private byte[] m_OutBuffer;			//output collected until the next flush
+  private int m_OutLength;			//number of bytes in m_OutBuffer
   private DataInputStream m_In;			//the byte oriented input stream
+  private byte[] m_InBuffer;			//reusable buffer for bulk reads from m_In
+  private int m_InPos;				//position of the next unread byte in m_InBuffer
+  private int m_InLength;			//number of valid bytes in m_InBuffer
 
   //Aggregations
   private IACHandler m_IACHandler;					//holds a reference to the aggregated IACHandler
@@ -103,9 +108,13 @@ public class TelnetIO {
     //we make an instance of our inner class
     m_IACHandler = new IACHandler();
     //we setup underlying byte oriented streams
-    m_In = new DataInputStream(m_ConnectionData.getSocket().getInputStream());
-    m_Out =
-        new DataOutputStream(new BufferedOutputStream(m_ConnectionData.getSocket().getOutputStream()));
+    m_In = new DataInputStream(m_ConnectionData.getInputStream());
+    m_InBuffer = new byte[INPUT_BUFFER_SIZE];
+    m_InPos = 0;
+    m_InLength = 0;
+    m_Out = m_ConnectionData.getOutputStream();
+    m_OutBuffer = new byte[OUTPUT_BUFFER_SIZE];
+    m_OutLength = 0;
 
     //we save the local address (necessary?)
     m_LocalAddress = m_ConnectionData.getSocket().getLocalAddress();
@@ -124,35 +133,16 @@ public class TelnetIO {
   /**
    * Method to output a byte. Ensures that CR(\r) is never send
    * alone,but CRLF(\r\n), which is a rule of the telnet protocol.
+   * Data bytes that equal IAC are doubled, also according to the
+   * telnet protocol.
    *
    * @param b Byte to be written.
    */
-  public void write(byte b)
+  public synchronized void write(byte b)
       throws IOException {
-    //try {
-    //ensure CRLF(\r\n) is written for LF(\n) to adhere
-    //to the telnet protocol.
-    if (!m_CRFlag && b == 10) {
-      m_Out.write(13);
-    }
-    //ensure CRLF(\r\n) is written for CR(\r) to adhere
-    //to the telnet protocol.
-    if (m_CRFlag && b != 10) {
-      m_Out.write(10);
-    }
-
-    m_Out.write(b);
-
-    if (b == 13) {
-      m_CRFlag = true;
-    } else {
-      m_CRFlag = false;
-    }
-    //} catch (IOException e) {
-    //  if (m_Connection.isActive()) {
-    //    m_ConnectionData.getManager().registerBrokenConnection(m_Connection);
-    //  }
-    //}
+    ensureCapacity(3);
+    append(b);
+    drain();
   }//write(byte)
 
   /**
@@ -171,20 +161,46 @@ public class TelnetIO {
    * @param sequence byte[] to be written.
    */
   public void write(byte[] sequence) throws IOException {
-    for (int z = 0; z < sequence.length; z++) {
-      write(sequence[z]);
-    }
+    write(sequence, 0, sequence.length);
   }//write(byte[])
 
+  /**
+   * Method to write a part of an array of bytes.<br>
+   * Bytes that need no translation are copied in runs.
+   *
+   * @param sequence byte[] to be written.
+   * @param off      offset of the first byte to write.
+   * @param len      number of bytes to write.
+   */
+  public synchronized void write(byte[] sequence, int off, int len) throws IOException {
+    ensureCapacity(2 * len + 1);
+    int end = off + len;
+    int run = off;
+    for (int i = off; i < end; i++) {
+      byte b = sequence[i];
+      if (b == 10 || b == 13 || b == (byte) IAC || m_CRFlag) {
+        System.arraycopy(sequence, run, m_OutBuffer, m_OutLength, i - run);
+        m_OutLength += i - run;
+        append(b);
+        run = i + 1;
+      }
+    }
+    System.arraycopy(sequence, run, m_OutBuffer, m_OutLength, end - run);
+    m_OutLength += end - run;
+    drain();
+  }//write(byte[],int,int)
+
   /**
    * Method to output an array of int' s.
    *
    * @param sequence int [] to write
    */
-  public void write(int[] sequence) throws IOException {
+  public synchronized void write(int[] sequence) throws IOException {
+    ensureCapacity(2 * sequence.length + 1);
     for (int j = 0; j < sequence.length; j++) {
-      write((byte) sequence[j]);
+      append((byte) sequence[j]);
     }
+    drain();
   }//write(int[])
 
   /**
@@ -193,23 +209,80 @@ public class TelnetIO {
    * @param ch char to be written.
    */
   public void write(char ch) throws IOException {
-    write((byte) ch);
+    if (ch < 0x80) {
+      write((byte) ch);
+    } else {
+      write(String.valueOf(ch));
+    }
   }//write(char)
 
   /**
-   * Method to output a string.
+   * Method to output a string.<br>
+   * The string is encoded as UTF-8 straight into the output buffer.
    *
    * @param str String to be written.
    */
-  public void write(String str) throws IOException {
-    write(str.getBytes());
+  public synchronized void write(String str) throws IOException {
+    int len = str.length();
+    //at most three bytes per char, CRLF or a UTF-8 sequence
+    ensureCapacity(3 * len + 1);
+    byte[] buf = m_OutBuffer;
+    int n = m_OutLength;
+    for (int i = 0; i < len; i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        if (c == 10) {
+          if (!m_CRFlag) {
+            buf[n++] = 13;
+          }
+          buf[n++] = 10;
+          m_CRFlag = false;
+        } else {
+          if (m_CRFlag) {
+            buf[n++] = 10;
+          }
+          buf[n++] = (byte) c;
+          m_CRFlag = (c == 13);
+        }
+        continue;
+      }
+      if (m_CRFlag) {
+        buf[n++] = 10;
+        m_CRFlag = false;
+      }
+      if (c < 0x800) {
+        buf[n++] = (byte) (0xC0 | (c >> 6));
+        buf[n++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < len
+          && Character.isLowSurrogate(str.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, str.charAt(++i));
+        buf[n++] = (byte) (0xF0 | (cp >> 18));
+        buf[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        buf[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        buf[n++] = (byte) (0x80 | (cp & 0x3F));
+      } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+        //unpaired surrogate
+        buf[n++] = '?';
+      } else {
+        buf[n++] = (byte) (0xE0 | (c >> 12));
+        buf[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buf[n++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    m_OutLength = n;
+    drain();
   }//write(String)
 
   /**
-   * Method to flush all buffered output.
+   * Method to flush all buffered output.<br>
+   * Sends everything written since the last flush with a single write.
    */
-  public void flush() throws IOException {
+  public synchronized void flush() throws IOException {
     //try {
+    if (m_OutLength > 0) {
+      m_Out.write(m_OutBuffer, 0, m_OutLength);
+      m_OutLength = 0;
+    }
     m_Out.flush();
     //} catch (IOException e) {
     //  if (m_Connection.isActive()) {
@@ -227,9 +300,10 @@ public class TelnetIO {
 
     try {
       //sends telnetprotocol logout acknowledgement
-      write(IAC);
-      write(DO);
-      write(LOGOUT);
+      rawWrite(IAC);
+      rawWrite(DO);
+      rawWrite(LOGOUT);
+      flush();
       //and now close underlying outputstream
 
       m_Out.close();
@@ -239,16 +313,61 @@ public class TelnetIO {
     }
   }//close
 
-  private void rawWrite(int i) throws IOException {
-    //try {
-    m_Out.write(i);
-    //} catch (IOException e) {
-    //  if (m_Connection.isActive()) {
-    //    m_ConnectionData.getManager().registerBrokenConnection(m_Connection);
-    //  }
-    //}
+  private synchronized void rawWrite(int i) throws IOException {
+    ensureCapacity(1);
+    m_OutBuffer[m_OutLength++] = (byte) i;
+    drain();
   }//rawWrite
 
+  /**
+   * Appends a data byte to the output buffer, translating CR, LF and IAC.
+   * There must be room for three bytes.
+   */
+  private void append(byte b) {
+    //ensure CRLF(\r\n) is written for LF(\n) to adhere
+    //to the telnet protocol.
+    if (!m_CRFlag && b == 10) {
+      m_OutBuffer[m_OutLength++] = 13;
+    }
+    //ensure CRLF(\r\n) is written for CR(\r) to adhere
+    //to the telnet protocol.
+    if (m_CRFlag && b != 10) {
+      m_OutBuffer[m_OutLength++] = 10;
+    }
+    //escape IAC in data
+    if (b == (byte) IAC) {
+      m_OutBuffer[m_OutLength++] = (byte) IAC;
+    }
+    m_OutBuffer[m_OutLength++] = b;
+    m_CRFlag = (b == 13);
+  }//append
+
+  /**
+   * Makes sure there is room for the given number of bytes in the
+   * output buffer.
+   */
+  private void ensureCapacity(int n) {
+    if (m_OutLength + n > m_OutBuffer.length) {
+      byte[] buf = new byte[Math.max(m_OutLength + n, 2 * m_OutBuffer.length)];
+      System.arraycopy(m_OutBuffer, 0, buf, 0, m_OutLength);
+      m_OutBuffer = buf;
+    }
+  }//ensureCapacity
+
+  /**
+   * Hands the output to the stream early if a lot has piled up,
+   * and shrinks the buffer back after large writes.
+   */
+  private void drain() throws IOException {
+    if (m_OutLength >= OUTPUT_BUFFER_SIZE) {
+      m_Out.write(m_OutBuffer, 0, m_OutLength);
+      m_OutLength = 0;
+      if (m_OutBuffer.length > 4 * OUTPUT_BUFFER_SIZE) {
+        m_OutBuffer = new byte[OUTPUT_BUFFER_SIZE];
+      }
+    }
+  }//drain
+
   /**** End implementation of OutputStream ***********************************************/
 
 
@@ -280,6 +399,60 @@ public class TelnetIO {
     return stripCRSeq(c);
   }//read
 
+  /**
+   * Method that returns the number of bytes that can be read
+   * from the InputStream without blocking.
+   *
+   * @return int number of bytes available.
+   */
+  public int available() throws IOException {
+    return (m_InLength - m_InPos) + m_In.available();
+  }//available
+
+  /**
+   * Method to read a block of bytes from the InputStream.<br>
+   * Plain data is copied from the input buffer in runs, only
+   * IAC (Byte=255) and CR sequences are passed through the
+   * byte by byte path of read().
+   * <p/>
+   * Blocks until at least one byte is available, but never blocks
+   * once bytes have been transferred.
+   *
+   * @param b   byte[] to read into.
+   * @param off offset in b to start at.
+   * @param len maximum number of bytes to read.
+   * @return int number of bytes read.
+   */
+  public int read(byte[] b, int off, int len) throws IOException {
+    int count = 0;
+    while (count < len) {
+      if (m_InPos == m_InLength) {
+        if (count > 0 && m_In.available() == 0) {
+          break;
+        }
+        fill();
+      }
+      //find the end of the plain data run
+      int end = Math.min(m_InLength, m_InPos + len - count);
+      int pos = m_InPos;
+      while (pos < end && m_InBuffer[pos] != (byte) IAC && m_InBuffer[pos] != 13) {
+        pos++;
+      }
+      System.arraycopy(m_InBuffer, m_InPos, b, off + count, pos - m_InPos);
+      count += pos - m_InPos;
+      m_InPos = pos;
+      if (pos < end) {
+        //IAC or CR, might need more input than we got
+        if (count > 0) {
+          break;
+        }
+        b[off] = (byte) read();
+        count++;
+      }
+    }
+    return count;
+  }//read(byte[],int,int)
+
   /**
    * Method to close the underlying inputstream to free system resources.<br>
    * Most likely only to be called by the ConnectionManager upon clean up of
@@ -300,7 +473,7 @@ public class TelnetIO {
   private int read16int() throws IOException {
 
     //try {
-    int c = m_In.readUnsignedShort();
+    int c = (rawread() << 8) | rawread();
     return c;
     /*} catch (EOFException e) {
       if (m_Connection.isActive()) {
@@ -329,8 +502,10 @@ public class TelnetIO {
     int b = 0;
 
     //try {
-    b = m_In.readUnsignedByte();
-    m_ConnectionData.activity();
+    if (m_InPos == m_InLength) {
+      fill();
+    }
+    b = m_InBuffer[m_InPos++] & 0xff;
     return b;
     /*
     } catch (EOFException e) {
@@ -358,6 +533,21 @@ public class TelnetIO {
       */
   }//rawread
 
+  /**
+   * Method that refills the input buffer with a single read
+   * from the InputStream. Blocks until at least one byte is
+   * available.
+   */
+  private void fill() throws IOException {
+    int n = m_In.read(m_InBuffer, 0, m_InBuffer.length);
+    if (n < 0) {
+      throw new EOFException();
+    }
+    m_InPos = 0;
+    m_InLength = n;
+    m_ConnectionData.activity();
+  }//fill
+
   /**
    * Checks for the telnet protocol specified  CR followed by NULL or LF<BR>
    * Subsequently reads for the next byte and forwards
@@ -395,7 +585,7 @@ public class TelnetIO {
         log.debug("Character mode initialized.");
       }
       //open for a defined timeout so we read incoming negotiation
-      m_ConnectionData.getSocket().setSoTimeout(1000);
+      m_ConnectionData.setSoTimeout(1000);
       read();
      
     } catch (Exception e) {
@@ -404,7 +594,7 @@ public class TelnetIO {
     } finally {
       //this is important, dont ask me why :)
       try {
-        m_ConnectionData.getSocket().setSoTimeout(0);
+        m_ConnectionData.setSoTimeout(0);
       } catch (Exception ex) {
         log.error("initTelnetCommunication()",ex);
       }
@@ -1401,6 +1591,12 @@ public class TelnetIO {
 
   /** Constants declaration ***********************************************/
 
+  /**
+   * Size of the buffer used for reading from the socket.
+   */
+  private static final int INPUT_BUFFER_SIZE = 4096;
+  private static final int OUTPUT_BUFFER_SIZE = 8192;
+
 //Telnet Protocoll Constants
 
   /**
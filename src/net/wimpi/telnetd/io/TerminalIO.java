@@ -68,8 +68,10 @@ public class TerminalIO implements BasicTerminalIO {
     //Members
     private boolean m_AcousticSignalling; //flag for accoustic signalling
     private boolean m_Autoflush; //flag for autoflushing mode
+    private volatile int m_Frames; //depth of open output frames
     private boolean m_ForceBold; //flag for forcing bold output
     private boolean m_LineWrapping;
+    private byte[] m_ReadBuffer; //reused for bulk reads
 
     /**
      * Constructor of the TerminalIO class.
@@ -82,6 +84,7 @@ public class TerminalIO implements BasicTerminalIO {
         m_Autoflush = true;
         m_WriteLock = new ReentrantLock();
         m_ReadLock = new Mutex();
+        m_ReadBuffer = new byte[0];
         //store the associated  ConnectionData instance
         m_ConnectionData = m_Connection.getConnectionData();
         try {
@@ -145,9 +148,50 @@ public class TerminalIO implements BasicTerminalIO {
 
     }//read
 
+    /**
+     * Read a block of characters and take care for terminal function calls.
+     * Blocks until at least one character is available.
+     * Reading stops after a logout request, which is reported as HANDLED.
+     *
+     * @param buf int[] to store the characters or defined special keys in.
+     * @param off offset in buf to start at.
+     * @param len maximum number of characters to read.
+     * @return int number of characters stored in buf.
+     */
+    public int read(int[] buf, int off, int len) throws IOException {
+        try {
+            m_ReadLock.acquire();
+            if (m_ReadBuffer.length < len) {
+                m_ReadBuffer = new byte[len];
+            }
+            int count = m_TelnetIO.read(m_ReadBuffer, 0, len);
+            for (int n = 0; n < count; n++) {
+                //translate possible control sequences
+                int i = m_Terminal.translateControlCharacter(m_ReadBuffer[n] & 0xff);
+                //catch & fire a logoutrequest event
+                if (i == LOGOUTREQUEST) {
+                    m_Connection.processConnectionEvent(new ConnectionEvent(m_Connection, ConnectionEvent.CONNECTION_LOGOUTREQUEST));
+                    buf[off + n] = HANDLED;
+                    return n + 1;
+                }
+                buf[off + n] = i;
+            }
+            return count;
+        } catch (InterruptedException ex) {
+            buf[off] = IOERROR;
+            return 1;
+        } finally {
+            m_ReadLock.release();
+        }
+    }//read(int[],int,int)
+
+    public int available() throws IOException {
+        return m_TelnetIO.available();
+    }//available
+
     public void write(byte b) throws IOException {
         m_TelnetIO.write(b);
-        if (m_Autoflush) {
+        if (mustFlush()) {
             flush();
         }
     }//write
@@ -156,7 +200,7 @@ public class TerminalIO implements BasicTerminalIO {
         try {
             m_WriteLock.acquire();
             m_TelnetIO.write(ch);
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         } catch (InterruptedException ex) {
@@ -174,7 +218,7 @@ public class TerminalIO implements BasicTerminalIO {
             } else {
                 m_TelnetIO.write(m_Terminal.format(str));
             }
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         } catch (InterruptedException ex) {
@@ -220,7 +264,7 @@ public class TerminalIO implements BasicTerminalIO {
         try {
           m_WriteLock.acquire();
           m_TelnetIO.write(m_Terminal.getEraseSequence(funcConst));
-          if (m_Autoflush) {
+          if (mustFlush()) {
             flush();
           }
         } catch (InterruptedException ex) {
@@ -242,7 +286,7 @@ public class TerminalIO implements BasicTerminalIO {
         try {
             m_WriteLock.acquire();
             m_TelnetIO.write(m_Terminal.getCursorMoveSequence(direction, times));
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         } catch (InterruptedException ex) {
@@ -275,7 +319,7 @@ public class TerminalIO implements BasicTerminalIO {
         try {
             m_WriteLock.acquire();
             m_TelnetIO.write(m_Terminal.getCursorPositioningSequence(pos));
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         } catch (InterruptedException ex) {
@@ -289,7 +333,7 @@ public class TerminalIO implements BasicTerminalIO {
         try {
             m_WriteLock.acquire();
             m_TelnetIO.write(m_Terminal.getCursorPositioningSequence(HOME));
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         } catch (InterruptedException ex) {
@@ -346,7 +390,7 @@ public class TerminalIO implements BasicTerminalIO {
         if (m_AcousticSignalling) {
             m_TelnetIO.write(BEL);
         }
-        if (m_Autoflush) {
+        if (mustFlush()) {
             flush();
         }
     }//bell
@@ -367,7 +411,7 @@ public class TerminalIO implements BasicTerminalIO {
     public synchronized void setForegroundColor(int color) throws IOException {
         if (m_Terminal.supportsSGR()) {
             m_TelnetIO.write(m_Terminal.getGRSequence(FCOLOR, color));
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         }
@@ -377,7 +421,7 @@ public class TerminalIO implements BasicTerminalIO {
         if (m_Terminal.supportsSGR()) {
             //this method adds the offset to the fg color by itself
             m_TelnetIO.write(m_Terminal.getGRSequence(BCOLOR, color + 10));
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         }
@@ -390,7 +434,7 @@ public class TerminalIO implements BasicTerminalIO {
             } else {
                 m_TelnetIO.write(m_Terminal.getGRSequence(STYLE, BOLD_OFF));
             }
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         }
@@ -407,7 +451,7 @@ public class TerminalIO implements BasicTerminalIO {
             } else {
                 m_TelnetIO.write(m_Terminal.getGRSequence(STYLE, UNDERLINED_OFF));
             }
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
 
@@ -421,7 +465,7 @@ public class TerminalIO implements BasicTerminalIO {
             } else {
                 m_TelnetIO.write(m_Terminal.getGRSequence(STYLE, ITALIC_OFF));
             }
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         }
@@ -434,7 +478,7 @@ public class TerminalIO implements BasicTerminalIO {
             } else {
                 m_TelnetIO.write(m_Terminal.getGRSequence(STYLE, BLINK_OFF));
             }
-            if (m_Autoflush) {
+            if (mustFlush()) {
                 flush();
             }
         }
@@ -508,12 +552,32 @@ public class TerminalIO implements BasicTerminalIO {
     }//setAutoflushing
 
     /**
-     * Method to flush the Low-Level Buffer
+     * Method to flush the Low-Level Buffer.
+     * Deferred to the end of the frame if one is open.
      */
     public synchronized void flush() throws IOException {
-        m_TelnetIO.flush();
+        if (m_Frames == 0) {
+            m_TelnetIO.flush();
+        }
     }//flush (implements the famous iToilet)
 
+    public synchronized void beginFrame() {
+        m_Frames++;
+    }//beginFrame
+
+    public synchronized void commitFrame() throws IOException {
+        if (m_Frames > 0 && --m_Frames == 0) {
+            m_TelnetIO.flush();
+        }
+    }//commitFrame
+
+    /**
+     * Tests if output should be flushed right after an operation.
+     */
+    private boolean mustFlush() {
+        return m_Autoflush && m_Frames == 0;
+    }//mustFlush
+
     public synchronized void close() {
         m_TelnetIO.closeOutput();
         m_TelnetIO.closeInput();
@@ -34,11 +34,16 @@ package net.wimpi.telnetd.io.terminal;
 
 import net.wimpi.telnetd.io.TerminalIO;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
  * A basic terminal implementation with the focus on vt100
  * related sequences. This terminal type is most common out
  * there, with sequences that are normally also understood
- * by its successors.
+ * by its successors.<br>
+ * Control sequences are served from precomputed tables where
+ * possible, so the returned arrays are shared and must not
+ * be modified by the caller.
  *
  * @author Dieter Wimberger
  * @version 2.0 (16/07/2006)
@@ -46,6 +51,37 @@ import net.wimpi.telnetd.io.TerminalIO;
 public abstract class BasicTerminal implements Terminal {
 
 
+  //Sequences handed out to every caller; they must not be modified
+  private static final byte M = 109;    //ASCII Code of m
+  private static final byte[] HOME_SEQUENCE = {ESC, LSB, H};
+  private static final byte[][] MOVE_SEQUENCES = {
+    {ESC, LSB, A}, {ESC, LSB, B}, {ESC, LSB, C}, {ESC, LSB, D}
+  };
+  private static final byte[] EEOL_SEQUENCE = {ESC, LSB, LE};
+  private static final byte[] EBOL_SEQUENCE = {ESC, LSB, 49, LE};
+  private static final byte[] EEL_SEQUENCE = {ESC, LSB, 50, LE};
+  private static final byte[] EEOS_SEQUENCE = {ESC, LSB, SE};
+  private static final byte[] EBOS_SEQUENCE = {ESC, LSB, 49, SE};
+  private static final byte[] EES_SEQUENCE = {ESC, LSB, 50, SE};
+  private static final byte[] STORECURSOR_SEQUENCE = {ESC, 55};
+  private static final byte[] RESTORECURSOR_SEQUENCE = {ESC, 56};
+  private static final byte[] DEVICERESET_SEQUENCE = {ESC, 99};
+  private static final byte[] LINEWRAP_SEQUENCE = {ESC, LSB, 55, 104};
+  private static final byte[] NOLINEWRAP_SEQUENCE = {ESC, LSB, 55, 108};
+  private static final byte[] RESET_SEQUENCE = {ESC, LSB, 52, 56, M};
+  //colors, background colors and styles all fit below 100
+  private static final byte[][] GR_SEQUENCES = new byte[100][];
+  //must be a power of two
+  private static final int POSITION_CACHE_SIZE = 256;
+  private static final AtomicReferenceArray c_Positions =
+      new AtomicReferenceArray(POSITION_CACHE_SIZE);
+
+  static {
+    for (int i = 0; i < GR_SEQUENCES.length; i++) {
+      GR_SEQUENCES[i] = buildSequence(i, M);
+    }
+  }//static initializer
+
   //Associations
   protected Colorizer m_Colorizer;
 
@@ -102,235 +138,112 @@ public abstract class BasicTerminal implements Terminal {
 
 
   public byte[] getCursorMoveSequence(int direction, int times) {
-    byte[] sequence = null;
-
-    if (times == 1) {
-      sequence = new byte[3];
-    } else {
-      sequence = new byte[times * 3];
+    byte code;
+    switch (direction) {
+      case TerminalIO.UP:
+        code = A;
+        break;
+      case TerminalIO.DOWN:
+        code = B;
+        break;
+      case TerminalIO.RIGHT:
+        code = C;
+        break;
+      case TerminalIO.LEFT:
+        code = D;
+        break;
+      default:
+        code = 0;
+        break;
+    }
+    if (times == 1 && code != 0) {
+      return MOVE_SEQUENCES[code - A];
     }
 
-    for (int g = 0; g < times * 3; g++) {
-
+    byte[] sequence = new byte[times * 3];
+    for (int g = 0; g < times * 3; g += 3) {
       sequence[g] = ESC;
       sequence[g + 1] = LSB;
-      switch (direction) {
-        case TerminalIO.UP:
-          sequence[g + 2] = A;
-          break;
-        case TerminalIO.DOWN:
-          sequence[g + 2] = B;
-          break;
-        case TerminalIO.RIGHT:
-          sequence[g + 2] = C;
-          break;
-        case TerminalIO.LEFT:
-          sequence[g + 2] = D;
-          break;
-        default:
-          break;
-      }
-      g = g + 2;
+      sequence[g + 2] = code;
     }
-
     return sequence;
   }// getCursorMoveSequence
 
 
   public byte[] getCursorPositioningSequence(int[] pos) {
-
-    byte[] sequence = null;
-
     if (pos[0] == TerminalIO.HOME[0] && pos[1] == TerminalIO.HOME[1]) {
-      sequence = new byte[3];
-      sequence[0] = ESC;
-      sequence[1] = LSB;
-      sequence[2] = H;
-    } else {
-      //first translate integer coords into digits
-      byte[] rowdigits = translateIntToDigitCodes(pos[0]);
-      byte[] columndigits = translateIntToDigitCodes(pos[1]);
-      int offset = 0;
-      //now build up the sequence:
-      sequence = new byte[4 + rowdigits.length + columndigits.length];
-      sequence[0] = ESC;
-      sequence[1] = LSB;
-      //now copy the digit bytes
-      System.arraycopy(rowdigits, 0, sequence, 2, rowdigits.length);
-      //offset is now 2+rowdigits.length
-      offset = 2 + rowdigits.length;
-      sequence[offset] = SEMICOLON;
-      offset++;
-      System.arraycopy(columndigits, 0, sequence, offset, columndigits.length);
-      offset = offset + columndigits.length;
-      sequence[offset] = H;
+      return HOME_SEQUENCE;
     }
-    return sequence;
+    //a slot keeps the last position that hashed to it; redraws tend to
+    //revisit the same handful of positions (bars, labels, cursor)
+    int slot = (pos[0] * 31 + pos[1]) & (POSITION_CACHE_SIZE - 1);
+    Position p = (Position) c_Positions.get(slot);
+    if (p == null || p.m_Row != pos[0] || p.m_Column != pos[1]) {
+      p = new Position(pos[0], pos[1], buildSequence(pos[0], SEMICOLON, pos[1], H));
+      c_Positions.set(slot, p);
+    }
+    return p.m_Sequence;
   }//getCursorPositioningSequence
 
 
   public byte[] getEraseSequence(int eraseFunc) {
-
-    byte[] sequence = null;
-
     switch (eraseFunc) {
       case TerminalIO.EEOL:
-        sequence = new byte[3];
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        sequence[2] = LE;
-        break;
+        return EEOL_SEQUENCE;
       case TerminalIO.EBOL:
-        sequence = new byte[4];
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        sequence[2] = 49;	//Ascii Code of 1
-        sequence[3] = LE;
-        break;
+        return EBOL_SEQUENCE;
       case TerminalIO.EEL:
-        sequence = new byte[4];
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        sequence[2] = 50;	//Ascii Code 2
-        sequence[3] = LE;
-        break;
+        return EEL_SEQUENCE;
       case TerminalIO.EEOS:
-        sequence = new byte[3];
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        sequence[2] = SE;
-        break;
+        return EEOS_SEQUENCE;
       case TerminalIO.EBOS:
-        sequence = new byte[4];
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        sequence[2] = 49;	//Ascii Code of 1
-        sequence[3] = SE;
-        break;
+        return EBOS_SEQUENCE;
       case TerminalIO.EES:
-        sequence = new byte[4];
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        sequence[2] = 50;	//Ascii Code of 2
-        sequence[3] = SE;
-        break;
+        return EES_SEQUENCE;
       default:
-        break;
+        return null;
     }
-
-    return sequence;
   }//getEraseSequence
 
   public byte[] getSpecialSequence(int function) {
-
-    byte[] sequence = null;
-
     switch (function) {
       case TerminalIO.STORECURSOR:
-        sequence = new byte[2];
-        sequence[0] = ESC;
-        sequence[1] = 55; //Ascii Code of 7
-        break;
+        return STORECURSOR_SEQUENCE;
       case TerminalIO.RESTORECURSOR:
-        sequence = new byte[2];
-        sequence[0] = ESC;
-        sequence[1] = 56;	//Ascii Code of 8
-        break;
+        return RESTORECURSOR_SEQUENCE;
       case TerminalIO.DEVICERESET:
-        sequence = new byte[2];
-        sequence[0] = ESC;
-        sequence[1] = 99; //Ascii Code of c
-        break;
+        return DEVICERESET_SEQUENCE;
       case TerminalIO.LINEWRAP:
-        sequence = new byte[4];
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        sequence[2] = 55; //Ascii code of 7
-        sequence[3] = 104; //Ascii code of h
-        break;
+        return LINEWRAP_SEQUENCE;
       case TerminalIO.NOLINEWRAP:
-        sequence = new byte[4];
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        sequence[2] = 55; //Ascii code of 7
-        sequence[3] = 108; //Ascii code of l
-        break;
+        return NOLINEWRAP_SEQUENCE;
+      default:
+        return null;
     }
-    return sequence;
   }//getSpecialSequence
 
   public byte[] getGRSequence(int type, int param) {
-
-    byte[] sequence = new byte[0];
-    int offset = 0;
-
     switch (type) {
       case TerminalIO.FCOLOR:
       case TerminalIO.BCOLOR:
-        byte[] color = translateIntToDigitCodes(param);
-        sequence = new byte[3 + color.length];
-
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        //now copy the digit bytes
-        System.arraycopy(color, 0, sequence, 2, color.length);
-        //offset is now 2+color.length
-        offset = 2 + color.length;
-        sequence[offset] = 109;		//ASCII Code of m
-        break;
-
       case TerminalIO.STYLE:
-        byte[] style = translateIntToDigitCodes(param);
-        sequence = new byte[3 + style.length];
-
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        //now copy the digit bytes
-        System.arraycopy(style, 0, sequence, 2, style.length);
-        //offset is now 2+style.length
-        offset = 2 + style.length;
-        sequence[offset] = 109;		//ASCII Code of m
-        break;
-
+        if (param >= 0 && param < GR_SEQUENCES.length) {
+          return GR_SEQUENCES[param];
+        }
+        return buildSequence(param, M);
       case TerminalIO.RESET:
-        sequence = new byte[5];
-        sequence[0] = ESC;
-        sequence[1] = LSB;
-        sequence[2] = 52;			//ASCII Code of 4
-        sequence[3] = 56;			//ASCII Code of 8
-        sequence[4] = 109;		//ASCII Code of m
-        break;
+        return RESET_SEQUENCE;
+      default:
+        return new byte[0];
     }
-
-    return sequence;
   }//getGRsequence
 
 
   public byte[] getScrollMarginsSequence(int topmargin, int bottommargin) {
-
-    byte[] sequence = new byte[0];
-
     if (supportsScrolling()) {
-      //first translate integer coords into digits
-      byte[] topdigits = translateIntToDigitCodes(topmargin);
-      byte[] bottomdigits = translateIntToDigitCodes(bottommargin);
-      int offset = 0;
-      //now build up the sequence:
-      sequence = new byte[4 + topdigits.length + bottomdigits.length];
-      sequence[0] = ESC;
-      sequence[1] = LSB;
-      //now copy the digit bytes
-      System.arraycopy(topdigits, 0, sequence, 2, topdigits.length);
-      //offset is now 2+topdigits.length
-      offset = 2 + topdigits.length;
-      sequence[offset] = SEMICOLON;
-      offset++;
-      System.arraycopy(bottomdigits, 0, sequence, offset, bottomdigits.length);
-      offset = offset + bottomdigits.length;
-      sequence[offset] = r;
+      return buildSequence(topmargin, SEMICOLON, bottommargin, r);
     }
-
-    return sequence;
+    return new byte[0];
   }//getScrollMarginsSequence
 
   public String format(String str) {
@@ -360,9 +273,80 @@ public abstract class BasicTerminal implements Terminal {
    * @return the byte sequence representing the digits.
    */
   public byte[] translateIntToDigitCodes(int in) {
-    return Integer.toString(in).getBytes();
+    byte[] digits = new byte[countDigits(in)];
+    putDigits(in, digits, digits.length);
+    return digits;
   }//translateIntToDigitCodes
 
+  /**
+   * Builds the sequence ESC [ <i>num</i> <i>end</i>.
+   */
+  private static byte[] buildSequence(int num, byte end) {
+    int len = countDigits(num);
+    byte[] sequence = new byte[3 + len];
+    sequence[0] = ESC;
+    sequence[1] = LSB;
+    putDigits(num, sequence, 2 + len);
+    sequence[2 + len] = end;
+    return sequence;
+  }//buildSequence
+
+  /**
+   * Builds the sequence ESC [ <i>num1</i> <i>sep</i> <i>num2</i> <i>end</i>.
+   */
+  private static byte[] buildSequence(int num1, byte sep, int num2, byte end) {
+    int len1 = countDigits(num1);
+    int len2 = countDigits(num2);
+    byte[] sequence = new byte[4 + len1 + len2];
+    sequence[0] = ESC;
+    sequence[1] = LSB;
+    putDigits(num1, sequence, 2 + len1);
+    sequence[2 + len1] = sep;
+    putDigits(num2, sequence, 3 + len1 + len2);
+    sequence[3 + len1 + len2] = end;
+    return sequence;
+  }//buildSequence
+
+  private static int countDigits(int in) {
+    int len = (in < 0) ? 2 : 1;
+    //work with the negative value, it also covers Integer.MIN_VALUE
+    for (int n = (in < 0) ? in : -in; n <= -10; n /= 10) {
+      len++;
+    }
+    return len;
+  }//countDigits
+
+  /**
+   * Writes the digits of an integer backwards, ending just before
+   * the given offset.
+   */
+  private static void putDigits(int in, byte[] dest, int end) {
+    int n = (in < 0) ? in : -in;
+    do {
+      dest[--end] = (byte) ('0' - n % 10);
+      n /= 10;
+    } while (n != 0);
+    if (in < 0) {
+      dest[--end] = '-';
+    }
+  }//putDigits
+
+  /**
+   * Cache entry of a cursor positioning sequence.
+   */
+  private static class Position {
+
+    final int m_Row;
+    final int m_Column;
+    final byte[] m_Sequence;
+
+    Position(int row, int col, byte[] sequence) {
+      m_Row = row;
+      m_Column = col;
+      m_Sequence = sequence;
+    }//constructor
+
+  }//inner class Position
 
   public abstract boolean supportsSGR();
 
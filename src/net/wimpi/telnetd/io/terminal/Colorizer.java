@@ -32,6 +32,8 @@
 
 package net.wimpi.telnetd.io.terminal;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
  * Singleton utility class for translating
  * internal color/style markup into ANSI defined
@@ -47,6 +49,9 @@ public final class Colorizer {
 
   private static Object c_Self;		//Singleton instance reference
   private int[] m_ColorMapping;		//translation table
+  private String[] m_Sequences;		//escape sequence per markup
+  private String[] m_BoldSequences;	//same, forced bold
+  private AtomicReferenceArray m_Cache;	//recently colorized strings
 
   /**
    * Constructs a Colorizer with its translation table.
@@ -84,6 +89,14 @@ public final class Colorizer {
     m_ColorMapping[104] = h;
     m_ColorMapping[97] = a;
 
+    m_Sequences = new String[128];
+    m_BoldSequences = new String[128];
+    for (int k = 0; k < 128; k++) {
+      m_Sequences[k] = addEscapeSequence(k, false);
+      m_BoldSequences[k] = addEscapeSequence(k, true);
+    }
+    m_Cache = new AtomicReferenceArray(CACHE_SIZE);
+
     c_Self = this;
   }//constructor
 
@@ -118,24 +131,39 @@ public final class Colorizer {
    */
   public String colorize(String str, boolean support, boolean forcebold) {
 
-    StringBuffer out = new StringBuffer(str.length() + 20);
-    int parsecursor = 0;
-    int foundcursor = 0;
+    int foundcursor = str.indexOf(ColorHelper.MARKER_CODE);
+    if (foundcursor == -1) {
+      //plain text, nothing to translate
+      return (support) ? str.concat(m_Sequences[97]) : str;
+    }
 
-    boolean done = false;
-    while (!done) {
-      foundcursor = str.indexOf(ColorHelper.MARKER_CODE, parsecursor);
-      if (foundcursor != -1) {
-        out.append(str.substring(parsecursor, foundcursor));
-        if (support) {
-          out.append(addEscapeSequence(str.substring(foundcursor + 1, foundcursor + 2), forcebold));
-        }
-        parsecursor = foundcursor + 2;
-      } else {
-        out.append(str.substring(parsecursor, str.length()));
-        done = true;
+    //the bars and other static markup tend to be written over and over
+    boolean cacheable = str.length() <= MAX_CACHED_LENGTH;
+    int slot = 0;
+    if (cacheable) {
+      slot = (str.hashCode() ^ (support ? 1 : 0) ^ (forcebold ? 2 : 0)) & (CACHE_SIZE - 1);
+      Entry entry = (Entry) m_Cache.get(slot);
+      if (entry != null && entry.m_Support == support
+          && entry.m_ForceBold == forcebold && entry.m_Input.equals(str)) {
+        return entry.m_Output;
+      }
+    }
+
+    String[] sequences = (forcebold) ? m_BoldSequences : m_Sequences;
+    int len = str.length();
+    StringBuilder out = new StringBuilder(len + 32);
+    int parsecursor = 0;
+    //single pass, copying the runs between markups in one go
+    while (foundcursor != -1) {
+      out.append(str, parsecursor, foundcursor);
+      if (foundcursor + 1 < len && support) {
+        char key = str.charAt(foundcursor + 1);
+        out.append(sequences[(key < 128) ? key : 0]);
       }
+      parsecursor = Math.min(foundcursor + 2, len);
+      foundcursor = str.indexOf(ColorHelper.MARKER_CODE, parsecursor);
     }
+    out.append(str, parsecursor, len);
 
     /*
      * This will always add a "reset all" escape sequence
@@ -143,22 +171,22 @@ public final class Colorizer {
      * Basically this is a good idea, because developers tend to
      * forget writing colored strings properly.
      */
-    if (support) out.append(addEscapeSequence("a", false));
+    if (support) out.append(m_Sequences[97]);
 
-    return out.toString();
+    String result = out.toString();
+    if (cacheable) {
+      m_Cache.set(slot, new Entry(str, support, forcebold, result));
+    }
+    return result;
   }//colorize
 
 
-  private String addEscapeSequence(String attribute, boolean forcebold) {
+  private String addEscapeSequence(int key, boolean forcebold) {
 
     StringBuffer tmpbuf = new StringBuffer(10);
 
-    byte[] tmpbytes = attribute.getBytes();
-    int key = (int) tmpbytes[0];
-
     tmpbuf.append((char) 27);
     tmpbuf.append((char) 91);
-    //tmpbuf.append((new Integer(m_ColorMapping[key])).toString());
     int attr = m_ColorMapping[key];
     tmpbuf.append(attr);
     if (forcebold && attr != f) {
@@ -170,6 +198,25 @@ public final class Colorizer {
     return tmpbuf.toString();
   }//addEscapeSequence
 
+  /**
+   * Cache entry of a colorized string.
+   */
+  private static class Entry {
+
+    final String m_Input;
+    final boolean m_Support;
+    final boolean m_ForceBold;
+    final String m_Output;
+
+    Entry(String input, boolean support, boolean forcebold, String output) {
+      m_Input = input;
+      m_Support = support;
+      m_ForceBold = forcebold;
+      m_Output = output;
+    }//constructor
+
+  }//inner class Entry
+
 
   /**
    * Returns the reference of the Singleton instance.
@@ -328,6 +375,9 @@ public final class Colorizer {
 
 
 //Constants
+  private static final int CACHE_SIZE = 64; //must be a power of two
+  private static final int MAX_CACHED_LENGTH = 1024;
+
   private static final int S = 30; //black
   private static final int s = 40;
   private static final int R = 31; //red
@@ -29,4 +29,4 @@
  * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
  * POSSIBILITY OF SUCH DAMAGE.
  ***/
-package net.wimpi.telnetd.io.toolkit;import net.wimpi.telnetd.io.BasicTerminalIO;import net.wimpi.telnetd.io.terminal.ColorHelper;import java.io.IOException;/** * Class that represents a label. * * @author Dieter Wimberger * @version 2.0 (16/07/2006) */public class Label extends InertComponent {  //Members  private String m_Content;  /**   * Constructs a Label instance.   *   * @param io   Instance of a class implementing the BasicTerminalIO interface.   * @param name String that represents the components name.   * @param text String that represents the visible label.   */  public Label(BasicTerminalIO io, String name, String text) {    super(io, name);    setText(text);  }//constructor  /**   * Constructs a Label instance, using the name as visible content.   *   * @param io   Instance of a class implementing the BasicTerminalIO interface.   * @param name String that represents the components name.   */  public Label(BasicTerminalIO io, String name) {    super(io, name);    setText(name);  }//constructor  /**   * Mutator method for the text property of the label component.   *   * @param text String displayed on the terminal.   */  public void setText(String text) {    //set member    m_Content = text;    //set Dimensions    m_Dim = new Dimension((int) ColorHelper.getVisibleLength(text), 1);  }//setText  /**   * Accessor method for the text property of the label component.   *   * @return String that is displayed when the label is drawn.   */  public String getText() {    return m_Content;  }//getText  /**   * Method that draws the label on the screen.   */  public void draw() throws IOException {    if (m_Position == null) {      m_IO.write(m_Content);    } else {      m_IO.storeCursor();      m_IO.setCursor(m_Position.getRow(), m_Position.getColumn());      m_IO.write(m_Content);      m_IO.restoreCursor();      m_IO.flush();    }  }//draw}//class Label
\ No newline at end of file
+package net.wimpi.telnetd.io.toolkit;import net.wimpi.telnetd.io.BasicTerminalIO;import net.wimpi.telnetd.io.terminal.ColorHelper;import java.io.IOException;/** * Class that represents a label. * * @author Dieter Wimberger * @version 2.0 (16/07/2006) */public class Label extends InertComponent {  //Members  private String m_Content;  /**   * Constructs a Label instance.   *   * @param io   Instance of a class implementing the BasicTerminalIO interface.   * @param name String that represents the components name.   * @param text String that represents the visible label.   */  public Label(BasicTerminalIO io, String name, String text) {    super(io, name);    setText(text);  }//constructor  /**   * Constructs a Label instance, using the name as visible content.   *   * @param io   Instance of a class implementing the BasicTerminalIO interface.   * @param name String that represents the components name.   */  public Label(BasicTerminalIO io, String name) {    super(io, name);    setText(name);  }//constructor  /**   * Mutator method for the text property of the label component.   *   * @param text String displayed on the terminal.   */  public void setText(String text) {    //set member    m_Content = text;    //set Dimensions    m_Dim = new Dimension((int) ColorHelper.getVisibleLength(text), 1);  }//setText  /**   * Accessor method for the text property of the label component.   *   * @return String that is displayed when the label is drawn.   */  public String getText() {    return m_Content;  }//getText  /**   * Method that draws the label on the screen.   */  public void draw() throws IOException {    //draw in one go    m_IO.beginFrame();    try {      if (m_Position == null) {        m_IO.write(m_Content);      } else {        m_IO.storeCursor();        m_IO.setCursor(m_Position.getRow(), m_Position.getColumn());        m_IO.write(m_Content);        m_IO.restoreCursor();      }    } finally {      m_IO.commitFrame();    }  }//draw}//class Label
\ No newline at end of file
@@ -0,0 +1,231 @@
+//License
+/***
+ * Java TelnetD library (embeddable telnet daemon)
+ * Copyright (c) 2000-2005 Dieter Wimberger
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the author nor the names of its contributors
+ * may be used to endorse or promote products derived from this software
+ * without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER AND CONTRIBUTORS ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ***/
+
+package net.wimpi.telnetd.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Class that adapts a non-blocking <tt>SocketChannel</tt> that is
+ * serviced by a {@link SelectorPortListener} to the blocking streams
+ * the i/o subsystem expects.<br>
+ * The selector thread fills the input buffer whenever the channel is
+ * readable and stops reading while the buffer is full, so a slow shell
+ * throttles its client instead of the server.
+ *
+ * @see net.wimpi.telnetd.net.SelectorPortListener
+ */
+class ChannelIO {
+
+  private static final int BUFFER_SIZE = 4096;
+
+  private SocketChannel m_Channel;
+  private SelectionKey m_Key;
+  private SelectorPortListener m_Listener;
+  private ByteBuffer m_InBuffer;    //filled by the selector, in write mode
+  private boolean m_EOF;
+  private boolean m_Closed;
+  private int m_Timeout;            //read timeout in ms, 0 for none
+  private InputStream m_In;
+  private OutputStream m_Out;
+
+  /**
+   * Constructs a ChannelIO instance.
+   *
+   * @param ch       the (non-blocking) channel of the inbound connection.
+   * @param listener the listener whose selector services the channel.
+   */
+  public ChannelIO(SocketChannel ch, SelectorPortListener listener) {
+    m_Channel = ch;
+    m_Listener = listener;
+    m_InBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    m_In = new ChannelInputStream();
+    m_Out = new ChannelOutputStream();
+  }//constructor
+
+  /**
+   * Returns the socket of the underlying channel.
+   *
+   * @return the channel's Socket.
+   */
+  public Socket getSocket() {
+    return m_Channel.socket();
+  }//getSocket
+
+  public InputStream getInputStream() {
+    return m_In;
+  }//getInputStream
+
+  public OutputStream getOutputStream() {
+    return m_Out;
+  }//getOutputStream
+
+  /**
+   * Sets the read timeout, analogous to <tt>Socket.setSoTimeout()</tt>.
+   *
+   * @param timeout the timeout in milliseconds, 0 for none.
+   */
+  public synchronized void setTimeout(int timeout) {
+    m_Timeout = timeout;
+  }//setTimeout
+
+  void setKey(SelectionKey key) {
+    m_Key = key;
+  }//setKey
+
+  SelectionKey getKey() {
+    return m_Key;
+  }//getKey
+
+  /**
+   * Called by the selector thread when the channel is readable.
+   */
+  synchronized void readable() {
+    try {
+      if (m_Channel.read(m_InBuffer) < 0) {
+        m_EOF = true;
+        m_Key.cancel();
+      } else if (!m_InBuffer.hasRemaining()) {
+        //stop reading until the shell catches up
+        m_Key.interestOps(m_Key.interestOps() & ~SelectionKey.OP_READ);
+      }
+    } catch (IOException ex) {
+      m_EOF = true;
+      m_Key.cancel();
+    }
+    notifyAll();
+  }//readable
+
+  /**
+   * Called by the selector thread when the channel is writable again.
+   */
+  synchronized void writable() {
+    m_Key.interestOps(m_Key.interestOps() & ~SelectionKey.OP_WRITE);
+    notifyAll();
+  }//writable
+
+  private synchronized void waitFor(long timeout) throws InterruptedIOException {
+    try {
+      wait(timeout);
+    } catch (InterruptedException ex) {
+      throw new InterruptedIOException();
+    }
+  }//waitFor
+
+  private class ChannelInputStream extends InputStream {
+
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+    }//read
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      synchronized (ChannelIO.this) {
+        long deadline = (m_Timeout > 0) ? System.currentTimeMillis() + m_Timeout : 0;
+        while (m_InBuffer.position() == 0 && !m_EOF && !m_Closed) {
+          long wait = 0;
+          if (deadline != 0) {
+            wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+              throw new SocketTimeoutException("Read timed out");
+            }
+          }
+          waitFor(wait);
+        }
+        if (m_Closed) {
+          throw new IOException("Stream closed");
+        }
+        if (m_InBuffer.position() == 0) {
+          return -1;
+        }
+        boolean full = !m_InBuffer.hasRemaining();
+        m_InBuffer.flip();
+        int count = Math.min(len, m_InBuffer.remaining());
+        m_InBuffer.get(b, off, count);
+        m_InBuffer.compact();
+        if (full && !m_EOF) {
+          m_Listener.setInterest(ChannelIO.this, SelectionKey.OP_READ);
+        }
+        return count;
+      }
+    }//read
+
+    public int available() {
+      synchronized (ChannelIO.this) {
+        return m_InBuffer.position();
+      }
+    }//available
+
+    public void close() {
+      synchronized (ChannelIO.this) {
+        m_Closed = true;
+        ChannelIO.this.notifyAll();
+      }
+    }//close
+
+  }//inner class ChannelInputStream
+
+  private class ChannelOutputStream extends OutputStream {
+
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }//write
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+      while (buf.hasRemaining()) {
+        if (m_Channel.write(buf) == 0) {
+          //socket buffer full, let the selector tell us when to go on;
+          //bounded, so a channel closed meanwhile fails on the next write
+          synchronized (ChannelIO.this) {
+            m_Listener.setInterest(ChannelIO.this, SelectionKey.OP_WRITE);
+            waitFor(1000);
+          }
+        }
+      }
+    }//write
+
+    public void close() throws IOException {
+      m_Channel.close();
+    }//close
+
+  }//inner class ChannelOutputStream
+
+}//class ChannelIO
@@ -43,18 +43,17 @@ import java.util.Vector;
 
 /**
  * Class that implements a connection with this telnet daemon.<br>
- * It is derived from java.lang.Thread, which reflects the architecture
- * constraint of one thread per connection. This might seem a waste of
- * resources, but as a matter of fact sharing threads would require a
- * far more complex imlementation, due to the fact that telnet is not a
- * stateless protocol (i.e. alive throughout a session of multiple requests
- * and responses).<br>
+ * It is a <tt>Runnable</tt> that occupies one thread for the whole session,
+ * due to the fact that telnet is not a stateless protocol (i.e. alive
+ * throughout a session of multiple requests and responses). The thread
+ * is borrowed from the executor of the ConnectionManager and returned
+ * once the session ends, so it can be reused for the next connection.<br>
  * Each Connection instance is created by the listeners ConnectionManager
- * instance, making it part of a threadgroup and passing in an associated
- * ConnectionData instance, that holds vital information about the connection.
+ * instance, passing in an associated ConnectionData instance, that holds
+ * vital information about the connection.
  * Be sure to take a look at their documention.<br>
  * <p/>
- * Once the thread has started and is running, it will get a login
+ * Once the connection is running, it will get a login
  * shell instance from the ShellManager and run passing its own reference.
  *
  * @author Dieter Wimberger
@@ -65,37 +64,41 @@ import java.util.Vector;
  * @see net.wimpi.telnetd.io.TerminalIO
  */
 public class Connection
-    extends Thread {
+    implements Runnable {
 
   private static Log log = LogFactory.getLog(Connection.class);
-  private static int m_Number;			//unique number for a thread in the thread group
-  private boolean m_Dead;
+  private static int m_Number;			//unique number for a connection
+  private int m_Id;
+  private String m_Name;
+  private volatile Thread m_Thread;  //thread running the connection, if any
+  private volatile boolean m_Dead;
   private Vector m_Listeners;
 
   //Associations
   private ConnectionData m_ConnectionData;	//associated information
-  private BasicTerminalIO m_TerminalIO;		//associated terminal io
+  private volatile BasicTerminalIO m_TerminalIO;		//associated terminal io
   private Shell m_NextShell = null;				//next shell to be run
 
   /**
-   * Constructs a TelnetConnection by invoking its parent constructor
-   * and setting of various members.<br>
-   * Subsequently instantiates the whole i/o subsystem, negotiating
-   * telnet protocol level options etc.<br>
+   * Constructs a TelnetConnection by setting of various members.<br>
+   * The i/o subsystem is instantiated once the connection runs, so
+   * the telnet protocol level negotiation does not hold up the
+   * listener.<br>
    *
-   * @param tcg ThreadGroup that this instance is running in.
-   * @param cd  ConnectionData instance containing all vital information
-   *            of this connection.
+   * @param cd ConnectionData instance containing all vital information
+   *           of this connection.
    * @see net.wimpi.telnetd.net.ConnectionData
    */
-  public Connection(ThreadGroup tcg, ConnectionData cd) {
-    super(tcg, ("Connection" + (++m_Number)));
+  public Connection(ConnectionData cd) {
+    synchronized (Connection.class) {
+      m_Id = ++m_Number;
+    }
+    m_Name = "Connection" + m_Id;
 
     m_ConnectionData = cd;
     //init the connection listeners for events
     //(there should actually be only one or two)
     m_Listeners = new Vector(3);
-    m_TerminalIO = new TerminalIO(this);
     m_Dead = false;
   }//constructor
 
@@ -112,8 +115,21 @@ public class Connection
   public void run() {
 
     boolean done = false;
+    synchronized (this) {
+      //closed while it was waiting for a thread
+      if (m_Dead) {
+        log.debug("run():: " + this.toString() + " closed before it started.");
+        return;
+      }
+      //borrow the thread, naming it after us for the time being
+      m_Thread = Thread.currentThread();
+    }
+    String name = m_Thread.getName();
+    m_Thread.setName(m_Name);
 
     try {
+      //instantiate the i/o subsystem, negotiating telnet options etc.
+      m_TerminalIO = new TerminalIO(this);
       Shell sh = ShellManager.getReference().getShell(m_ConnectionData.getLoginShell());
       do {
         sh.run(this);
@@ -134,6 +150,12 @@ public class Connection
       if (!m_Dead) {
         close();
       }
+      //hand the thread back clean
+      synchronized (this) {
+        m_Thread = null;
+        Thread.interrupted();
+      }
+      Thread.currentThread().setName(name);
     }
     log.debug("run():: Returning from " + this.toString());
   }//run
@@ -208,8 +230,10 @@ public class Connection
       try {
         //connection dead
         m_Dead = true;
-        //close i/o
-        m_TerminalIO.close();
+        //close i/o, unless we never got that far
+        if (m_TerminalIO != null) {
+          m_TerminalIO.close();
+        }
       } catch (Exception ex) {
         log.error("close()", ex);
         //handle
@@ -230,7 +254,10 @@ public class Connection
       }
      try {
         //try to interrupt it
-        interrupt();
+        Thread t = m_Thread;
+        if (t != null) {
+          t.interrupt();
+        }
       } catch (Exception ex) {
         log.error("close()", ex);
         //handle
@@ -241,6 +268,28 @@ public class Connection
     }
   }//close
 
+  /**
+   * Returns the unique number of this connection.
+   *
+   * @return the number as <tt>int</tt>.
+   */
+  public int getId() {
+    return m_Id;
+  }//getId
+
+  /**
+   * Returns the name of this connection.
+   *
+   * @return the name as <tt>String</tt>.
+   */
+  public String getName() {
+    return m_Name;
+  }//getName
+
+  public String toString() {
+    return m_Name;
+  }//toString
+
   /**
    * Returns if a connection has been closed.<br>
    *
@@ -32,6 +32,9 @@
 
 package net.wimpi.telnetd.net;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.util.HashMap;
@@ -45,21 +48,23 @@ import java.util.Locale;
  * @version 2.0 (16/07/2006)
  * @see net.wimpi.telnetd.net.Connection
  */
-public class ConnectionData {
+public class ConnectionData
+    implements HostNameResolver.Listener {
 
   //Associations
   private ConnectionManager m_CM;		//the connection's ConnectionManager
   private Socket m_Socket;			    //the connection's socket
+  private ChannelIO m_ChannelIO;    //the connection's channel, if served by a selector
   private InetAddress m_IP;				  //the connection's IP Address Object
   private HashMap m_Environment;  //the environment
 
   //Members
-  private String m_HostName;						//cache for the hostname
+  private volatile String m_HostName;				//cache for the hostname
   private String m_HostAddress;						//cache for the host ip
   private int m_Port;								//port of the connection
-  private Locale m_Locale;						//locale of the connection
-  private long m_LastActivity;						//timestamp for the last activity
-  private boolean m_Warned;							//warned flag
+  private volatile Locale m_Locale;				//locale of the connection
+  private volatile long m_LastActivity;				//timestamp for the last activity
+  private volatile boolean m_Warned;					//warned flag
   private String m_NegotiatedTerminalType;			//negotiated TerminalType as String
   private int[] m_TerminalGeometry;					//negotiated terminal geometry
   private boolean m_TerminalGeometryChanged = true;	//flag for changes in the terminal geometry
@@ -77,9 +82,11 @@ public class ConnectionData {
     m_Socket = sock;
     m_CM = cm;
     m_IP = sock.getInetAddress();
-    setHostName();
     setHostAddress();
-    setLocale();
+    //the name (and the locale guessed from it) is looked up in the
+    //background, see resolveHostName()
+    m_HostName = m_HostAddress;
+    m_Locale = Locale.ENGLISH;
     m_Port = sock.getPort();
     //this will set a default geometry and terminal type for the terminal
     m_TerminalGeometry = new int[2];
@@ -91,6 +98,28 @@ public class ConnectionData {
     activity();
   }//ConnectionData
 
+  /**
+   * Constructs a ConnectionData instance for a connection
+   * that is served by a {@link SelectorPortListener}.
+   *
+   * @param io ChannelIO of the inbound connection.
+   */
+  ConnectionData(ChannelIO io, ConnectionManager cm) {
+    this(io.getSocket(), cm);
+    m_ChannelIO = io;
+  }//ConnectionData
+
+  /**
+   * Starts looking up the host name of the remote end.
+   * Until it is known, the host name is the IP address and
+   * the locale is <tt>Locale.ENGLISH</tt>.<br>
+   * Must be called once the instance is fully constructed,
+   * because the resolver may call back right away.
+   */
+  void resolveHostName() {
+    HostNameResolver.getReference().resolve(m_IP, this);
+  }//resolveHostName
+
 
   /**
    * Returns a reference to the ConnectionManager the
@@ -114,6 +143,47 @@ public class ConnectionData {
     return m_Socket;
   }//getSocket
 
+  /**
+   * Returns the stream to read the connection's input from.
+   *
+   * @return the socket's or channel's <tt>InputStream</tt>.
+   * @throws IOException if the stream cannot be obtained.
+   */
+  public InputStream getInputStream() throws IOException {
+    if (m_ChannelIO != null) {
+      return m_ChannelIO.getInputStream();
+    }
+    return m_Socket.getInputStream();
+  }//getInputStream
+
+  /**
+   * Returns the stream to write the connection's output to.
+   *
+   * @return the socket's or channel's <tt>OutputStream</tt>.
+   * @throws IOException if the stream cannot be obtained.
+   */
+  public OutputStream getOutputStream() throws IOException {
+    if (m_ChannelIO != null) {
+      return m_ChannelIO.getOutputStream();
+    }
+    return m_Socket.getOutputStream();
+  }//getOutputStream
+
+  /**
+   * Sets the timeout for reads from the input stream.
+   *
+   * @param timeout the timeout in milliseconds, 0 for none.
+   * @throws IOException if the timeout cannot be set.
+   * @see java.net.Socket#setSoTimeout(int)
+   */
+  public void setSoTimeout(int timeout) throws IOException {
+    if (m_ChannelIO != null) {
+      m_ChannelIO.setTimeout(timeout);
+    } else {
+      m_Socket.setSoTimeout(timeout);
+    }
+  }//setSoTimeout
+
   /**
    * Returns the remote port to which the socket is connected.
    *
@@ -125,10 +195,12 @@ public class ConnectionData {
 
   /**
    * Returns the fully qualified host name for the connection's IP address.<br>
-   * The name is cached on creation for performance reasons. Subsequent calls
-   * will not result in resolve queries.
+   * The name is resolved in the background on creation, this call never
+   * results in a resolve query. Until the name is known, the IP address
+   * is returned instead.
    *
    * @return String that contains the fully qualified host name for this address.
+   * @see net.wimpi.telnetd.net.HostNameResolver
    */
   public String getHostName() {
     return m_HostName;
@@ -168,7 +240,7 @@ public class ConnectionData {
    * build your application.
    *
    * @return the Locale object "guessed" for the connection based
-   *         on its host name.
+   *         on its host name, Locale.ENGLISH until the name is resolved.
    */
   public Locale getLocale() {
     return m_Locale;
@@ -194,13 +266,12 @@ public class ConnectionData {
    * flag if it has been set. Note that you can use this behaviour
    * to implement your own complex idle timespan policies within
    * the context of your application.<br>
-   * The check frequency of the ConnectionManager should just be set
-   * according to the lowest time to warning and time to disconnect
-   * requirements.
+   * This is cheap, the ConnectionManager only compares the timestamp
+   * against the timeouts once the connection's deadline is due.
    */
   public void activity() {
     m_Warned = false;
-    m_LastActivity = System.currentTimeMillis();
+    m_LastActivity = currentTimeMillis();
   }//setLastActivity
 
   /**
@@ -217,10 +288,18 @@ public class ConnectionData {
   public void setWarned(boolean bool) {
     m_Warned = bool;
     if (!bool) {
-      m_LastActivity = System.currentTimeMillis();
+      m_LastActivity = currentTimeMillis();
     }
   }//setWarned
 
+  /**
+   * Activity is stamped with the clock of the manager, which is
+   * what the idle checks go by.
+   */
+  private long currentTimeMillis() {
+    return (m_CM == null) ? System.currentTimeMillis() : m_CM.currentTimeMillis();
+  }//currentTimeMillis
+
   /**
    * Returns the state of the idle warning flag, which
    * will be true if a warning has been issued, and false
@@ -367,11 +446,22 @@ public class ConnectionData {
     m_LineMode = b;
   }//setLineMode
 
+  /**
+   * Called by the HostNameResolver once the name is known.
+   *
+   * @param addr the connection's IP address.
+   * @param name the host name.
+   */
+  public void hostNameResolved(InetAddress addr, String name) {
+    setHostName(name);
+    setLocale();
+  }//hostNameResolved
+
   /**
    * Mutator for HostName cache
    */
-  private void setHostName() {
-    m_HostName = m_IP.getHostName();
+  private void setHostName(String name) {
+    m_HostName = name;
   }//setHostName
 
   /**
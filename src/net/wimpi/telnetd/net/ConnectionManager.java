@@ -41,6 +41,15 @@ import java.net.Socket;
 import java.net.InetAddress;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class that takes care for active and queued connection.
@@ -56,21 +65,28 @@ public class ConnectionManager implements Runnable {
 
     private Thread m_Thread;
     private ThreadGroup m_ThreadGroup; //ThreadGroup all connections run in
-    private List m_OpenConnections;
-    private Stack m_ClosedConnections;
+    private ExecutorService m_Executor; //runs the connections
+    private boolean m_OwnExecutor; //whether we created (and have to shut down) the executor
+    private int m_ConnectionNumber; //for naming pool threads
+    private ConcurrentHashMap m_OpenConnections; //id -> Connection
+    private ConcurrentHashMap m_ConnectionsByAddress; //InetAddress -> Set of Connection
+    private ConcurrentLinkedQueue m_ClosedConnections;
+    private DelayQueue m_Deadlines; //pending idle checks and wakeups of the housekeeper
     private ConnectionFilter connectionFilter; //reference to the connection filter
     private int maxConnections; //maximum allowed connections stored from the properties
     private int warningTimeout; //time to idle warning
     private int disconnectTimeout; //time to idle diconnection
-    private int housekeepingInterval; //interval for managing cleanups
+    private int housekeepingInterval; //interval for repeating timed out events
     private String loginShell;
     private boolean lineMode = false;
     private boolean stopping = false;
 
     public ConnectionManager() {
         m_ThreadGroup = new ThreadGroup(new StringBuffer().append(this.toString()).append("Connections").toString());
-        m_ClosedConnections = new Stack();
-        m_OpenConnections = Collections.synchronizedList(new ArrayList(100));
+        m_ClosedConnections = new ConcurrentLinkedQueue();
+        m_Deadlines = new DelayQueue();
+        m_OpenConnections = new ConcurrentHashMap(100);
+        m_ConnectionsByAddress = new ConcurrentHashMap(100);
     }
 
     public ConnectionManager(int con, int timew, int timedis, int hoke, ConnectionFilter filter, String lsh, boolean lm) {
@@ -84,6 +100,38 @@ public class ConnectionManager implements Runnable {
         housekeepingInterval = hoke;
     }//constructor
 
+    /**
+     * Sets the executor that runs the connections, e.g. one
+     * that is shared between several listeners. The caller remains
+     * responsible for shutting it down.<br>
+     * Must be called before the first connection is made.
+     *
+     * @param executor the ExecutorService to run connections with.
+     */
+    public void setExecutor(ExecutorService executor) {
+        m_Executor = executor;
+        m_OwnExecutor = false;
+    }//setExecutor
+
+    /**
+     * Creates the default executor: a pool of at most the given
+     * number of threads, which are kept for reuse while idle for
+     * a minute. Connections beyond that number wait in the queue.
+     *
+     * @param poolsize the maximum number of threads.
+     */
+    private void createExecutor(int poolsize) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(poolsize, poolsize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        return new Thread(m_ThreadGroup, r, m_ThreadGroup.getName() + "-" + (++m_ConnectionNumber));
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        m_Executor = pool;
+        m_OwnExecutor = true;
+    }//createExecutor
+
     /**
      * Set a connection filter for this
      * ConnectionManager instance. The filter is used to handle
@@ -115,15 +163,33 @@ public class ConnectionManager implements Runnable {
 
     /**
      * Returns the {@link Connection} at the given index.
+     * The order of the connections is not specified, and changes
+     * as connections come and go.
      * @param idx
      * @return
      */
     public Connection getConnection(int idx) {
-        synchronized (m_OpenConnections) {
-            return (Connection) m_OpenConnections.get(idx);
+        Iterator iter = m_OpenConnections.values().iterator();
+        for (int i = 0; iter.hasNext(); i++) {
+            Connection conn = (Connection) iter.next();
+            if (i == idx) {
+                return conn;
+            }
         }
+        throw new IndexOutOfBoundsException("Index: " + idx);
     }//getConnection
 
+    /**
+     * Returns the open {@link Connection} with the given id.
+     *
+     * @param id the id of the connection.
+     * @return the connection or null if there is no such open connection.
+     * @see Connection#getId()
+     */
+    public Connection getConnectionById(int id) {
+        return (Connection) m_OpenConnections.get(new Integer(id));
+    }//getConnectionById
+
     /**
      * Get all {@link Connection} instances with the given
      * <tt>InetAddress</tt>.
@@ -132,17 +198,11 @@ public class ConnectionManager implements Runnable {
      *         <tt>InetAddress</tt>.
      */
     public Connection[] getConnectionsByAdddress(InetAddress addr) {
-        ArrayList l = new ArrayList();
-        synchronized (m_OpenConnections) {
-            for (Iterator iterator = m_OpenConnections.iterator(); iterator.hasNext();) {
-                Connection connection = (Connection) iterator.next();
-                if (connection.getConnectionData().getInetAddress().equals(addr)) {
-                    l.add(connection);
-                }
-            }
+        Set conns = (Set) m_ConnectionsByAddress.get(addr);
+        if (conns == null) {
+            return new Connection[0];
         }
-        Connection[] conns = new Connection[l.size()];
-        return (Connection[]) l.toArray(conns);
+        return (Connection[]) conns.toArray(new Connection[0]);
     }//getConnectionsByAddress
 
     /**
@@ -159,7 +219,8 @@ public class ConnectionManager implements Runnable {
     public void stop() {
         log.debug("stop()::" + this.toString());
         stopping = true;
-        //wait for thread to die
+        //wake the housekeeper and wait for thread to die
+        m_Deadlines.add(new Deadline(null, 0));
         try {
             if (m_Thread != null) {
                 m_Thread.join();
@@ -167,18 +228,29 @@ public class ConnectionManager implements Runnable {
         } catch (InterruptedException iex) {
             log.error("stop()", iex);
         }
-        synchronized (m_OpenConnections) {
-            for (Iterator iter = m_OpenConnections.iterator(); iter.hasNext();) {
-                try {
-                    Connection tc = (Connection) iter.next();
-                    //maybe write a disgrace to the socket?
-                    tc.close();
-                } catch (Exception exc) {
-                    log.error("stop()", exc);
+        if (m_OwnExecutor) {
+            //connections still waiting for a thread must not start anymore
+            List queued = m_Executor.shutdownNow();
+            for (Iterator iter = queued.iterator(); iter.hasNext();) {
+                Object task = iter.next();
+                if (task instanceof QueuedConnection) {
+                    ((QueuedConnection) task).m_Connection.close();
+                } else if (task instanceof Connection) {
+                    ((Connection) task).close();
                 }
             }
-            m_OpenConnections.clear();
         }
+        for (Iterator iter = m_OpenConnections.values().iterator(); iter.hasNext();) {
+            try {
+                Connection tc = (Connection) iter.next();
+                //maybe write a disgrace to the socket?
+                tc.close();
+            } catch (Exception exc) {
+                log.error("stop()", exc);
+            }
+        }
+        m_OpenConnections.clear();
+        m_ConnectionsByAddress.clear();
         log.debug("stop():: Stopped " + this.toString());
     }//stop
 
@@ -190,55 +262,85 @@ public class ConnectionManager implements Runnable {
      */
     public void makeConnection(Socket insock) {
         log.debug("makeConnection()::" + insock.toString());
-        if (connectionFilter == null || (connectionFilter != null && connectionFilter.isAllowed(insock.getInetAddress()))) {
+        if (isAllowed(insock)) {
             //we create the connection data object at this point to
             //store certain information there.
-            ConnectionData newCD = new ConnectionData(insock, this);
-            newCD.setLoginShell(loginShell);
-            newCD.setLineMode(lineMode);
-            if (m_OpenConnections.size() < maxConnections) {
-                //create a new Connection instance
-                Connection con = new Connection(m_ThreadGroup, newCD);
-                //log the newly created connection
-                Object[] args = { new Integer(m_OpenConnections.size() + 1) };
-                log.info(MessageFormat.format("connection #{0,number,integer} made.", args));
-                //register it for being managed
-                synchronized (m_OpenConnections) {
-                    m_OpenConnections.add(con);
-                }
-                //start it
-                con.start();
+            makeConnection(new ConnectionData(insock, this));
+        }
+    }//makeConnection
+
+    /**
+     * Method that tries to connect an incoming channel served by
+     * a {@link SelectorPortListener}.
+     *
+     * @param io ChannelIO of the incoming connection.
+     */
+    void makeConnection(ChannelIO io) {
+        log.debug("makeConnection()::" + io.getSocket().toString());
+        if (isAllowed(io.getSocket())) {
+            makeConnection(new ConnectionData(io, this));
+        }
+    }//makeConnection
+
+    private boolean isAllowed(Socket insock) {
+        if (connectionFilter == null || connectionFilter.isAllowed(insock.getInetAddress())) {
+            return true;
+        }
+        log.info("makeConnection():: Active Filter blocked incoming connection.");
+        try {
+            insock.close();
+        } catch (IOException ex) {
+            //do nothing or log.
+        }
+        return false;
+    }//isAllowed
+
+    private void makeConnection(ConnectionData newCD) {
+        newCD.resolveHostName();
+        newCD.setLoginShell(loginShell);
+        newCD.setLineMode(lineMode);
+        if (m_OpenConnections.size() < maxConnections) {
+            //create a new Connection instance
+            Connection con = new Connection(newCD);
+            //log the newly created connection
+            Object[] args = { new Integer(m_OpenConnections.size() + 1) };
+            log.info(MessageFormat.format("connection #{0,number,integer} made.", args));
+            //register it for being managed and arm its idle check
+            manage(con);
+            if (m_Executor == null) {
+                createExecutor(maxConnections);
             }
-        } else {
-            log.info("makeConnection():: Active Filter blocked incoming connection.");
-            try {
-                insock.close();
-            } catch (IOException ex) {
-                //do nothing or log.
+            //start it, reporting how long it had to wait for a thread if
+            //the pool is busy
+            if (isSaturated()) {
+                log.info("makeConnection():: Pool saturated, queueing " + con.toString());
+                m_Executor.execute(new QueuedConnection(con));
+            } else {
+                m_Executor.execute(con);
             }
         }
     }//makeConnection
 
+    private boolean isSaturated() {
+        if (m_Executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) m_Executor;
+            return pool.getActiveCount() >= pool.getMaximumPoolSize();
+        }
+        return false;
+    }//isSaturated
+
     /**
-     * Periodically does following work:
+     * Sleeps until the next deadline is due and does following work:
      * <ul>
      * <li> cleaning up died connections.
-     * <li> checking managed connections if they are working properly.
-     * <li> checking the open connections.
+     * <li> checking the idle time of a connection whose deadline is due.
      * </ul>
      */
     public void run() {
         //housekeep connections
         try {
             do {
-                //clean up and close all broken connections
-                //cleanupBroken();
-                //clean up closed connections
-                cleanupClosed();
-                //check all active connections
-                checkOpenConnections();
-                //sleep interval
-                Thread.sleep(housekeepingInterval);
+                housekeep((Deadline) m_Deadlines.take());
             } while (!stopping);
 
         } catch (Exception e) {
@@ -247,6 +349,46 @@ public class ConnectionManager implements Runnable {
         log.debug("run():: Ran out " + this.toString());
     }//run
 
+    /**
+     * Does the housekeeping for the deadlines that are due by
+     * {@link #currentTimeMillis()}, without waiting for more.
+     * Lets a test drive the housekeeping on a clock of its own,
+     * instead of the thread started by {@link #start()}.
+     *
+     * @return the number of deadlines that were due.
+     */
+    int housekeepDue() {
+        int n = 0;
+        Deadline next;
+        while (!stopping && (next = (Deadline) m_Deadlines.poll()) != null) {
+            housekeep(next);
+            n++;
+        }
+        return n;
+    }//housekeepDue
+
+    private void housekeep(Deadline next) {
+        //clean up and close all broken connections
+        //cleanupBroken();
+        //clean up closed connections
+        cleanupClosed();
+        //check the connection that is due
+        if (next.m_Connection != null) {
+            checkIdle(next);
+        }
+    }//housekeep
+
+    /**
+     * Registers a connection for being managed and arms its
+     * idle check.
+     *
+     * @param con the new connection.
+     */
+    void manage(Connection con) {
+        register(con);
+        m_Deadlines.add(new Deadline(con, con.getConnectionData().getLastActivity() + warningTimeout));
+    }//manage
+
     /*
     private void cleanupBroken() {
       //cleanup loop
@@ -260,60 +402,100 @@ public class ConnectionManager implements Runnable {
       }
     }//cleanupBroken
     */
+    void register(Connection con) {
+        m_OpenConnections.put(new Integer(con.getId()), con);
+        InetAddress addr = con.getConnectionData().getInetAddress();
+        while (true) {
+            Set conns = (Set) m_ConnectionsByAddress.get(addr);
+            if (conns == null) {
+                conns = Collections.newSetFromMap(new ConcurrentHashMap(4));
+                Set other = (Set) m_ConnectionsByAddress.putIfAbsent(addr, conns);
+                if (other != null) {
+                    conns = other;
+                }
+            }
+            conns.add(con);
+            //unregister() may just have dropped the set, if it was empty
+            if (m_ConnectionsByAddress.get(addr) == conns) {
+                return;
+            }
+        }
+    }//register
+
+    void unregister(Connection con) {
+        m_OpenConnections.remove(new Integer(con.getId()));
+        InetAddress addr = con.getConnectionData().getInetAddress();
+        Set conns = (Set) m_ConnectionsByAddress.get(addr);
+        if (conns != null) {
+            conns.remove(con);
+            //only drops the set if nobody added to it meanwhile
+            m_ConnectionsByAddress.remove(addr, Collections.EMPTY_SET);
+        }
+    }//unregister
+
     private void cleanupClosed() {
         if (stopping) {
             return;
         }
         //cleanup loop
-        while (!m_ClosedConnections.isEmpty()) {
-            Connection nextOne = (Connection) m_ClosedConnections.pop();
+        Connection nextOne;
+        while ((nextOne = (Connection) m_ClosedConnections.poll()) != null) {
             log.info("cleanupClosed():: Removing closed connection " + nextOne.toString());
-            synchronized (m_OpenConnections) {
-                m_OpenConnections.remove(nextOne);
-            }
+            unregister(nextOne);
+            //disarm its idle check
+            m_Deadlines.remove(new Deadline(nextOne, 0));
         }
     }//cleanupBroken
 
-    private void checkOpenConnections() {
+    /**
+     * Checks a connection whose deadline is due and re-arms the deadline.
+     * Activity does not touch the deadline, so the connection may
+     * well have been active meanwhile, in which case the deadline
+     * simply moves on.
+     *
+     * @param dl the due deadline.
+     */
+    private void checkIdle(Deadline dl) {
         if (stopping) {
             return;
         }
-        //do routine checks on active connections
-        synchronized (m_OpenConnections) {
-            for (Iterator iter = m_OpenConnections.iterator(); iter.hasNext();) {
-                Connection conn = (Connection) iter.next();
-                ConnectionData cd = conn.getConnectionData();
-                //check if it is dead and remove it.
-                if (!conn.isActive()) {
-                    registerClosedConnection(conn);
-                    continue;
-                }
-                /* Timeouts check */
-                //first we caculate the inactivity time
-                long inactivity = System.currentTimeMillis() - cd.getLastActivity();
-                //now we check for warning and disconnection
-                if (inactivity > warningTimeout) {
-                    //..and for disconnect
-                    if (inactivity > (disconnectTimeout + warningTimeout)) {
-                        //this connection needs to be disconnected :)
-                        log.debug("checkOpenConnections():" + conn.toString() + " exceeded total timeout.");
-                        //fire logoff event for shell site cleanup , beware could hog the daemon thread
-                        conn.processConnectionEvent(new ConnectionEvent(conn, ConnectionEvent.CONNECTION_TIMEDOUT));
-                        //conn.close();
-                    } else {
-                        //this connection needs to be warned :)
-                        if (!cd.isWarned()) {
-                            log.debug("checkOpenConnections():" + conn.toString() + " exceeded warning timeout.");
-                            cd.setWarned(true);
-                            //warning event is fired but beware this could hog the daemon thread!!
-                            conn.processConnectionEvent(new ConnectionEvent(conn, ConnectionEvent.CONNECTION_IDLE));
-                        }
-                    }
-                }
+        Connection conn = dl.m_Connection;
+        ConnectionData cd = conn.getConnectionData();
+        //close() normally registered it already, but one that died
+        //some other way would stay in the registry forever
+        if (!conn.isActive()) {
+            if (m_OpenConnections.containsKey(new Integer(conn.getId()))) {
+                registerClosedConnection(conn);
             }
-            /* end Timeouts check */
+            return;
         }
-    }//checkConnections
+        /* Timeouts check */
+        long now = currentTimeMillis();
+        long warning = cd.getLastActivity() + warningTimeout;
+        long timedout = warning + disconnectTimeout;
+        if (now >= timedout) {
+            //this connection needs to be disconnected :)
+            log.debug("checkIdle():" + conn.toString() + " exceeded total timeout.");
+            //fire logoff event for shell site cleanup , beware could hog the daemon thread
+            conn.processConnectionEvent(new ConnectionEvent(conn, ConnectionEvent.CONNECTION_TIMEDOUT));
+            //conn.close();
+            //repeat until the shell reacts
+            dl.m_Time = now + housekeepingInterval;
+        } else if (now >= warning) {
+            //this connection needs to be warned :)
+            if (!cd.isWarned()) {
+                log.debug("checkIdle():" + conn.toString() + " exceeded warning timeout.");
+                cd.setWarned(true);
+                //warning event is fired but beware this could hog the daemon thread!!
+                conn.processConnectionEvent(new ConnectionEvent(conn, ConnectionEvent.CONNECTION_IDLE));
+            }
+            dl.m_Time = timedout;
+        } else {
+            dl.m_Time = warning;
+        }
+        /* end Timeouts check */
+        m_Deadlines.add(dl);
+    }//checkIdle
 
     /**
      * Called by connections that got broken (i.e. I/O errors).
@@ -333,10 +515,12 @@ public class ConnectionManager implements Runnable {
         if (stopping) {
             return;
         }
-        if (!m_ClosedConnections.contains(con)) {
-            log.debug("registerClosedConnection()::" + con.toString());
-            m_ClosedConnections.push(con);
-        }
+        //the rare duplicate from checkIdle() is harmless, unregistering
+        //twice does nothing
+        log.debug("registerClosedConnection()::" + con.toString());
+        m_ClosedConnections.add(con);
+        //have the housekeeper clean up right away
+        m_Deadlines.add(new Deadline(null, 0));
     }//unregister
 
     /**
@@ -352,6 +536,7 @@ public class ConnectionManager implements Runnable {
             int timow = Integer.parseInt(settings.getProperty(name + ".time_to_warning"));
             int timodis = Integer.parseInt(settings.getProperty(name + ".time_to_timedout"));
             int hoke = Integer.parseInt(settings.getProperty(name + ".housekeepinginterval"));
+            String poolsize = settings.getProperty(name + ".poolsize");
             String filterclass = settings.getProperty(name + ".connectionfilter");
             ConnectionFilter filter = null;
             String loginshell = "";
@@ -375,6 +560,9 @@ public class ConnectionManager implements Runnable {
             }
             //return fabricated manager
             ConnectionManager cm = new ConnectionManager(maxc, timow, timodis, hoke, filter, loginshell, linemode);
+            if (poolsize != null && poolsize.length() != 0) {
+                cm.createExecutor(Integer.parseInt(poolsize));
+            }
             //set higher priority!
             //cm.setPriority(Thread.NORM_PRIORITY + 2);
             return cm;
@@ -432,4 +620,75 @@ public class ConnectionManager implements Runnable {
         this.warningTimeout = warningTimeout;
     }
 
+    /**
+     * Returns the time the idle checks go by. Activity of the
+     * connections is stamped with it as well.<br>
+     * This is <tt>System.currentTimeMillis()</tt>, subclasses may
+     * substitute a clock of their own, e.g. for testing.
+     *
+     * @return the time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }//currentTimeMillis
+
+    /**
+     * The time at which the idle state of a connection is to be
+     * checked next. Without a connection, it just wakes up the
+     * housekeeper. Two deadlines are equal if they are for the
+     * same connection, so an armed one can be found for removal.
+     */
+    private class Deadline implements Delayed {
+
+        private Connection m_Connection;
+        private long m_Time;
+
+        Deadline(Connection con, long time) {
+            m_Connection = con;
+            m_Time = time;
+        }//constructor
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(m_Time - currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }//getDelay
+
+        public int compareTo(Delayed o) {
+            long other = ((Deadline) o).m_Time;
+            return (m_Time < other) ? -1 : ((m_Time == other) ? 0 : 1);
+        }//compareTo
+
+        public boolean equals(Object o) {
+            return (o instanceof Deadline) && m_Connection != null
+                    && m_Connection == ((Deadline) o).m_Connection;
+        }//equals
+
+        public int hashCode() {
+            return (m_Connection == null) ? 0 : m_Connection.hashCode();
+        }//hashCode
+
+    }//inner class Deadline
+
+    /**
+     * Runs a connection that had to wait for a thread, reporting
+     * how long it waited. Keeps the connection reachable, so
+     * stop() can close it if it never got to run.
+     */
+    private static class QueuedConnection implements Runnable {
+
+        private Connection m_Connection;
+        private long m_Queued;
+
+        QueuedConnection(Connection con) {
+            m_Connection = con;
+            m_Queued = System.currentTimeMillis();
+        }//constructor
+
+        public void run() {
+            Object[] args = { m_Connection.toString(), new Long(System.currentTimeMillis() - m_Queued) };
+            log.info(MessageFormat.format("makeConnection():: {0} was queued for {1,number,integer} ms.", args));
+            m_Connection.run();
+        }//run
+
+    }//inner class QueuedConnection
+
 }//class ConnectionManager
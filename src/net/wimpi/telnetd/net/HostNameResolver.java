@@ -0,0 +1,231 @@
+//License
+/***
+ * Java TelnetD library (embeddable telnet daemon)
+ * Copyright (c) 2000-2005 Dieter Wimberger 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the author nor the names of its contributors
+ * may be used to endorse or promote products derived from this software
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER AND CONTRIBUTORS ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ***/
+
+package net.wimpi.telnetd.net;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class that resolves host names of remote addresses in the background.<br>
+ * Reverse lookups may take seconds on networks without reverse DNS, so
+ * they must not hold up accepting a connection. Resolved names are
+ * cached for a while, so reconnects from the same host are answered
+ * right away. Lookups of the same address that are running already
+ * are not repeated.
+ *
+ * @see net.wimpi.telnetd.net.ConnectionData
+ */
+public class HostNameResolver {
+
+  private static Log log = LogFactory.getLog(HostNameResolver.class);
+  private static HostNameResolver c_Self;    //Singleton reference
+
+  private static final int CACHE_SIZE = 64;
+  private static final long CACHE_TTL = 10 * 60 * 1000;
+
+  private Map m_Cache;          //InetAddress -> Entry, least recently used first
+  private Map m_Pending;        //InetAddress -> List of Listener
+  private ThreadPoolExecutor m_Executor;
+
+  /**
+   * Constructs a HostNameResolver instance.
+   */
+  protected HostNameResolver() {
+    m_Cache = new LinkedHashMap(CACHE_SIZE, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry eldest) {
+        return size() > CACHE_SIZE;
+      }
+    };
+    m_Pending = new HashMap();
+    m_Executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue(), new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HostNameResolver");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    m_Executor.allowCoreThreadTimeOut(true);
+  }//constructor
+
+  /**
+   * Returns the cached host name of the given address, without
+   * ever doing a lookup.
+   *
+   * @param addr the address.
+   * @return the host name or null if it is not (or no longer) known.
+   */
+  public synchronized String getCachedHostName(InetAddress addr) {
+    Entry e = (Entry) m_Cache.get(addr);
+    if (e == null) {
+      return null;
+    }
+    if (e.m_Expires < System.currentTimeMillis()) {
+      m_Cache.remove(addr);
+      return null;
+    }
+    return e.m_Name;
+  }//getCachedHostName
+
+  /**
+   * Resolves the host name of the given address.<br>
+   * If the name is cached, the listener is called right away in
+   * the calling thread, otherwise later on from a resolver thread.
+   *
+   * @param addr     the address to resolve.
+   * @param listener the Listener to pass the name to.
+   */
+  public void resolve(final InetAddress addr, Listener listener) {
+    String name;
+    synchronized (this) {
+      name = getCachedHostName(addr);
+      if (name == null) {
+        List listeners = (List) m_Pending.get(addr);
+        if (listeners != null) {
+          //lookup is running already
+          listeners.add(listener);
+          return;
+        }
+        listeners = new ArrayList(2);
+        listeners.add(listener);
+        m_Pending.put(addr, listeners);
+        m_Executor.execute(new Runnable() {
+          public void run() {
+            String name;
+            try {
+              name = lookup(addr);
+            } catch (Exception ex) {
+              log.error("resolve()", ex);
+              name = addr.getHostAddress();
+            }
+            resolved(addr, name);
+          }
+        });
+        return;
+      }
+    }
+    listener.hostNameResolved(addr, name);
+  }//resolve
+
+  /**
+   * Does the actual (blocking) lookup.<br>
+   * Falls back to the textual address if the name cannot be resolved.
+   *
+   * @param addr the address to resolve.
+   * @return the host name.
+   */
+  protected String lookup(InetAddress addr) {
+    long start = System.currentTimeMillis();
+    String name = addr.getHostName();
+    log.debug("lookup()::" + name + " resolved in " + (System.currentTimeMillis() - start) + " ms");
+    return name;
+  }//lookup
+
+  private void resolved(InetAddress addr, String name) {
+    List listeners;
+    synchronized (this) {
+      m_Cache.put(addr, new Entry(name, System.currentTimeMillis() + CACHE_TTL));
+      listeners = (List) m_Pending.remove(addr);
+    }
+    for (Iterator iter = listeners.iterator(); iter.hasNext();) {
+      try {
+        ((Listener) iter.next()).hostNameResolved(addr, name);
+      } catch (Exception ex) {
+        log.error("resolved()", ex);
+      }
+    }
+  }//resolved
+
+  /**
+   * Returns the shared HostNameResolver instance.
+   *
+   * @return the HostNameResolver.
+   */
+  public static synchronized HostNameResolver getReference() {
+    if (c_Self == null) {
+      c_Self = new HostNameResolver();
+    }
+    return c_Self;
+  }//getReference
+
+  /**
+   * Replaces the shared HostNameResolver instance, e.g. with one that
+   * does its lookups differently.
+   *
+   * @param resolver the HostNameResolver to use from now on.
+   */
+  public static synchronized void setReference(HostNameResolver resolver) {
+    c_Self = resolver;
+  }//setReference
+
+  /**
+   * Interface for being told about a resolved host name.
+   */
+  public static interface Listener {
+
+    /**
+     * Called once the host name of an address is known.
+     *
+     * @param addr the address.
+     * @param name the host name, or the textual address if the
+     *             name could not be resolved.
+     */
+    public void hostNameResolved(InetAddress addr, String name);
+
+  }//interface Listener
+
+  private static class Entry {
+
+    private String m_Name;
+    private long m_Expires;
+
+    Entry(String name, long expires) {
+      m_Name = name;
+      m_Expires = expires;
+    }//constructor
+
+  }//inner class Entry
+
+}//class HostNameResolver
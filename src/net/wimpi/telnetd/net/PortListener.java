@@ -58,14 +58,14 @@ public class PortListener
   private static Log log = LogFactory.getLog(PortListener.class);
 
   private String m_Name;
-  private int m_Port;							            //port number running on
-  private int m_FloodProtection;					    //flooding protection
-  private ServerSocket m_ServerSocket = null; //server socket
+  protected int m_Port;							            //port number running on
+  protected int m_FloodProtection;					    //flooding protection
+  protected ServerSocket m_ServerSocket = null; //server socket
 
   private Thread m_Thread;
-  private ConnectionManager connectionManager;	//connection management thread
-  private boolean m_Stopping = false;
-  private boolean m_Available;               		//Flag for availability
+  protected ConnectionManager connectionManager;	//connection management thread
+  protected volatile boolean m_Stopping = false;
+  protected boolean m_Available;               		//Flag for availability
 
 
   /**
@@ -222,7 +222,12 @@ public class PortListener
       if (new Boolean(settings.getProperty(name + ".secure")).booleanValue()) {
         //do nothing for now, probably set factory in the future
       }
-      pl = new PortListener(name, port, floodprot);
+      //the selector engine polls all sockets from a single thread
+      if ("nio".equals(settings.getProperty(name + ".engine"))) {
+        pl = new SelectorPortListener(name, port, floodprot);
+      } else {
+        pl = new PortListener(name, port, floodprot);
+      }
     } catch (Exception ex) {
       log.error("createPortListener()", ex);
       throw new BootException("Failure while creating PortListener instance:\n" +
@@ -243,7 +248,7 @@ public class PortListener
     return pl;
   }//createPortListener
 
-  private static final String logmsg =
+  protected static final String logmsg =
       "Listening to Port {0,number,integer} with a connectivity queue size of {1,number,integer}.";
 
 
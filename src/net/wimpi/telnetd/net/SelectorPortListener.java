@@ -0,0 +1,212 @@
+//License
+/***
+ * Java TelnetD library (embeddable telnet daemon)
+ * Copyright (c) 2000-2005 Dieter Wimberger 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * Neither the name of the author nor the names of its contributors
+ * may be used to endorse or promote products derived from this software
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDER AND CONTRIBUTORS ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ***/
+
+package net.wimpi.telnetd.net;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class that implements a <tt>PortListener</tt> on top of a
+ * <tt>Selector</tt>.<br>
+ * One thread accepts incoming connections and services the reads
+ * and writes of all sockets, instead of every connection blocking
+ * in its own socket read. The connections see the data through the
+ * streams of a {@link ChannelIO}.
+ *
+ * @see net.wimpi.telnetd.net.ChannelIO
+ */
+public class SelectorPortListener
+    extends PortListener {
+
+  private static Log log = LogFactory.getLog(SelectorPortListener.class);
+
+  private Selector m_Selector;
+  private ServerSocketChannel m_ServerChannel;
+  //interest changes requested by other threads, applied by the selector thread
+  private ConcurrentLinkedQueue m_Interests = new ConcurrentLinkedQueue();
+
+  /**
+   * Constructs a SelectorPortListener instance.<br>
+   *
+   * @param port      int that specifies the port number of the server socket.
+   * @param floodprot that specifies the server socket queue size.
+   */
+  public SelectorPortListener(String name, int port, int floodprot) {
+    super(name, port, floodprot);
+  }//constructor
+
+  /**
+   * Stops this <tt>SelectorPortListener</tt>, and returns
+   * when everything was stopped successfully.
+   */
+  public void stop() {
+    m_Stopping = true;
+    if (m_Selector != null) {
+      m_Selector.wakeup();
+    }
+    super.stop();
+  }//stop
+
+  /**
+   * Asks the selector thread to add interest in the given operation
+   * for the channel of a connection.
+   *
+   * @param io the ChannelIO of the connection.
+   * @param op the operation as defined by <tt>SelectionKey</tt>.
+   */
+  void setInterest(ChannelIO io, int op) {
+    m_Interests.add(new Object[]{io, new Integer(op)});
+    m_Selector.wakeup();
+  }//setInterest
+
+  /**
+   * Accepts incoming connections and dispatches the readiness of
+   * the connection channels, until the listener is stopped.
+   */
+  public void run() {
+    try {
+      m_Selector = Selector.open();
+      m_ServerChannel = ServerSocketChannel.open();
+      m_ServerSocket = m_ServerChannel.socket();
+      //the backlog serves as flooding protection, see PortListener
+      m_ServerSocket.bind(new InetSocketAddress(m_Port), m_FloodProtection);
+      m_ServerChannel.configureBlocking(false);
+      m_ServerChannel.register(m_Selector, SelectionKey.OP_ACCEPT);
+
+      //log entry
+      Object[] args = {new Integer(m_Port), new Integer(m_FloodProtection)};
+      log.info(MessageFormat.format(logmsg, args));
+
+      while (!m_Stopping) {
+        m_Selector.select();
+        applyInterests();
+        Iterator iter = m_Selector.selectedKeys().iterator();
+        while (iter.hasNext()) {
+          SelectionKey key = (SelectionKey) iter.next();
+          iter.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          ChannelIO io = (ChannelIO) key.attachment();
+          try {
+            if (key.isReadable()) {
+              io.readable();
+            }
+            if (key.isValid() && key.isWritable()) {
+              io.writable();
+            }
+          } catch (CancelledKeyException ex) {
+            //channel closed meanwhile, only this connection is affected
+            log.debug("run(): key cancelled for " + io.getSocket());
+          }
+        }
+      }
+    } catch (ClosedSelectorException ex) {
+      log.debug("run(): Selector closed by stop()");
+    } catch (IOException ex) {
+      if (m_Stopping) {
+        log.debug("run(): ServerSocket closed by stop()");
+      } else {
+        log.error("run()", ex);
+      }
+    } finally {
+      try {
+        if (m_Selector != null) {
+          m_Selector.close();
+        }
+      } catch (IOException ex) {
+        log.error("run()", ex);
+      }
+    }
+    log.debug("run(): returning.");
+  }//run
+
+  /**
+   * Accepts a pending connection. Failures only concern the one
+   * channel, so they are logged and the listener keeps selecting.
+   */
+  private void accept() {
+    SocketChannel ch = null;
+    try {
+      ch = m_ServerChannel.accept();
+      if (ch == null) {
+        return;
+      }
+      if (!m_Available) {
+        //just shut down the socket
+        ch.close();
+        return;
+      }
+      ch.configureBlocking(false);
+      ChannelIO io = new ChannelIO(ch, this);
+      io.setKey(ch.register(m_Selector, SelectionKey.OP_READ, io));
+      connectionManager.makeConnection(io);
+    } catch (IOException ex) {
+      log.error("accept()", ex);
+      if (ch != null) {
+        try {
+          ch.close();
+        } catch (IOException e) {
+          //nothing left to do with it
+        }
+      }
+    }
+  }//accept
+
+  private void applyInterests() {
+    Object[] req;
+    while ((req = (Object[]) m_Interests.poll()) != null) {
+      SelectionKey key = ((ChannelIO) req[0]).getKey();
+      if (key.isValid()) {
+        key.interestOps(key.interestOps() | ((Integer) req[1]).intValue());
+      }
+    }
+  }//applyInterests
+
+}//class SelectorPortListener
@@ -0,0 +1,141 @@
+package de.onyxbits.remotekeyboard;
+
+import net.wimpi.telnetd.io.TerminalIO;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.KeyEvent;
+import android.view.inputmethod.InputConnection;
+
+/**
+ * Drives CtrlInputAction against a FakeInputConnection and counts what a
+ * keystroke allocates.
+ *
+ * @author patrick
+ *
+ */
+public class CtrlInputActionTest extends InstrumentationTestCase {
+
+	public static final String TAG = "CtrlInputActionTest";
+
+	private static final String TEXT = "one two\nthree four\nfive";
+
+	/**
+	 * The service, as far as the input actions are concerned.
+	 */
+	static class StubService extends RemoteKeyboardService {
+
+		InputConnection connection;
+
+		StubService() {
+			mirror = new TextMirror(this);
+		}
+
+		@Override
+		public InputConnection getCurrentInputConnection() {
+			return connection;
+		}
+	}
+
+	private StubService service;
+	private FakeInputConnection con;
+	private CtrlInputAction action;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Services expect to be created on a looper thread.
+		getInstrumentation().runOnMainSync(new Runnable() {
+			public void run() {
+				service = new StubService();
+			}
+		});
+		con = new FakeInputConnection();
+		con.setText(TEXT, 0);
+		service.connection = con;
+		action = new CtrlInputAction(service);
+	}
+
+	public void testTypeKey() {
+		press(Decoder.SYM_CURSOR_LEFT);
+		assertEquals(2, con.keyEvents);
+		assertEquals(KeyEvent.KEYCODE_DPAD_LEFT, con.lastKeyEvent.getKeyCode());
+		assertEquals(KeyEvent.ACTION_UP, con.lastKeyEvent.getAction());
+	}
+
+	public void testMarkText() {
+		press(Decoder.SYM_SHIFT_CURSOR_RIGHT);
+		assertEquals(4, con.keyEvents);
+		assertEquals(KeyEvent.KEYCODE_SHIFT_LEFT, con.lastKeyEvent.getKeyCode());
+	}
+
+	public void testWordJumps() {
+		press(Decoder.SYM_CTRL_CURSOR_RIGHT);
+		assertEquals(3, con.getSelectionEnd());
+		press(Decoder.SYM_CTRL_CURSOR_RIGHT);
+		assertEquals(TEXT.indexOf(' ', 4), con.getSelectionEnd());
+		con.setSelection(7, 7);
+		press(Decoder.SYM_CTRL_CURSOR_LEFT);
+		assertEquals(4, con.getSelectionEnd());
+	}
+
+	public void testLineJumps() {
+		con.setSelection(10, 10);
+		press(Decoder.SYM_HOME);
+		assertEquals(8, con.getSelectionEnd());
+		press(Decoder.SYM_END);
+		assertEquals(18, con.getSelectionEnd());
+		press(Decoder.SYM_CTRL_END);
+		assertEquals(TEXT.length(), con.getSelectionEnd());
+		press(Decoder.SYM_CTRL_HOME);
+		assertEquals(0, con.getSelectionEnd());
+	}
+
+	public void testScramble() {
+		con.setText("Hello", 5);
+		press(18);
+		assertEquals("Uryyb", con.getText());
+	}
+
+	public void testDeleteWithoutSelection() {
+		con.setSelection(3, 3);
+		press(Decoder.SYM_DELETE);
+		assertEquals("onetwo", con.getText().substring(0, 6));
+		assertEquals(0, con.keyEvents);
+	}
+
+	/**
+	 * Every key used to allocate two to four KeyEvents, navigation keys also an
+	 * ExtractedTextRequest plus a copy of the whole document. Now the events
+	 * are built once per keycode and the text is only fetched when the mirror
+	 * is out of sync, so a keystroke should not allocate at all.
+	 */
+	public void testAllocationsPerKeystroke() {
+		int[] keys = { Decoder.SYM_CURSOR_LEFT, Decoder.SYM_SHIFT_CURSOR_LEFT,
+				Decoder.SYM_CTRL_CURSOR_RIGHT, Decoder.SYM_CTRL_CURSOR_LEFT,
+				Decoder.SYM_HOME, Decoder.SYM_END, TerminalIO.TABULATOR };
+		int rounds = 1000;
+		// Fill the event caches and the mirror
+		for (int key : keys) {
+			press(key);
+		}
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < rounds; i++) {
+			for (int key : keys) {
+				press(key);
+			}
+		}
+		Debug.stopAllocCounting();
+		int allocations = Debug.getThreadAllocCount();
+		float perKey = allocations / (float) (rounds * keys.length);
+		Log.i(TAG, allocations + " allocations for " + rounds * keys.length
+				+ " keystrokes, " + perKey + " per keystroke");
+		assertTrue("Allocating per keystroke: " + perKey, perKey < 0.1f);
+	}
+
+	private void press(int function) {
+		action.function = function;
+		action.run();
+	}
+}
@@ -0,0 +1,235 @@
+package de.onyxbits.remotekeyboard;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.wimpi.telnetd.io.TerminalIO;
+import android.util.Log;
+
+/**
+ * Checks the escape sequence trie against the linear matcher it replaced and
+ * the UTF-8 decoding.
+ *
+ * @author patrick
+ *
+ */
+public class DecoderTest extends TestCase {
+
+	public static final String TAG = "DecoderTest";
+
+	/**
+	 * The table of the linear matcher. ESC [ 6 ~ used to be a second PAGE_UP.
+	 */
+	private static final int LEGACY[][] = {
+			{ Decoder.SYM_CURSOR_UP, '[', 'A' },
+			{ Decoder.SYM_CURSOR_RIGHT, '[', 'C' },
+			{ Decoder.SYM_CURSOR_DOWN, '[', 'B' },
+			{ Decoder.SYM_CURSOR_LEFT, '[', 'D' },
+			{ Decoder.SYM_HOME, '[', 'H' },
+			{ Decoder.SYM_END, '[', 'F' },
+			{ Decoder.SYM_INSERT, '[', '2', '~' },
+			{ Decoder.SYM_DELETE, '[', '3', '~' },
+			{ Decoder.SYM_PAGE_UP, '[', '5', '~' },
+			{ Decoder.SYM_PAGE_DOWN, '[', '6', '~' },
+			{ Decoder.SYM_CTRL_CURSOR_LEFT, '[', '1', ';', '5', 'D' },
+			{ Decoder.SYM_CTRL_CURSOR_RIGHT, '[', '1', ';', '5', 'C' },
+			{ Decoder.SYM_SHIFT_CURSOR_UP, '[', '1', ';', '2', 'A' },
+			{ Decoder.SYM_SHIFT_CURSOR_DOWN, '[', '1', ';', '2', 'B' },
+			{ Decoder.SYM_SHIFT_CURSOR_RIGHT, '[', '1', ';', '2', 'C' },
+			{ Decoder.SYM_SHIFT_CURSOR_LEFT, '[', '1', ';', '2', 'D' },
+			{ Decoder.SYM_F1, 'O', 'P' }, { Decoder.SYM_F2, 'O', 'Q' },
+			{ Decoder.SYM_F3, 'O', 'R' }, { Decoder.SYM_F4, 'O', 'S' },
+			{ Decoder.SYM_F5, '[', '1', '5', '~' },
+			{ Decoder.SYM_F6, '[', '1', '7', '~' },
+			{ Decoder.SYM_F7, '[', '1', '8', '~' },
+			{ Decoder.SYM_F8, '[', '1', '9', '~' },
+			{ Decoder.SYM_F9, '[', '2', '0', '~' },
+			{ Decoder.SYM_F10, '[', '2', '1', '~' },
+			{ Decoder.SYM_F11, '[', '2', '3', '~' },
+			{ Decoder.SYM_F12, '[', '2', '4', '~' }, };
+
+	/**
+	 * Sequences that neither matcher knows.
+	 */
+	private static final String[] UNKNOWN = { "[Z", "[9", "[1;9", "OX", "x",
+			"[2;", "[15;" };
+
+	/**
+	 * The linear matcher, as it was before the trie: every symbol after ESC
+	 * re-compares the whole prefix against every row.
+	 */
+	private static class LegacyMatcher {
+
+		static final int INCOMPLETE = -2;
+
+		private int[] buffer = new int[8];
+		private int index;
+
+		void reset() {
+			index = 0;
+		}
+
+		int feed(int symbol) {
+			buffer[++index] = symbol;
+			int candidates = 0;
+			for (int x = 0; x < LEGACY.length; x++) {
+				if (index >= LEGACY[x].length) {
+					continue;
+				}
+				boolean matched = true;
+				for (int y = 1; y <= index; y++) {
+					if (buffer[y] != LEGACY[x][y]) {
+						matched = false;
+						break;
+					}
+				}
+				if (matched && LEGACY[x].length - 1 == index) {
+					return LEGACY[x][0];
+				}
+				if (matched) {
+					candidates++;
+				}
+			}
+			if (candidates == 0) {
+				return Decoder.UNSUPPORTED;
+			}
+			return INCOMPLETE;
+		}
+	}
+
+	public void testLegacySequences() {
+		Decoder decoder = new Decoder();
+		for (int[] sequence : LEGACY) {
+			assertEquals(sequence[0], decodeSequence(decoder, sequence));
+		}
+	}
+
+	public void testNewSequences() {
+		Decoder decoder = new Decoder();
+		assertEquals(Decoder.SYM_CTRL_CURSOR_UP, decode(decoder, "[1;5A"));
+		assertEquals(Decoder.SYM_CTRL_SHIFT_CURSOR_RIGHT, decode(decoder, "[1;6C"));
+		assertEquals(Decoder.SYM_CURSOR_LEFT, decode(decoder, "[1;3D"));
+		assertEquals(Decoder.SYM_CURSOR_UP, decode(decoder, "OA"));
+		assertEquals(Decoder.SYM_HOME, decode(decoder, "[7~"));
+		assertEquals(Decoder.SYM_END, decode(decoder, "[8~"));
+		assertEquals(Decoder.SYM_CTRL_END, decode(decoder, "[8^"));
+		assertEquals(Decoder.SYM_SHIFT_CURSOR_LEFT, decode(decoder, "[d"));
+	}
+
+	public void testUnknownSequences() {
+		Decoder decoder = new Decoder();
+		LegacyMatcher legacy = new LegacyMatcher();
+		for (String sequence : UNKNOWN) {
+			legacy.reset();
+			int expected = LegacyMatcher.INCOMPLETE;
+			for (int i = 0; i < sequence.length()
+					&& expected == LegacyMatcher.INCOMPLETE; i++) {
+				expected = legacy.feed(sequence.charAt(i));
+			}
+			assertEquals(sequence, Decoder.UNSUPPORTED, expected);
+			assertEquals(sequence, Decoder.UNSUPPORTED, decode(decoder, sequence));
+		}
+	}
+
+	public void testDecoderRecoversAfterSequence() {
+		Decoder decoder = new Decoder();
+		decode(decoder, "[Z");
+		assertEquals(Decoder.PRINTABLE, decoder.decode('a'));
+		assertEquals("a", decoder.getPrintable());
+	}
+
+	public void testUtf8() {
+		Decoder decoder = new Decoder();
+		assertEquals("\u00e9", decodeBytes(decoder, 0xc3, 0xa9));
+		assertEquals("\u20ac", decodeBytes(decoder, 0xe2, 0x82, 0xac));
+		assertEquals("\ud83d\ude00", decodeBytes(decoder, 0xf0, 0x9f, 0x98, 0x80));
+		// Overlong form of '/'
+		assertEquals("" + Decoder.REPLACEMENT, decodeBytes(decoder, 0xc0));
+		assertEquals("" + Decoder.REPLACEMENT, decodeBytes(decoder, 0xe0, 0x80,
+				0xaf));
+		// Encoded surrogate
+		assertEquals("" + Decoder.REPLACEMENT, decodeBytes(decoder, 0xed, 0xa0,
+				0x80));
+		// Truncated sequence followed by a plain char
+		assertEquals(Decoder.INCOMPLETE, decoder.decode(0xe2));
+		assertEquals(Decoder.PRINTABLE, decoder.decode('b'));
+		assertEquals(Decoder.REPLACEMENT + "b", decoder.getPrintable());
+	}
+
+	/**
+	 * Feeds a key stream as an editing session produces it (cursor keys, word
+	 * jumps, home/end and function keys) through both matchers. Only logs the
+	 * figures.
+	 */
+	public void testBenchmarkKeyStream() {
+		int[][] keys = { LEGACY[0], LEGACY[1], LEGACY[3], LEGACY[4], LEGACY[5],
+				LEGACY[10], LEGACY[11], LEGACY[15], LEGACY[16], LEGACY[27] };
+		Random rnd = new Random(3);
+		ArrayList<int[]> stream = new ArrayList<int[]>();
+		for (int i = 0; i < 20000; i++) {
+			stream.add(keys[rnd.nextInt(keys.length)]);
+		}
+
+		long legacyTime = 0;
+		long trieTime = 0;
+		int check = 0;
+		// First round warms up, the second one counts
+		for (int round = 0; round < 2; round++) {
+			LegacyMatcher legacy = new LegacyMatcher();
+			long start = System.nanoTime();
+			for (int[] sequence : stream) {
+				legacy.reset();
+				for (int i = 1; i < sequence.length; i++) {
+					check += legacy.feed(sequence[i]);
+				}
+			}
+			legacyTime = System.nanoTime() - start;
+
+			Decoder decoder = new Decoder();
+			start = System.nanoTime();
+			for (int[] sequence : stream) {
+				decoder.decode(TerminalIO.ESCAPE);
+				for (int i = 1; i < sequence.length; i++) {
+					decoder.decode(sequence[i]);
+				}
+				check += decoder.getFunctionCode();
+			}
+			trieTime = System.nanoTime() - start;
+		}
+		Log.i(TAG, stream.size() + " sequences, linear: " + legacyTime / 1000
+				+ "us, trie: " + trieTime / 1000 + "us (" + check + ")");
+	}
+
+	private static int decode(Decoder decoder, String sequence) {
+		int[] symbols = new int[sequence.length() + 1];
+		for (int i = 0; i < sequence.length(); i++) {
+			symbols[i + 1] = sequence.charAt(i);
+		}
+		return decodeSequence(decoder, symbols);
+	}
+
+	/**
+	 * @param sequence
+	 *          like in the tables, slot 0 is ignored
+	 * @return the function code or INCOMPLETE if the decoder still waits
+	 */
+	private static int decodeSequence(Decoder decoder, int[] sequence) {
+		assertEquals(Decoder.INCOMPLETE, decoder.decode(TerminalIO.ESCAPE));
+		for (int i = 1; i < sequence.length; i++) {
+			if (decoder.decode(sequence[i]) == Decoder.FUNCTIONCODE) {
+				assertEquals("trailing symbols", sequence.length - 1, i);
+				return decoder.getFunctionCode();
+			}
+		}
+		return Decoder.INCOMPLETE;
+	}
+
+	private static String decodeBytes(Decoder decoder, int... bytes) {
+		for (int i = 0; i < bytes.length - 1; i++) {
+			assertEquals(Decoder.INCOMPLETE, decoder.decode(bytes[i]));
+		}
+		assertEquals(Decoder.PRINTABLE, decoder.decode(bytes[bytes.length - 1]));
+		return decoder.getPrintable();
+	}
+}
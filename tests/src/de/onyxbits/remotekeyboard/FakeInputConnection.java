@@ -0,0 +1,220 @@
+package de.onyxbits.remotekeyboard;
+
+import android.os.Bundle;
+import android.view.KeyEvent;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.CorrectionInfo;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+
+/**
+ * A minimal editor to drive the input actions with. Keeps the text and the
+ * selection, records key events and does not allocate on the calls the
+ * navigation keys make, so allocation counts only show what the app does.
+ *
+ * @author patrick
+ *
+ */
+class FakeInputConnection implements InputConnection {
+
+	/**
+	 * A reusable view on a region of the text.
+	 */
+	private class Region implements CharSequence {
+
+		int start;
+		int length;
+
+		public int length() {
+			return length;
+		}
+
+		public char charAt(int index) {
+			return text.charAt(start + index);
+		}
+
+		public CharSequence subSequence(int from, int to) {
+			return text.subSequence(start + from, start + to);
+		}
+
+		@Override
+		public String toString() {
+			return text.substring(start, start + length);
+		}
+	}
+
+	private StringBuilder text = new StringBuilder();
+	private int selectionStart;
+	private int selectionEnd;
+	private int composingStart = -1;
+	private int composingEnd = -1;
+	private Region before = new Region();
+	private Region after = new Region();
+
+	/**
+	 * Number of key events received so far.
+	 */
+	public int keyEvents;
+
+	/**
+	 * The last key event received.
+	 */
+	public KeyEvent lastKeyEvent;
+
+	/**
+	 * Replace the text and put the cursor somewhere.
+	 *
+	 * @param content
+	 *          the new text
+	 * @param cursor
+	 *          where to put the cursor
+	 */
+	public void setText(CharSequence content, int cursor) {
+		text.setLength(0);
+		text.append(content);
+		composingStart = -1;
+		composingEnd = -1;
+		setSelection(cursor, cursor);
+	}
+
+	public String getText() {
+		return text.toString();
+	}
+
+	public int getSelectionStart() {
+		return selectionStart;
+	}
+
+	public int getSelectionEnd() {
+		return selectionEnd;
+	}
+
+	public CharSequence getTextBeforeCursor(int n, int flags) {
+		int start = Math.min(selectionStart, selectionEnd);
+		before.start = Math.max(0, start - n);
+		before.length = start - before.start;
+		return before;
+	}
+
+	public CharSequence getTextAfterCursor(int n, int flags) {
+		after.start = Math.max(selectionStart, selectionEnd);
+		after.length = Math.min(n, text.length() - after.start);
+		return after;
+	}
+
+	public CharSequence getSelectedText(int flags) {
+		if (selectionStart == selectionEnd) {
+			return null;
+		}
+		return text.subSequence(Math.min(selectionStart, selectionEnd),
+				Math.max(selectionStart, selectionEnd));
+	}
+
+	public int getCursorCapsMode(int reqModes) {
+		return 0;
+	}
+
+	public ExtractedText getExtractedText(ExtractedTextRequest request, int flags) {
+		ExtractedText ret = new ExtractedText();
+		ret.text = text.toString();
+		ret.startOffset = 0;
+		ret.partialStartOffset = -1;
+		ret.partialEndOffset = -1;
+		ret.selectionStart = selectionStart;
+		ret.selectionEnd = selectionEnd;
+		return ret;
+	}
+
+	public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+		int start = Math.min(selectionStart, selectionEnd);
+		int end = Math.max(selectionStart, selectionEnd);
+		int to = Math.min(text.length(), end + afterLength);
+		int from = Math.max(0, start - beforeLength);
+		text.delete(end, to);
+		text.delete(from, start);
+		setSelection(from, from + end - start);
+		return true;
+	}
+
+	public boolean setComposingText(CharSequence content, int newCursorPosition) {
+		int start = composingStart;
+		int end = composingEnd;
+		if (start == -1) {
+			start = Math.min(selectionStart, selectionEnd);
+			end = Math.max(selectionStart, selectionEnd);
+		}
+		text.replace(start, end, content.toString());
+		composingStart = start;
+		composingEnd = start + content.length();
+		int cursor = (newCursorPosition > 0) ? composingEnd + newCursorPosition - 1
+				: start + newCursorPosition;
+		setSelection(cursor, cursor);
+		return true;
+	}
+
+	public boolean setComposingRegion(int start, int end) {
+		composingStart = Math.min(start, end);
+		composingEnd = Math.max(start, end);
+		return true;
+	}
+
+	public boolean finishComposingText() {
+		composingStart = -1;
+		composingEnd = -1;
+		return true;
+	}
+
+	public boolean commitText(CharSequence content, int newCursorPosition) {
+		setComposingText(content, newCursorPosition);
+		return finishComposingText();
+	}
+
+	public boolean commitCompletion(CompletionInfo completion) {
+		return false;
+	}
+
+	public boolean commitCorrection(CorrectionInfo correctionInfo) {
+		return false;
+	}
+
+	public boolean setSelection(int start, int end) {
+		selectionStart = start;
+		selectionEnd = end;
+		return true;
+	}
+
+	public boolean performEditorAction(int editorAction) {
+		return false;
+	}
+
+	public boolean performContextMenuAction(int id) {
+		return false;
+	}
+
+	public boolean beginBatchEdit() {
+		return true;
+	}
+
+	public boolean endBatchEdit() {
+		return true;
+	}
+
+	public boolean sendKeyEvent(KeyEvent event) {
+		keyEvents++;
+		lastKeyEvent = event;
+		return true;
+	}
+
+	public boolean clearMetaKeyStates(int states) {
+		return true;
+	}
+
+	public boolean reportFullscreenMode(boolean enabled) {
+		return true;
+	}
+
+	public boolean performPrivateCommand(String action, Bundle data) {
+		return false;
+	}
+}
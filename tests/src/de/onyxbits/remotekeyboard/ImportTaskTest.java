@@ -0,0 +1,229 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Imports from a local HTTP stand-in and from a file into the in memory
+ * database and times 100k entries.
+ *
+ * @author patrick
+ *
+ */
+public class ImportTaskTest extends ReplacementsTestCase {
+
+	public static final String TAG = "ImportTaskTest";
+
+	/**
+	 * Keeps the UI out of it and records the progress.
+	 */
+	static class Task extends ImportTask {
+
+		volatile int progress = -1;
+
+		Task(Context context, Schema schema) {
+			super(context, schema);
+		}
+
+		@Override
+		public void onPreExecute() {
+		}
+
+		@Override
+		protected void onProgressUpdate(Integer... progress) {
+			this.progress = progress[0];
+		}
+
+		@Override
+		protected void onPostExecute(String result) {
+		}
+	}
+
+	/**
+	 * Serves a single response, then quits.
+	 */
+	static class Server extends Thread {
+
+		ServerSocket socket;
+		byte[] body;
+
+		Server(String body) throws IOException {
+			this.body = body.getBytes("UTF-8");
+			socket = new ServerSocket(0);
+			start();
+		}
+
+		String getUrl() {
+			return "http://127.0.0.1:" + socket.getLocalPort() + "/replacements.json";
+		}
+
+		@Override
+		public void run() {
+			try {
+				Socket client = socket.accept();
+				BufferedReader in = new BufferedReader(new InputStreamReader(
+						client.getInputStream(), "ISO-8859-1"));
+				String line;
+				do {
+					line = in.readLine();
+				} while (line != null && line.length() > 0);
+				OutputStream out = client.getOutputStream();
+				out.write(("HTTP/1.0 200 OK\r\nContent-Type: application/json\r\n"
+						+ "Content-Length: " + body.length + "\r\n\r\n")
+						.getBytes("ISO-8859-1"));
+				out.write(body);
+				out.flush();
+				client.close();
+			}
+			catch (IOException e) {
+				Log.w(TAG, e);
+			}
+			finally {
+				try {
+					socket.close();
+				}
+				catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	public void testImportFromUrl() throws Exception {
+		Server server = new Server("{\"btw\":\"by the way\",\"cu\":\"see you\","
+				+ "\"btw\":\"between\"}");
+		assertEquals("Success!", run(server.getUrl()));
+		assertEquals(2, count());
+		assertEquals("between", lookup("btw"));
+		assertEquals("see you", lookup("cu"));
+	}
+
+	public void testImportFromFile() throws Exception {
+		File file = new File(filesDir, "replacements.json");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("{\"e.g.\":\"for example\"}".getBytes("UTF-8"));
+		out.close();
+		assertEquals("Success!", run(file.getAbsolutePath()));
+		assertEquals("for example", lookup("e.g."));
+		insertRows(1);
+		assertEquals("Success!", run("file://" + file.getAbsolutePath()));
+		assertEquals(2, count());
+	}
+
+	public void testCorruptDataIsRolledBack() throws Exception {
+		Server server = new Server("{\"btw\":\"by the way\",\"cu\":");
+		assertEquals(context.getString(R.string.err_corrupt_data),
+				run(server.getUrl()));
+		assertEquals(0, count());
+	}
+
+	public void testMissingFile() throws Exception {
+		assertEquals(context.getString(R.string.err_file_not_found),
+				run(new File(filesDir, "missing.json").getAbsolutePath()));
+	}
+
+	/**
+	 * 100k entries over HTTP in one transaction. Logs the time and how much the
+	 * heap grew, which should not depend on the number of entries.
+	 */
+	public void testBenchmark100k() throws Exception {
+		int count = 100000;
+		StringBuilder json = new StringBuilder("{");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("\"key").append(i).append("\":\"replacement for key")
+					.append(i).append('"');
+		}
+		json.append('}');
+		Server server = new Server(json.toString());
+		json = null;
+
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		long heap = rt.totalMemory() - rt.freeMemory();
+		long start = System.currentTimeMillis();
+		Task task = start(server.getUrl());
+		assertEquals("Success!", task.get());
+		long time = System.currentTimeMillis() - start;
+		heap = rt.totalMemory() - rt.freeMemory() - heap;
+
+		assertEquals(count, count());
+		// Progress gets delivered on the main thread, possibly after get().
+		await(progressed(task));
+		Log.i(TAG, count + " entries imported in " + time + "ms, heap grew by "
+				+ heap / 1024 + "kB");
+	}
+
+	private Condition progressed(final Task task) {
+		return new Condition() {
+			public boolean holds() {
+				return task.progress > 0;
+			}
+		};
+	}
+
+	private String run(String source) throws Exception {
+		return start(source).get();
+	}
+
+	/**
+	 * Create and execute a Task on the main thread. The test runs on a thread
+	 * without a Looper, and before Jelly Bean AsyncTask only works when it was
+	 * first used on one.
+	 *
+	 * @param source
+	 *          what to import
+	 * @return the running task
+	 */
+	private Task start(final String source) throws InterruptedException {
+		final Task[] task = new Task[1];
+		final CountDownLatch started = new CountDownLatch(1);
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			public void run() {
+				task[0] = new Task(context, provider.schema);
+				task[0].execute(source);
+				started.countDown();
+			}
+		});
+		assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		return task[0];
+	}
+
+	private int count() {
+		Cursor cursor = resolver.query(ReplacementsProvider.CONTENT_URI, null,
+				null, null, null);
+		try {
+			return cursor.getCount();
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	private String lookup(String key) {
+		Cursor cursor = provider.schema.getReadableDatabase().query(
+				Schema.TABLE_REPLACEMENTS, new String[] { Schema.COLUMN_VALUE },
+				Schema.COLUMN_KEY + "=?", new String[] { key }, null, null, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getString(0) : null;
+		}
+		finally {
+			cursor.close();
+		}
+	}
+}
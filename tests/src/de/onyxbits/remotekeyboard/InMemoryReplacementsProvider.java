@@ -0,0 +1,22 @@
+package de.onyxbits.remotekeyboard;
+
+/**
+ * ReplacementsProvider on a private in memory database, so tests neither see
+ * nor touch the user's replacements.
+ *
+ * @author patrick
+ *
+ */
+class InMemoryReplacementsProvider extends ReplacementsProvider {
+
+	/**
+	 * The database being served
+	 */
+	Schema schema;
+
+	@Override
+	Schema openSchema() {
+		schema = new Schema(getContext(), null);
+		return schema;
+	}
+}
@@ -0,0 +1,101 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+
+/**
+ * Checks that JsonPairReader reads what we export and rejects everything that
+ * is not a flat JSON object.
+ *
+ * @author patrick
+ *
+ */
+public class JsonPairReaderTest extends TestCase {
+
+	public void testPairs() throws Exception {
+		assertEquals("[btw=by the way, e.g.=for example]",
+				read("{\"btw\":\"by the way\", \"e.g.\" : \"for example\"}"));
+	}
+
+	public void testEmpty() throws Exception {
+		assertEquals("[]", read("{}"));
+		assertEquals("[]", read(" \n{ \t}"));
+	}
+
+	public void testEscapes() throws Exception {
+		assertEquals("[a\"b=\\/\n\t\u00e4\u20ac]",
+				read("{\"a\\\"b\":\"\\\\\\/\\n\\t\\u00e4\\u20AC\"}"));
+	}
+
+	public void testScalars() throws Exception {
+		assertEquals("[a=1, b=-2.5e3, c=true, d=null]",
+				read("{\"a\":1,\"b\":-2.5e3 ,\"c\":true,\n\"d\":null}"));
+	}
+
+	public void testStopsAtEndOfObject() throws Exception {
+		JsonPairReader reader = new JsonPairReader(new StringReader(
+				"{\"a\":\"b\"} garbage"));
+		assertTrue(reader.next());
+		assertFalse(reader.next());
+		assertFalse(reader.next());
+	}
+
+	public void testMalformed() throws Exception {
+		String[] bad = { "", "[]", "{\"a\":{}}", "{\"a\":[1]}", "{\"a\" \"b\"}",
+				"{\"a\":\"b\" \"c\":\"d\"}", "{\"a\":\"b", "{\"a\":\"b\"", "{a:\"b\"}",
+				"{\"a\":\"\\x\"}", "{\"a\":\"\\u12\"}" };
+		for (String json : bad) {
+			try {
+				read(json);
+				fail("Accepted: " + json);
+			}
+			catch (JSONException e) {
+			}
+		}
+	}
+
+	/**
+	 * The reader must not need more than one pair at a time, so it works on a
+	 * stream that is still arriving.
+	 */
+	public void testDoesNotReadAhead() throws Exception {
+		final String json = "{\"a\":\"b\",\"c\":1}";
+		final int[] pos = { 0 };
+		Reader slow = new Reader() {
+			@Override
+			public int read(char[] buf, int off, int len) {
+				if (pos[0] == json.length()) {
+					return -1;
+				}
+				buf[off] = json.charAt(pos[0]++);
+				return 1;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		JsonPairReader reader = new JsonPairReader(slow);
+		assertTrue(reader.next());
+		assertEquals("b", reader.getValue());
+		assertEquals(json.indexOf('"', 6) + 1, pos[0]);
+		assertTrue(reader.next());
+		assertEquals("1", reader.getValue());
+		assertFalse(reader.next());
+	}
+
+	private static String read(String json) throws IOException, JSONException {
+		JsonPairReader reader = new JsonPairReader(new StringReader(json));
+		ArrayList<String> ret = new ArrayList<String>();
+		while (reader.next()) {
+			ret.add(reader.getName() + "=" + reader.getValue());
+		}
+		return ret.toString();
+	}
+}
@@ -0,0 +1,254 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Loads the dictionary in the background, follows single row edits made
+ * through the provider, checks the snapshot handling and times loading a 50k
+ * row table from the database and from the snapshot.
+ *
+ * @author patrick
+ *
+ */
+public class ReplacementDictionaryTest extends ReplacementsTestCase {
+
+	public static final String TAG = "ReplacementDictionaryTest";
+
+	private ReplacementDictionary dictionary;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dictionary = new ReplacementDictionary(context);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		// The worker must be done before the table and the files go away.
+		dictionary.close();
+		assertTrue(dictionary.join(TIMEOUT));
+		super.tearDown();
+	}
+
+	public void testReloadDoesNotBlock() throws InterruptedException {
+		insertRows(1000);
+		assertEquals(0, dictionary.getTrie().size());
+		dictionary.reload();
+		await(size(1000));
+		assertEquals("value7", dictionary.getTrie().get("key7"));
+		assertEquals(1000, dictionary.snapshot().size());
+	}
+
+	public void testFollowsEdits() throws InterruptedException {
+		insertRows(10);
+		dictionary.reload();
+		await(size(10));
+
+		Uri row = insert("btw", "by the way");
+		await(value("btw", "by the way"));
+
+		ContentValues values = new ContentValues();
+		values.put(Schema.COLUMN_KEY, "cu");
+		values.put(Schema.COLUMN_VALUE, "see you");
+		resolver.update(row, values, null, null);
+		await(value("cu", "see you"));
+		assertNull(dictionary.getTrie().get("btw"));
+
+		// Takes over key1's row
+		insert("key1", "other");
+		await(value("key1", "other"));
+		assertEquals(11, dictionary.getTrie().size());
+
+		resolver.delete(row, null, null);
+		await(size(10));
+		assertNull(dictionary.getTrie().get("cu"));
+
+		resolver.delete(ReplacementsProvider.CONTENT_URI, null, null);
+		await(size(0));
+	}
+
+	/**
+	 * 50k rows: time until reload() made them visible, then the time from
+	 * editing a single row until the edit shows in the trie. Only logs the
+	 * figures.
+	 */
+	public void testBenchmarkReload50k() throws InterruptedException {
+		int count = 50000;
+		insertRows(count);
+
+		long start = System.currentTimeMillis();
+		dictionary.reload();
+		long call = System.currentTimeMillis() - start;
+		long full = call + await(size(count));
+
+		int edits = 20;
+		long total = 0;
+		for (int i = 0; i < edits; i++) {
+			start = System.currentTimeMillis();
+			insert("key" + i, "edited" + i);
+			total += System.currentTimeMillis() - start
+					+ await(value("key" + i, "edited" + i));
+		}
+		assertEquals(count, dictionary.getTrie().size());
+
+		Log.i(TAG, count + " rows. reload() returned after " + call
+				+ "ms, loaded after " + full + "ms. Single row edit visible after "
+				+ total / edits + "ms on average");
+	}
+
+	public void testKeepsMatchingSnapshot() throws Exception {
+		insertRows(10);
+		HashMap<String, String> table = new HashMap<String, String>();
+		for (int i = 0; i < 10; i++) {
+			table.put("key" + i, "value" + i);
+		}
+		new ReplacementTrie(table).save(snapshotFile());
+		dictionary.restore();
+		sync("key0");
+		ReplacementTrie restored = dictionary.getTrie();
+		assertEquals("value3", restored.get("key3"));
+		dictionary.reload();
+		sync("key1");
+		assertSame(restored, dictionary.getTrie());
+	}
+
+	/**
+	 * A snapshot that missed a change must not outlive the initial load.
+	 */
+	public void testReplacesStaleSnapshot() throws Exception {
+		insertRows(10);
+		HashMap<String, String> table = new HashMap<String, String>();
+		table.put("btw", "by the way");
+		new ReplacementTrie(table).save(snapshotFile());
+		dictionary.restore();
+		sync("key0");
+		assertEquals("by the way", dictionary.getTrie().get("btw"));
+		dictionary.reload();
+		await(size(10));
+		assertNull(dictionary.getTrie().get("btw"));
+		assertEquals(10, ReplacementTrie.load(snapshotFile()).size());
+	}
+
+	public void testIgnoresCorruptSnapshot() throws Exception {
+		insertRows(10);
+		FileOutputStream out = new FileOutputStream(snapshotFile());
+		out.write("garbage".getBytes("UTF-8"));
+		out.close();
+		dictionary.restore();
+		sync("key0");
+		assertEquals(0, dictionary.getTrie().size());
+		dictionary.reload();
+		await(size(10));
+		assertEquals(10, ReplacementTrie.load(snapshotFile()).size());
+	}
+
+	public void testEditsUpdateSnapshot() throws Exception {
+		insertRows(10);
+		dictionary.reload();
+		await(size(10));
+		sync("key0");
+		assertTrue(snapshotFile().exists());
+		insert("btw", "by the way");
+		await(value("btw", "by the way"));
+		sync("key1");
+		assertEquals("by the way", ReplacementTrie.load(snapshotFile()).get("btw"));
+	}
+
+	/**
+	 * Cold start with 50k rows: time until the first lookup works when the
+	 * dictionary comes from the database and when it comes from the snapshot
+	 * the first run left behind. Only logs the figures.
+	 */
+	public void testBenchmarkColdStart50k() throws InterruptedException {
+		int count = 50000;
+		insertRows(count);
+
+		long start = System.currentTimeMillis();
+		dictionary.restore();
+		dictionary.reload();
+		await(size(count));
+		long fromTable = System.currentTimeMillis() - start;
+		sync("key0");
+		assertTrue(snapshotFile().exists());
+
+		ReplacementDictionary second = new ReplacementDictionary(context);
+		try {
+			start = System.currentTimeMillis();
+			second.restore();
+			while (second.getTrie().size() != count) {
+				if (System.currentTimeMillis() - start > TIMEOUT) {
+					fail("Timed out");
+				}
+				Thread.sleep(1);
+			}
+			long fromSnapshot = System.currentTimeMillis() - start;
+			assertEquals("value42", second.getTrie().get("key42"));
+			Log.i(TAG, count + " rows. Usable after " + fromTable
+					+ "ms from the database, " + fromSnapshot
+					+ "ms from the snapshot (" + snapshotFile().length() / 1024
+					+ "kB)");
+		}
+		finally {
+			second.close();
+			assertTrue(second.join(TIMEOUT));
+		}
+	}
+
+	/**
+	 * Wait until the worker got through everything queued so far. touch() is
+	 * queued like everything else and its effect can be seen in the table.
+	 *
+	 * @param key
+	 *          an existing key that was not touched yet
+	 */
+	private void sync(final String key) throws InterruptedException {
+		dictionary.touch(key);
+		await(new Condition() {
+			public boolean holds() {
+				Cursor cursor = provider.schema.getReadableDatabase().query(
+						Schema.TABLE_REPLACEMENTS, new String[] { Schema.COLUMN_USES },
+						Schema.COLUMN_KEY + "=?", new String[] { key }, null, null, null);
+				try {
+					return cursor.moveToFirst() && cursor.getInt(0) > 0;
+				}
+				finally {
+					cursor.close();
+				}
+			}
+		});
+	}
+
+	private File snapshotFile() {
+		return new File(filesDir, ReplacementDictionary.SNAPSHOT);
+	}
+
+	private Uri insert(String key, String value) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COLUMN_KEY, key);
+		values.put(Schema.COLUMN_VALUE, value);
+		return resolver.insert(ReplacementsProvider.CONTENT_URI, values);
+	}
+
+	private Condition size(final int size) {
+		return new Condition() {
+			public boolean holds() {
+				return dictionary.getTrie().size() == size;
+			}
+		};
+	}
+
+	private Condition value(final String key, final String value) {
+		return new Condition() {
+			public boolean holds() {
+				return value.equals(dictionary.getTrie().get(key));
+			}
+		};
+	}
+}
@@ -0,0 +1,320 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+/**
+ * Checks the exact lookups and the suffix matching of ReplacementTrie against
+ * brute force, checks that snapshots either load intact or not at all and times
+ * it on 100k entries.
+ *
+ * @author patrick
+ *
+ */
+public class ReplacementTrieTest extends TestCase {
+
+	public static final String TAG = "ReplacementTrieTest";
+
+	public void testGet() {
+		HashMap<String, String> map = new HashMap<String, String>();
+		map.put("btw", "by the way");
+		map.put("b", "bee");
+		map.put("e.g.", "for example");
+		map.put("see you", "cu");
+		map.put("", "ignored");
+		ReplacementTrie trie = new ReplacementTrie(map);
+		assertEquals(4, trie.size());
+		assertEquals("by the way", trie.get("btw"));
+		assertEquals("bee", trie.get("b"));
+		assertEquals("for example", trie.get("e.g."));
+		assertEquals("cu", trie.get("see you"));
+		assertNull(trie.get("bt"));
+		assertNull(trie.get("btww"));
+		assertNull(trie.get("see"));
+		assertNull(trie.get(""));
+		assertEquals("by the way", trie.get("so btw, ok", 3, 6));
+	}
+
+	public void testEmpty() {
+		ReplacementTrie trie = new ReplacementTrie(new HashMap<String, String>());
+		assertEquals(0, trie.size());
+		assertNull(trie.get("x"));
+		assertEquals(ReplacementTrie.ROOT, trie.step(ReplacementTrie.ROOT, 'x'));
+		assertEquals(-1, trie.getMatch(ReplacementTrie.ROOT));
+	}
+
+	/**
+	 * Feeds random text through the automaton and compares the reported matches
+	 * with all keys the text ends with, longest first.
+	 */
+	public void testStepMatchesBruteForce() {
+		Random rnd = new Random(1);
+		HashMap<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < 300; i++) {
+			String key = randomString(rnd, 1 + rnd.nextInt(5), 3);
+			map.put(key, key.toUpperCase());
+		}
+		ReplacementTrie trie = new ReplacementTrie(map);
+		String text = randomString(rnd, 5000, 3);
+		int state = ReplacementTrie.ROOT;
+		for (int i = 0; i < text.length(); i++) {
+			state = trie.step(state, text.charAt(i));
+			ArrayList<String> expected = new ArrayList<String>();
+			// Keys have at most 5 chars
+			for (int len = Math.min(i + 1, 5); len > 0; len--) {
+				String suffix = text.substring(i + 1 - len, i + 1);
+				if (map.containsKey(suffix)) {
+					expected.add(map.get(suffix));
+				}
+			}
+			ArrayList<String> found = new ArrayList<String>();
+			for (int entry = trie.getMatch(state); entry != -1; entry = trie
+					.getShorterMatch(entry)) {
+				found.add(trie.getValue(entry));
+				assertEquals(trie.getValue(entry).length(), trie.getKeyLength(entry));
+			}
+			assertEquals(expected, found);
+		}
+	}
+
+	public void testSnapshotRoundTrip() throws IOException {
+		Random rnd = new Random(3);
+		HashMap<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < 1000; i++) {
+			map.put(randomString(rnd, 1 + rnd.nextInt(8), 5), "\u00e4\u20ac" + i);
+		}
+		ReplacementTrie trie = new ReplacementTrie(map);
+		File file = tempFile();
+		try {
+			trie.save(file);
+			ReplacementTrie loaded = ReplacementTrie.load(file);
+			assertEquals(map.size(), loaded.size());
+			for (String key : map.keySet()) {
+				assertEquals(map.get(key), loaded.get(key));
+			}
+			String text = randomString(rnd, 5000, 5);
+			int a = ReplacementTrie.ROOT;
+			int b = ReplacementTrie.ROOT;
+			for (int i = 0; i < text.length(); i++) {
+				a = trie.step(a, text.charAt(i));
+				b = loaded.step(b, text.charAt(i));
+				assertEquals(a, b);
+				assertEquals(trie.getMatch(a), loaded.getMatch(b));
+			}
+			// Also empty ones
+			new ReplacementTrie(new HashMap<String, String>()).save(file);
+			assertEquals(0, ReplacementTrie.load(file).size());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Every truncation and every flipped byte must be refused with an
+	 * IOException, so the caller can fall back to the database.
+	 */
+	public void testCorruptSnapshot() throws IOException {
+		HashMap<String, String> map = new HashMap<String, String>();
+		map.put("btw", "by the way");
+		map.put("bt", "bee tee");
+		map.put("cu", "see you");
+		File file = tempFile();
+		try {
+			new ReplacementTrie(map).save(file);
+			byte[] good = read(file);
+			for (int length = 0; length < good.length; length++) {
+				write(file, good, length);
+				assertCorrupt(file);
+			}
+			for (int pos = 0; pos < good.length; pos++) {
+				byte[] bad = good.clone();
+				bad[pos] ^= 0x01;
+				write(file, bad, bad.length);
+				assertCorrupt(file);
+				// Huge sizes in the header must not make it allocate.
+				bad = good.clone();
+				bad[pos] = 0x7f;
+				write(file, bad, bad.length);
+				if (bad[pos] != good[pos]) {
+					assertCorrupt(file);
+				}
+			}
+			write(file, "{\"btw\":\"by the way\"}".getBytes("UTF-8"), 10);
+			assertCorrupt(file);
+			file.delete();
+			try {
+				ReplacementTrie.load(file);
+				fail("Loaded a missing file");
+			}
+			catch (IOException e) {
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * 100k entries: compiling, exact lookups (compared to a HashMap) and
+	 * streaming a text through the automaton. Only logs the figures.
+	 */
+	public void testBenchmark100k() {
+		Random rnd = new Random(2);
+		HashMap<String, String> map = new HashMap<String, String>();
+		while (map.size() < 100000) {
+			String key = randomString(rnd, 3 + rnd.nextInt(10), 26);
+			map.put(key, "replacement for " + key);
+		}
+		String[] keys = map.keySet().toArray(new String[0]);
+		String text = randomString(rnd, 1024 * 1024, 26);
+
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		long heap = rt.totalMemory() - rt.freeMemory();
+		long start = System.nanoTime();
+		ReplacementTrie trie = new ReplacementTrie(map);
+		long compile = System.nanoTime() - start;
+		System.gc();
+		heap = rt.totalMemory() - rt.freeMemory() - heap;
+
+		int hits = 0;
+		start = System.nanoTime();
+		for (String key : keys) {
+			if (trie.get(key) != null) {
+				hits++;
+			}
+		}
+		long trieLookup = System.nanoTime() - start;
+		assertEquals(keys.length, hits);
+
+		start = System.nanoTime();
+		for (String key : keys) {
+			if (map.get(key) != null) {
+				hits--;
+			}
+		}
+		long mapLookup = System.nanoTime() - start;
+
+		int matches = 0;
+		int state = ReplacementTrie.ROOT;
+		start = System.nanoTime();
+		for (int i = 0; i < text.length(); i++) {
+			state = trie.step(state, text.charAt(i));
+			if (trie.getMatch(state) != -1) {
+				matches++;
+			}
+		}
+		long stream = System.nanoTime() - start;
+
+		Log.i(TAG, map.size() + " entries. Compile: " + compile / 1000000
+				+ "ms, about " + heap / 1024 + "kB (values included), lookups: "
+				+ trieLookup / 1000 + "us (HashMap: " + mapLookup / 1000
+				+ "us), 1M chars typed: " + stream / 1000000 + "ms, " + matches
+				+ " matches");
+	}
+
+	/**
+	 * 100k entries: loading a snapshot, the heap the loaded trie takes and
+	 * lookups on it. Only logs the figures.
+	 */
+	public void testBenchmarkLoad100k() throws IOException {
+		Random rnd = new Random(2);
+		HashMap<String, String> map = new HashMap<String, String>();
+		while (map.size() < 100000) {
+			String key = randomString(rnd, 3 + rnd.nextInt(10), 26);
+			map.put(key, "replacement for " + key);
+		}
+		String[] keys = map.keySet().toArray(new String[0]);
+		File file = tempFile();
+		try {
+			new ReplacementTrie(map).save(file);
+
+			// First round warms up, the second one counts
+			long load = 0;
+			long first = 0;
+			long heap = 0;
+			ReplacementTrie trie = null;
+			Runtime rt = Runtime.getRuntime();
+			for (int round = 0; round < 2; round++) {
+				trie = null;
+				System.gc();
+				heap = rt.totalMemory() - rt.freeMemory();
+				long start = System.nanoTime();
+				trie = ReplacementTrie.load(file);
+				load = System.nanoTime() - start;
+				start = System.nanoTime();
+				assertEquals(map.get(keys[0]), trie.get(keys[0]));
+				first = System.nanoTime() - start;
+				System.gc();
+				heap = rt.totalMemory() - rt.freeMemory() - heap;
+			}
+
+			long start = System.nanoTime();
+			for (String key : keys) {
+				assertNotNull(trie.get(key));
+			}
+			long lookup = System.nanoTime() - start;
+
+			Log.i(TAG, map.size() + " entries, " + file.length() / 1024
+					+ "kB snapshot. Load: " + load / 1000 + "us, first lookup: "
+					+ first / 1000 + "us, about " + heap / 1024 + "kB heap, lookups: "
+					+ lookup / 1000 + "us");
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	private static void assertCorrupt(File file) {
+		try {
+			ReplacementTrie.load(file);
+			fail("Loaded a corrupt snapshot");
+		}
+		catch (IOException e) {
+		}
+	}
+
+	private static File tempFile() throws IOException {
+		return File.createTempFile("snapshot", null);
+	}
+
+	private static byte[] read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] ret = new byte[(int) raf.length()];
+			raf.readFully(ret);
+			return ret;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static void write(File file, byte[] data, int length)
+			throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data, 0, length);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static String randomString(Random rnd, int length, int letters) {
+		char[] ret = new char[length];
+		for (int i = 0; i < length; i++) {
+			ret[i] = (char) ('a' + rnd.nextInt(letters));
+		}
+		return new String(ret);
+	}
+}
@@ -0,0 +1,145 @@
+package de.onyxbits.remotekeyboard;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Runs the ReplacementsProvider's URIs against the in memory database.
+ *
+ * @author patrick
+ *
+ */
+public class ReplacementsProviderTest extends ReplacementsTestCase {
+
+	public void testInsertAndQuery() {
+		Uri row = insert("btw", "by the way");
+		assertNotNull(row);
+		Cursor cursor = resolver.query(row, null, null, null, null);
+		try {
+			assertTrue(cursor.moveToFirst());
+			assertEquals("btw", string(cursor, Schema.COLUMN_KEY));
+			assertEquals("by the way", string(cursor, Schema.COLUMN_VALUE));
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	public void testInsertReplacesDuplicateKey() {
+		insert("btw", "by the way");
+		insert("btw", "between");
+		Cursor cursor = resolver.query(ReplacementsProvider.CONTENT_URI, null,
+				null, null, null);
+		try {
+			assertEquals(1, cursor.getCount());
+			cursor.moveToFirst();
+			assertEquals("between", string(cursor, Schema.COLUMN_VALUE));
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	public void testFilter() {
+		insert("bt", "1");
+		insert("btw", "2");
+		insert("bu", "3");
+		insert("a", "4");
+		Cursor cursor = resolver.query(
+				Uri.withAppendedPath(ReplacementsProvider.FILTER_URI, "bt"), null,
+				null, null, null);
+		try {
+			assertEquals(2, cursor.getCount());
+			cursor.moveToFirst();
+			assertEquals("bt", string(cursor, Schema.COLUMN_KEY));
+			cursor.moveToNext();
+			assertEquals("btw", string(cursor, Schema.COLUMN_KEY));
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	public void testUpdateAndDelete() {
+		Uri row = insert("btw", "by the way");
+		insert("cu", "see you");
+		ContentValues values = new ContentValues();
+		values.put(Schema.COLUMN_VALUE, "between");
+		assertEquals(1, resolver.update(row, values, null, null));
+		Cursor cursor = resolver.query(row, null, null, null, null);
+		try {
+			cursor.moveToFirst();
+			assertEquals("between", string(cursor, Schema.COLUMN_VALUE));
+		}
+		finally {
+			cursor.close();
+		}
+		assertEquals(1, resolver.delete(row, null, null));
+		assertEquals(1, resolver.delete(ReplacementsProvider.CONTENT_URI, null,
+				null));
+	}
+
+	public void testUsed() {
+		Uri row = insert("btw", "by the way");
+		ContentValues values = new ContentValues();
+		values.put(Schema.COLUMN_LASTUSED, 1234L);
+		resolver.update(
+				Uri.withAppendedPath(ReplacementsProvider.USED_URI, "btw"), values,
+				null, null);
+		resolver.update(
+				Uri.withAppendedPath(ReplacementsProvider.USED_URI, "btw"), values,
+				null, null);
+		Cursor cursor = resolver.query(row, null, null, null, null);
+		try {
+			cursor.moveToFirst();
+			assertEquals(2,
+					cursor.getInt(cursor.getColumnIndexOrThrow(Schema.COLUMN_USES)));
+			assertEquals(1234L,
+					cursor.getLong(cursor.getColumnIndexOrThrow(Schema.COLUMN_LASTUSED)));
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	public void testObserversGetNotified() throws InterruptedException {
+		HandlerThread thread = new HandlerThread(getName());
+		thread.start();
+		final CountDownLatch latch = new CountDownLatch(1);
+		ContentObserver observer = new ContentObserver(new Handler(
+				thread.getLooper())) {
+			@Override
+			public void onChange(boolean selfChange) {
+				latch.countDown();
+			}
+		};
+		getContext().getContentResolver().registerContentObserver(
+				ReplacementsProvider.CONTENT_URI, true, observer);
+		try {
+			insert("btw", "by the way");
+			assertTrue(latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		}
+		finally {
+			getContext().getContentResolver().unregisterContentObserver(observer);
+			thread.quit();
+		}
+	}
+
+	private Uri insert(String key, String value) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COLUMN_KEY, key);
+		values.put(Schema.COLUMN_VALUE, value);
+		return resolver.insert(ReplacementsProvider.CONTENT_URI, values);
+	}
+
+	private static String string(Cursor cursor, String column) {
+		return cursor.getString(cursor.getColumnIndexOrThrow(column));
+	}
+}
@@ -0,0 +1,131 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.File;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.ContentObserver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentResolver;
+
+/**
+ * Base for tests that need the replacements table. Runs an
+ * InMemoryReplacementsProvider and hands out a context whose resolver routes
+ * the provider's URIs to it and whose files dir is a scratch directory.
+ * Change notifications are passed on to the system, so ContentObservers work
+ * like they do in the app.
+ *
+ * @author patrick
+ *
+ */
+public abstract class ReplacementsTestCase extends AndroidTestCase {
+
+	/**
+	 * How long to wait for background work before giving up.
+	 */
+	public static final long TIMEOUT = 60000;
+
+	/**
+	 * Something to wait for
+	 */
+	protected interface Condition {
+		public boolean holds();
+	}
+
+	protected Context context;
+	protected MockContentResolver resolver;
+	protected InMemoryReplacementsProvider provider;
+	protected File filesDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final Context real = getContext();
+		filesDir = new File(real.getCacheDir(), "test-" + getName());
+		filesDir.mkdirs();
+		resolver = new MockContentResolver() {
+			@Override
+			public void notifyChange(Uri uri, ContentObserver observer,
+					boolean syncToNetwork) {
+				// MockContentResolver drops notifications.
+				real.getContentResolver().notifyChange(uri, observer, false);
+			}
+		};
+		context = new ContextWrapper(real) {
+			@Override
+			public ContentResolver getContentResolver() {
+				return resolver;
+			}
+
+			@Override
+			public File getFilesDir() {
+				return filesDir;
+			}
+		};
+		provider = new InMemoryReplacementsProvider();
+		provider.attachInfo(context, null);
+		resolver.addProvider(ReplacementsProvider.AUTHORITY, provider);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		provider.schema.close();
+		File[] files = filesDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		filesDir.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Fill the table in one transaction, bypassing the provider (and its
+	 * notifications).
+	 *
+	 * @param count
+	 *          number of rows to add. Keys are "key0", "key1", ...
+	 */
+	protected void insertRows(int count) {
+		SQLiteDatabase database = provider.schema.getWritableDatabase();
+		SQLiteStatement insert = database.compileStatement("INSERT INTO "
+				+ Schema.TABLE_REPLACEMENTS + " (" + Schema.COLUMN_KEY + ", "
+				+ Schema.COLUMN_VALUE + ") VALUES (?, ?)");
+		database.beginTransaction();
+		try {
+			for (int i = 0; i < count; i++) {
+				insert.bindString(1, "key" + i);
+				insert.bindString(2, "value" + i);
+				insert.executeInsert();
+			}
+			database.setTransactionSuccessful();
+		}
+		finally {
+			database.endTransaction();
+			insert.close();
+		}
+	}
+
+	/**
+	 * Wait for background work to get somewhere
+	 *
+	 * @param what
+	 *          what to wait for
+	 * @return milliseconds it took
+	 */
+	protected long await(Condition what) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while (!what.holds()) {
+			if (System.currentTimeMillis() - start > TIMEOUT) {
+				fail("Timed out");
+			}
+			Thread.sleep(5);
+		}
+		return System.currentTimeMillis() - start;
+	}
+}
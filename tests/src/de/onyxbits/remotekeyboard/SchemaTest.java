@@ -0,0 +1,189 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.File;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Upgrades a version 1 database and compares key lookups and imports on a
+ * large table before and after.
+ *
+ * @author patrick
+ *
+ */
+public class SchemaTest extends AndroidTestCase {
+
+	public static final String TAG = "SchemaTest";
+
+	private static final String NAME = "schema-test.db";
+
+	/**
+	 * What version 1 created
+	 */
+	private static final String CREATE_V1 = "create table "
+			+ Schema.TABLE_REPLACEMENTS + "(" + Schema.COLUMN_ID
+			+ " integer primary key autoincrement, " + Schema.COLUMN_KEY
+			+ " text not null," + Schema.COLUMN_VALUE + " text not null);";
+
+	private static final String INSERT = "insert into "
+			+ Schema.TABLE_REPLACEMENTS + " (" + Schema.COLUMN_KEY + ","
+			+ Schema.COLUMN_VALUE + ") values (?,?)";
+
+	private Schema schema;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		getContext().deleteDatabase(NAME);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (schema != null) {
+			schema.close();
+		}
+		getContext().deleteDatabase(NAME);
+		super.tearDown();
+	}
+
+	public void testCreate() {
+		schema = new Schema(getContext(), NAME);
+		SQLiteDatabase db = schema.getWritableDatabase();
+		assertEquals(2, db.getVersion());
+		assertTrue(hasIndex(db));
+		db.execSQL(INSERT, new Object[] { "btw", "by the way" });
+		try {
+			db.execSQL(INSERT, new Object[] { "btw", "between" });
+			fail("Duplicate key accepted");
+		}
+		catch (SQLException e) {
+		}
+	}
+
+	public void testUpgradeKeepsData() {
+		SQLiteDatabase v1 = createV1();
+		v1.execSQL(INSERT, new Object[] { "btw", "by the way" });
+		v1.execSQL(INSERT, new Object[] { "cu", "see you" });
+		v1.execSQL(INSERT, new Object[] { "btw", "between" });
+		v1.close();
+
+		schema = new Schema(getContext(), NAME);
+		SQLiteDatabase db = schema.getWritableDatabase();
+		assertEquals(2, db.getVersion());
+		assertTrue(hasIndex(db));
+		Cursor cursor = db.query(Schema.TABLE_REPLACEMENTS, new String[] {
+				Schema.COLUMN_KEY, Schema.COLUMN_VALUE, Schema.COLUMN_USES,
+				Schema.COLUMN_LASTUSED }, null, null, null, null, Schema.COLUMN_KEY);
+		try {
+			assertEquals(2, cursor.getCount());
+			cursor.moveToFirst();
+			assertEquals("btw", cursor.getString(0));
+			// The later entry wins
+			assertEquals("between", cursor.getString(1));
+			assertEquals(0, cursor.getInt(2));
+			assertEquals(0, cursor.getLong(3));
+			cursor.moveToNext();
+			assertEquals("cu", cursor.getString(0));
+			assertEquals("see you", cursor.getString(1));
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * 50k rows: importing them and looking up keys in a version 1 table, then
+	 * again after the upgrade. Only logs the figures.
+	 */
+	public void testBenchmark50k() {
+		int count = 50000;
+		int lookups = 1000;
+
+		SQLiteDatabase v1 = createV1();
+		long importV1 = fill(v1, count, INSERT);
+		long lookupV1 = lookup(v1, count, lookups);
+		v1.close();
+
+		long start = System.currentTimeMillis();
+		schema = new Schema(getContext(), NAME);
+		SQLiteDatabase db = schema.getWritableDatabase();
+		long upgrade = System.currentTimeMillis() - start;
+		long lookupV2 = lookup(db, count, lookups);
+
+		db.delete(Schema.TABLE_REPLACEMENTS, null, null);
+		long importV2 = fill(db, count, "insert or replace into "
+				+ Schema.TABLE_REPLACEMENTS + " (" + Schema.COLUMN_KEY + ","
+				+ Schema.COLUMN_VALUE + ") values (?,?)");
+		assertEquals(count,
+				DatabaseUtils.queryNumEntries(db, Schema.TABLE_REPLACEMENTS));
+
+		Log.i(TAG, count + " rows. Version 1: import " + importV1 + "ms, "
+				+ lookups + " lookups " + lookupV1 + "ms. Upgrade " + upgrade
+				+ "ms. Version 2: import " + importV2 + "ms, " + lookups
+				+ " lookups " + lookupV2 + "ms");
+	}
+
+	private SQLiteDatabase createV1() {
+		File file = getContext().getDatabasePath(NAME);
+		file.getParentFile().mkdirs();
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+		db.execSQL(CREATE_V1);
+		db.setVersion(1);
+		return db;
+	}
+
+	/**
+	 * @return milliseconds it took
+	 */
+	private static long fill(SQLiteDatabase db, int count, String sql) {
+		long start = System.currentTimeMillis();
+		SQLiteStatement insert = db.compileStatement(sql);
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < count; i++) {
+				insert.bindString(1, "key" + i);
+				insert.bindString(2, "value" + i);
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+			insert.close();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * @return milliseconds it took
+	 */
+	private static long lookup(SQLiteDatabase db, int count, int lookups) {
+		long start = System.currentTimeMillis();
+		SQLiteStatement select = db.compileStatement("select "
+				+ Schema.COLUMN_VALUE + " from " + Schema.TABLE_REPLACEMENTS
+				+ " where " + Schema.COLUMN_KEY + "=?");
+		try {
+			for (int i = 0; i < lookups; i++) {
+				int n = (int) ((long) i * count / lookups);
+				select.bindString(1, "key" + n);
+				assertEquals("value" + n, select.simpleQueryForString());
+			}
+		}
+		finally {
+			select.close();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private static boolean hasIndex(SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db,
+				"select count(*) from sqlite_master where type='index' and tbl_name=?",
+				new String[] { Schema.TABLE_REPLACEMENTS }) > 0;
+	}
+}
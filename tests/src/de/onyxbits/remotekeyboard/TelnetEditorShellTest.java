@@ -0,0 +1,285 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.wimpi.telnetd.io.LoopbackTerminal;
+import net.wimpi.telnetd.io.TerminalIO;
+import android.util.Log;
+
+/**
+ * Feeds input through a TerminalIO into the shell's main loop and records
+ * the text and control actions it hands over. Pasted text has to arrive in
+ * a few large commits, and a control action must never overtake text that
+ * was typed before it.
+ *
+ * @author patrick
+ *
+ */
+public class TelnetEditorShellTest extends TestCase {
+
+	public static final String TAG = "TelnetEditorShellTest";
+
+	private static final int EOT = 4;
+
+	/**
+	 * What the test sends for a control action and what the shell should make
+	 * of it.
+	 */
+	private static final String[] KEYS = { "\t", "\033[A", "\033OP", "\033[3~",
+			"\033[1;5C" };
+	private static final int[] FUNCTIONS = { TerminalIO.TABULATOR,
+			Decoder.SYM_CURSOR_UP, Decoder.SYM_F1, Decoder.SYM_DELETE,
+			Decoder.SYM_CTRL_CURSOR_RIGHT };
+
+	private LoopbackTerminal terminal;
+	private RecordingShell shell;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		terminal = new LoopbackTerminal("ansi", 80, 24);
+		shell = new RecordingShell();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		terminal.close();
+		super.tearDown();
+	}
+
+	public void testControlActionsInOrder() throws Exception {
+		send("abc\tdef\033[Aghi\u00e4\033OPjkl");
+		List<Object> expected = new ArrayList<Object>();
+		expected.add("abc");
+		expected.add(TerminalIO.TABULATOR);
+		expected.add("def");
+		expected.add(Decoder.SYM_CURSOR_UP);
+		expected.add("ghi\u00e4");
+		expected.add(Decoder.SYM_F1);
+		expected.add("jkl");
+		assertEquals(expected, shell.merged());
+	}
+
+	/**
+	 * A paste many times the batch size with control actions all over it. Every
+	 * action has to come after all the text before it was committed.
+	 */
+	public void testControlActionsInPaste() throws Exception {
+		Random rnd = new Random(5);
+		StringBuilder paste = new StringBuilder();
+		List<Object> expected = new ArrayList<Object>();
+		StringBuilder text = new StringBuilder();
+		while (paste.length() < 100000) {
+			if (rnd.nextInt(5000) == 0) {
+				int k = rnd.nextInt(KEYS.length);
+				paste.append(KEYS[k]);
+				if (text.length() > 0) {
+					expected.add(text.toString());
+					text.setLength(0);
+				}
+				expected.add(FUNCTIONS[k]);
+			}
+			else {
+				String s = randomText(rnd, 1 + rnd.nextInt(20));
+				paste.append(s);
+				text.append(s);
+			}
+		}
+		expected.add(text.toString());
+		send(paste.toString());
+		assertEquals(expected, shell.merged());
+		shell.assertBatchSize();
+	}
+
+	/**
+	 * A 200k char paste through the shell's main loop and through a loop that
+	 * reads and commits char by char, like the shell did before it coalesced
+	 * input. Only logs the figures.
+	 */
+	public void testBenchmarkPaste() throws Exception {
+		Random rnd = new Random(3);
+		String paste = randomText(rnd, 200000);
+
+		// First round warms up, the second one counts
+		long coalesced = 0;
+		long single = 0;
+		int commits = 0;
+		for (int round = 0; round < 2; round++) {
+			shell = new RecordingShell();
+			coalesced = send(paste);
+			assertEquals(1, shell.merged().size());
+			assertEquals(paste, shell.merged().get(0));
+			shell.assertBatchSize();
+			commits = shell.commits;
+
+			shell = new RecordingShell();
+			single = sendCharByChar(paste);
+			assertEquals(paste, shell.merged().get(0));
+		}
+		Log.i(TAG, paste.length() + " chars pasted. Coalesced: "
+				+ commits + " commits (char by char: " + paste.length()
+				+ "), " + coalesced / 1000000 + "ms (char by char: " + single
+				/ 1000000 + "ms)");
+	}
+
+	/**
+	 * Send text followed by a logout request and run the shell's main loop on
+	 * it.
+	 *
+	 * @return the time the main loop took in nanoseconds.
+	 */
+	private long send(String text) throws Exception {
+		Writer writer = new Writer(text);
+		writer.start();
+		long start = System.nanoTime();
+		shell.readInput(terminal.getTerminalIO(), new Decoder());
+		long time = System.nanoTime() - start;
+		writer.join();
+		writer.rethrow();
+		return time;
+	}
+
+	/**
+	 * Like send(), but read, decode and commit one char at a time.
+	 */
+	private long sendCharByChar(String text) throws Exception {
+		Writer writer = new Writer(text);
+		writer.start();
+		long start = System.nanoTime();
+		TerminalIO io = terminal.getTerminalIO();
+		Decoder decoder = new Decoder();
+		StringBuilder pending = new StringBuilder();
+		int in;
+		while ((in = io.read()) != TerminalIO.HANDLED) {
+			if (decoder.decode(in) == Decoder.PRINTABLE) {
+				decoder.appendPrintable(pending);
+				shell.commitText(pending.toString());
+				pending.setLength(0);
+			}
+		}
+		long time = System.nanoTime() - start;
+		writer.join();
+		writer.rethrow();
+		return time;
+	}
+
+	/**
+	 * Printable text, some of it beyond ASCII.
+	 */
+	private static String randomText(Random rnd, int len) {
+		StringBuilder sb = new StringBuilder(len);
+		while (sb.length() < len) {
+			switch (rnd.nextInt(20)) {
+				case 0:
+					sb.append('\u00e4');
+					break;
+				case 1:
+					sb.append('\u6f22');
+					break;
+				case 2:
+					sb.append("\ud83d\ude00");
+					break;
+				default:
+					sb.append((char) (' ' + rnd.nextInt(95)));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The client end: writes the text in one go and asks to log out.
+	 */
+	private class Writer extends Thread {
+
+		private byte[] bytes;
+		private IOException failure;
+
+		public Writer(String text) throws IOException {
+			byte[] encoded = text.getBytes("UTF-8");
+			bytes = new byte[encoded.length + 1];
+			System.arraycopy(encoded, 0, bytes, 0, encoded.length);
+			bytes[encoded.length] = EOT;
+		}
+
+		@Override
+		public void run() {
+			try {
+				OutputStream out = terminal.getClient().getOutputStream();
+				out.write(bytes);
+				out.flush();
+			}
+			catch (IOException e) {
+				failure = e;
+			}
+		}
+
+		public void rethrow() throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Records what the shell hands over instead of passing it to the UI
+	 * thread.
+	 */
+	private static class RecordingShell extends TelnetEditorShell {
+
+		private List<Object> events = new ArrayList<Object>();
+		private int commits;
+		private int largest;
+
+		@Override
+		void commitText(String text) throws InterruptedIOException {
+			assertTrue(text.length() > 0);
+			events.add(text);
+			commits++;
+			largest = Math.max(largest, text.length());
+		}
+
+		@Override
+		void sendFunction(int function) throws InterruptedIOException {
+			events.add(function);
+		}
+
+		/**
+		 * @return the recorded events, with text that was committed in several
+		 *         batches joined again.
+		 */
+		public List<Object> merged() {
+			List<Object> ret = new ArrayList<Object>();
+			StringBuilder text = new StringBuilder();
+			for (Object event : events) {
+				if (event instanceof String) {
+					text.append(event);
+					continue;
+				}
+				if (text.length() > 0) {
+					ret.add(text.toString());
+					text.setLength(0);
+				}
+				ret.add(event);
+			}
+			if (text.length() > 0) {
+				ret.add(text.toString());
+			}
+			return ret;
+		}
+
+		/**
+		 * A batch may end in a surrogate pair, that's the only way to exceed the
+		 * limit.
+		 */
+		public void assertBatchSize() {
+			assertTrue("largest commit: " + largest, largest <= TelnetEditorShell.MAXBATCH + 1);
+			assertTrue("commits: " + commits, commits < 1000);
+		}
+	}
+}
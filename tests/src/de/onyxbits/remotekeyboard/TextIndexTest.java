@@ -0,0 +1,123 @@
+package de.onyxbits.remotekeyboard;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.util.Log;
+
+/**
+ * Checks TextIndex against plain String searches, including after patching it
+ * with random edits, and times it on a 1 MB document.
+ *
+ * @author patrick
+ *
+ */
+public class TextIndexTest extends TestCase {
+
+	public static final String TAG = "TextIndexTest";
+
+	private static final String WORDS[] = { "lorem", "ipsum", " ", " ", "\n",
+			"dolor\n", "sit amet", "\n\n", "x" };
+
+	public void testNextAndPrevious() {
+		String text = randomText(new Random(1), 2000);
+		TextIndex index = new TextIndex('\n');
+		index.rebuild(text);
+		for (int i = -1; i <= text.length() + 1; i++) {
+			assertEquals(text.indexOf('\n', i), index.next(i));
+			assertEquals(text.lastIndexOf('\n', i), index.previous(i));
+		}
+	}
+
+	public void testRankAndGet() {
+		String text = "a\nb\n\nc";
+		TextIndex index = new TextIndex('\n');
+		index.rebuild(text);
+		assertEquals(3, index.size());
+		assertEquals(1, index.get(0));
+		assertEquals(4, index.get(2));
+		assertEquals(0, index.rank(1));
+		assertEquals(1, index.rank(2));
+		assertEquals(3, index.rank(text.length()));
+	}
+
+	public void testReplaceMatchesRebuild() {
+		Random rnd = new Random(2);
+		StringBuilder text = new StringBuilder(randomText(rnd, 10000));
+		TextIndex patched = new TextIndex('\n');
+		patched.rebuild(text);
+		TextIndex fresh = new TextIndex('\n');
+		for (int n = 0; n < 2000; n++) {
+			int start = rnd.nextInt(text.length() + 1);
+			int end = Math.min(text.length(), start + rnd.nextInt(20));
+			String replacement = (rnd.nextInt(3) == 0) ? "" : randomText(rnd,
+					rnd.nextInt(30));
+			text.replace(start, end, replacement);
+			patched.replace(start, end, replacement);
+			fresh.rebuild(text);
+			assertEquals(fresh.size(), patched.size());
+			for (int i = 0; i < fresh.size(); i++) {
+				assertEquals(fresh.get(i), patched.get(i));
+			}
+		}
+	}
+
+	/**
+	 * HOME/END and word jumps on a 1 MB document: index lookups against the
+	 * indexOf()/lastIndexOf() scans they replaced. Also times indexing the
+	 * document and patching the index for a typed char. Only logs the figures.
+	 */
+	public void testBenchmark1MB() {
+		Random rnd = new Random(3);
+		// Few line breaks, so a scan for the next one has to go far.
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 1024 * 1024) {
+			sb.append(rnd.nextInt(50) == 0 ? "\n" : "word ");
+		}
+		String text = sb.toString();
+		int lookups = 1000;
+		int[] positions = new int[lookups];
+		for (int i = 0; i < lookups; i++) {
+			positions[i] = rnd.nextInt(text.length());
+		}
+
+		long start = System.nanoTime();
+		TextIndex lines = new TextIndex('\n');
+		lines.rebuild(text);
+		long rebuild = System.nanoTime() - start;
+
+		int check = 0;
+		start = System.nanoTime();
+		for (int pos : positions) {
+			check += text.indexOf('\n', pos) + text.lastIndexOf('\n', pos);
+		}
+		long scan = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int pos : positions) {
+			check -= lines.next(pos) + lines.previous(pos);
+		}
+		long lookup = System.nanoTime() - start;
+		assertEquals(0, check);
+
+		start = System.nanoTime();
+		for (int pos : positions) {
+			lines.replace(pos, pos, "a");
+		}
+		long patch = System.nanoTime() - start;
+
+		Log.i(TAG, "1 MB, " + lines.size() + " lines. Rebuild: " + rebuild / 1000
+				+ "us, " + lookups + " scans: " + scan / 1000 + "us, " + lookups
+				+ " lookups: " + lookup / 1000 + "us, " + lookups + " patches: "
+				+ patch / 1000 + "us");
+	}
+
+	private static String randomText(Random rnd, int length) {
+		StringBuilder ret = new StringBuilder();
+		while (ret.length() < length) {
+			ret.append(WORDS[rnd.nextInt(WORDS.length)]);
+		}
+		ret.setLength(length);
+		return ret.toString();
+	}
+}
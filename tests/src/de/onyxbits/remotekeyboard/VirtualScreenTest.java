@@ -0,0 +1,405 @@
+package de.onyxbits.remotekeyboard;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.wimpi.telnetd.io.LoopbackTerminal;
+import android.util.Log;
+
+/**
+ * Renders successive screens through a TerminalIO into an emulated terminal
+ * and checks that the result always looks like a full repaint of the same
+ * screen would. Counts the bytes that go over the wire for both.
+ *
+ * @author patrick
+ *
+ */
+public class VirtualScreenTest extends TestCase {
+
+	public static final String TAG = "VirtualScreenTest";
+
+	private static final String TITLE = "Remote Keyboard";
+	private static final String STATUS = "Type away";
+
+	private static final String[] WORDS = { "foo", "bar", "hello", "world", "x",
+			"\t", "\n", "\n", "l\u00e4ngere", "   ", "\u6f22\u5b57", "\uff48\uff49",
+			"\ud83d\ude00", "\ud835\udc9cb", "e\u0301", "\ud800", "x\udc00",
+			"\u4e2d\u6587\u30c6\u30ad\u30b9\u30c8" };
+
+	private LoopbackTerminal incremental;
+	private LoopbackTerminal full;
+	private VirtualScreen screen;
+	private Emulator emulator;
+	private long incrementalBytes;
+	private long fullBytes;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		incremental = new LoopbackTerminal("ansi", 80, 24);
+		full = new LoopbackTerminal("ansi", 80, 24);
+		screen = new VirtualScreen(incremental.getTerminalIO());
+		emulator = new Emulator(80, 24);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		incremental.close();
+		full.close();
+		super.tearDown();
+	}
+
+	public void testSuccessiveScreens() throws IOException {
+		Random rnd = new Random(7);
+		String text = "";
+		for (int i = 0; i < 500; i++) {
+			text = rnd.nextBoolean() ? edit(rnd, text) : randomText(rnd);
+			show(text);
+		}
+		Log.i(TAG, "Random screens: " + incrementalBytes + " bytes, full repaints "
+				+ fullBytes + " bytes");
+	}
+
+	/**
+	 * Typing at the end of a full screen must only send what was typed.
+	 */
+	public void testTyping() throws IOException {
+		Random rnd = new Random(8);
+		StringBuilder text = new StringBuilder(randomText(rnd));
+		show(text.toString());
+		incrementalBytes = 0;
+		fullBytes = 0;
+		for (int i = 0; i < 100; i++) {
+			text.append((char) ('a' + rnd.nextInt(26)));
+			show(text.toString());
+		}
+		Log.i(TAG, "Typing: " + incrementalBytes + " bytes, full repaints "
+				+ fullBytes + " bytes");
+		assertTrue(incrementalBytes * 10 < fullBytes);
+	}
+
+	public void testGeometryChanges() throws IOException {
+		Random rnd = new Random(9);
+		String text = randomText(rnd);
+		for (int i = 0; i < 20; i++) {
+			int columns = 20 + rnd.nextInt(100);
+			int rows = 3 + rnd.nextInt(40);
+			incremental.getConnectionData().setTerminalGeometry(columns, rows);
+			full.getConnectionData().setTerminalGeometry(columns, rows);
+			// Nobody knows what the terminal shows after resizing.
+			emulator = new Emulator(columns, rows);
+			for (int j = 0; j < 10; j++) {
+				text = edit(rnd, text);
+				show(text);
+			}
+		}
+	}
+
+	public void testWideGlyphsPartlyOverwritten() throws IOException {
+		String wide = "\u6f22\u5b57\u6f22\u5b57\u6f22\u5b57";
+		show(wide + "\n" + wide + "\n" + wide + "\n" + wide);
+		// Shift by one cell, so every glyph overlaps two old ones
+		show("x" + wide + "\n" + wide.substring(1) + "\nab" + wide + "\nab");
+		// Half width glyphs into the right halves
+		show("xa" + wide + "\nabcdefghij\n" + wide + "\n" + wide);
+		// Wide glyph across the right border
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < screen.getColumns() - 1; i++) {
+			line.append('-');
+		}
+		show(line + wide + "\n" + wide);
+		show(line.substring(1) + wide + "\n" + wide);
+		show("");
+		show(wide);
+	}
+
+	public void testRowsEndingInBlanks() throws IOException {
+		show("a long line that goes on and on\nsecond line\nthird line");
+		show("a long\nsecond line   \n   ");
+		show("a long line that goes on and on\n\n\t\tx\t");
+		show("   \n   \n   ");
+		show("a\u6f22 \nb\u6f22\u5b57  ");
+		show("a\u6f22\nb\u6f22");
+	}
+
+	/**
+	 * Paint a screen like TelnetEditorShell does, render it incrementally and
+	 * as a full repaint and compare what the terminal shows.
+	 */
+	private void show(String text) throws IOException {
+		paint(screen, text);
+		emulator.feed(incremental.receive());
+		incrementalBytes += incremental.getBytes();
+		incremental.resetCounters();
+
+		VirtualScreen reference = new VirtualScreen(full.getTerminalIO());
+		paint(reference, text);
+		Emulator repainted = new Emulator(reference.getColumns() + 1,
+				reference.getRows());
+		repainted.feed(full.receive());
+		fullBytes += full.getBytes();
+		full.resetCounters();
+
+		assertEquals(repainted.dump(), emulator.dump());
+		assertEquals(screen.getRows() - 2, emulator.row);
+		assertEquals(screen.getColumns() - 1, emulator.column);
+	}
+
+	private static void paint(VirtualScreen vs, String text) throws IOException {
+		vs.clear();
+		int last = vs.getRows() - 1;
+		vs.fill(0, VirtualScreen.BAR);
+		vs.print(0, 0, TITLE, VirtualScreen.BAR);
+		vs.print(1, last - 1, text, VirtualScreen.PLAIN);
+		vs.fill(last, VirtualScreen.BAR);
+		vs.print(last, last, STATUS, VirtualScreen.BAR);
+		vs.render(last - 1, vs.getColumns() - 1);
+	}
+
+	private static String randomText(Random rnd) {
+		StringBuilder ret = new StringBuilder();
+		int n = rnd.nextInt(300);
+		for (int i = 0; i < n; i++) {
+			ret.append(WORDS[rnd.nextInt(WORDS.length)]);
+			if (rnd.nextInt(4) != 0) {
+				ret.append(' ');
+			}
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Insert or delete somewhere, like a user would.
+	 */
+	private static String edit(Random rnd, String text) {
+		StringBuilder ret = new StringBuilder(text);
+		int pos = rnd.nextInt(ret.length() + 1);
+		if (ret.length() > 0 && rnd.nextBoolean()) {
+			ret.deleteCharAt(Math.min(pos, ret.length() - 1));
+		}
+		else {
+			ret.insert(pos, WORDS[rnd.nextInt(WORDS.length)]);
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Just enough of an xterm to follow what VirtualScreen sends. Fails on
+	 * anything that would make the result depend on the terminal: writing into
+	 * the last column, scrolling, zero width or broken characters.
+	 */
+	static class Emulator {
+
+		/**
+		 * Right half of a double width glyph
+		 */
+		static final int WIDE = 0;
+
+		final int rows;
+		final int columns;
+		final int[][] cells;
+		final int[][] styles;
+		int row;
+		int column;
+		int style;
+
+		Emulator(int columns, int rows) {
+			this.rows = rows;
+			this.columns = columns;
+			cells = new int[rows][columns];
+			styles = new int[rows][columns];
+			for (int[] r : cells) {
+				// Whatever was there before
+				Arrays.fill(r, '?');
+			}
+		}
+
+		void feed(byte[] b) throws IOException {
+			String s = new String(b, "UTF-8");
+			for (int i = 0; i < s.length();) {
+				int c = s.codePointAt(i);
+				i += Character.charCount(c);
+				if (c == 27) {
+					i = escape(s, i);
+				}
+				else if (c == '\r') {
+					column = 0;
+				}
+				else if (c == '\n') {
+					row++;
+					assertTrue("Scrolled", row < rows);
+				}
+				else {
+					print(c);
+				}
+			}
+		}
+
+		private int escape(String s, int i) {
+			assertEquals('[', s.charAt(i++));
+			int start = i;
+			while (!Character.isLetter(s.charAt(i))) {
+				i++;
+			}
+			String[] params = s.substring(start, i).split(";");
+			int n = params[0].length() == 0 ? 1 : Integer.parseInt(params[0]);
+			switch (s.charAt(i)) {
+				case 'H': {
+					row = params.length < 2 ? 0 : n - 1;
+					column = params.length < 2 ? 0 : Integer.parseInt(params[1]) - 1;
+					break;
+				}
+				case 'A': {
+					row = Math.max(row - n, 0);
+					break;
+				}
+				case 'B': {
+					row = Math.min(row + n, rows - 1);
+					break;
+				}
+				case 'C': {
+					column = Math.min(column + n, columns - 1);
+					break;
+				}
+				case 'D': {
+					column = Math.max(column - n, 0);
+					break;
+				}
+				case 'K': {
+					assertEquals("", params[0]);
+					breakWide(row, column);
+					erase(row, column);
+					break;
+				}
+				case 'J': {
+					assertEquals("2", params[0]);
+					for (int r = 0; r < rows; r++) {
+						erase(r, 0);
+					}
+					break;
+				}
+				case 'm': {
+					for (String p : params) {
+						style = sgr(style, p.length() == 0 ? 0 : Integer.parseInt(p));
+					}
+					break;
+				}
+				default: {
+					fail("Unexpected sequence " + s.substring(start, i + 1));
+				}
+			}
+			return i + 1;
+		}
+
+		private void print(int c) {
+			assertFalse("Lone surrogate", Character.isSurrogate((char) c)
+					&& c < Character.MIN_SUPPLEMENTARY_CODE_POINT);
+			assertFalse("Control character " + c, Character.isISOControl(c));
+			int width = width(c);
+			assertTrue("Zero width", width > 0);
+			assertTrue("Last column used", column + width < columns);
+			breakWide(row, column);
+			if (width == 2) {
+				breakWide(row, column + 1);
+			}
+			cells[row][column] = c;
+			styles[row][column] = style;
+			if (width == 2) {
+				cells[row][column + 1] = WIDE;
+				styles[row][column + 1] = style;
+			}
+			column += width;
+		}
+
+		/**
+		 * Overwriting either half of a double width glyph blanks the other one.
+		 */
+		private void breakWide(int r, int col) {
+			if (col >= columns) {
+				return;
+			}
+			if (cells[r][col] == WIDE && col > 0) {
+				cells[r][col - 1] = ' ';
+				cells[r][col] = ' ';
+			}
+			else if (col + 1 < columns && cells[r][col + 1] == WIDE) {
+				cells[r][col + 1] = ' ';
+			}
+		}
+
+		/**
+		 * Erase to the end of a row in the current background.
+		 */
+		private void erase(int r, int from) {
+			for (int col = from; col < columns; col++) {
+				cells[r][col] = ' ';
+				styles[r][col] = style & 0xff;
+			}
+		}
+
+		/**
+		 * @return the style after applying a graphic rendition parameter. Low
+		 *         byte: background, second byte: foreground, bit 16: bold.
+		 */
+		private static int sgr(int style, int p) {
+			if (p == 0) {
+				return 0;
+			}
+			if (p == 1) {
+				return style | 0x10000;
+			}
+			if (p == 22) {
+				return style & ~0x10000;
+			}
+			if (p >= 30 && p <= 37 || p == 39) {
+				return (style & ~0xff00) | (p == 39 ? 0 : p << 8);
+			}
+			if (p >= 40 && p <= 47 || p == 49) {
+				return (style & ~0xff) | (p == 49 ? 0 : p);
+			}
+			fail("Unexpected rendition " + p);
+			return style;
+		}
+
+		/**
+		 * @return the screen without the last column, which must never be used.
+		 */
+		String dump() {
+			StringBuilder ret = new StringBuilder();
+			for (int r = 0; r < rows; r++) {
+				for (int col = 0; col < columns - 1; col++) {
+					int c = cells[r][col];
+					ret.appendCodePoint(c == WIDE ? '~' : c);
+					ret.append(Integer.toHexString(styles[r][col])).append(' ');
+				}
+				ret.append('\n');
+			}
+			return ret.toString();
+		}
+
+		/**
+		 * Cells a code point takes on a terminal, after wcwidth().
+		 */
+		private static int width(int c) {
+			switch (Character.getType(c)) {
+				case Character.NON_SPACING_MARK:
+				case Character.ENCLOSING_MARK:
+				case Character.FORMAT: {
+					return 0;
+				}
+			}
+			if (c >= 0x1100 && c <= 0x115f || c == 0x2329 || c == 0x232a
+					|| c >= 0x2e80 && c <= 0xa4cf && c != 0x303f || c >= 0xac00
+					&& c <= 0xd7a3 || c >= 0xf900 && c <= 0xfaff || c >= 0xfe10
+					&& c <= 0xfe19 || c >= 0xfe30 && c <= 0xfe6f || c >= 0xff00
+					&& c <= 0xff60 || c >= 0xffe0 && c <= 0xffe6 || c >= 0x1f300
+					&& c <= 0x1f64f || c >= 0x1f900 && c <= 0x1f9ff || c >= 0x20000
+					&& c <= 0x2fffd || c >= 0x30000 && c <= 0x3fffd) {
+				return 2;
+			}
+			return 1;
+		}
+	}
+}
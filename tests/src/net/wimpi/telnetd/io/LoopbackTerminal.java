@@ -0,0 +1,170 @@
+package net.wimpi.telnetd.io;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+
+import net.wimpi.telnetd.io.terminal.TerminalManager;
+import net.wimpi.telnetd.net.Connection;
+import net.wimpi.telnetd.net.ConnectionData;
+
+/**
+ * A {@link TerminalIO} talking to a client over a loopback socket
+ * pair, for tests that want to see what actually goes over the wire.<br>
+ * The output stream is wrapped, so the number of writes that reach the
+ * socket and the bytes they carry can be counted. Whatever was written
+ * can be picked up on the client end with {@link #receive()}.
+ */
+public class LoopbackTerminal {
+
+  private ServerSocket m_Server;
+  private Socket m_Client;
+  private Socket m_Accepted;
+  private ConnectionData m_ConnectionData;
+  private TerminalIO m_TerminalIO;
+  private CountingOutputStream m_Out;
+  private long m_Received;	//bytes picked up by receive()
+
+  /**
+   * Sets up the socket pair and a TerminalIO on the server end.
+   * The telnet negotiation is consumed, the counters start at zero.
+   *
+   * @param termtype terminal type as set up by the terminal manager
+   *                 (ansi, vt100, ...).
+   * @param columns  width of the terminal.
+   * @param rows     height of the terminal.
+   */
+  public LoopbackTerminal(String termtype, int columns, int rows) throws IOException {
+    if (TerminalManager.getReference() == null) {
+      setupTerminals();
+    }
+    m_Server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    m_Client = new Socket(m_Server.getInetAddress(), m_Server.getLocalPort());
+    m_Accepted = m_Server.accept();
+    m_Out = new CountingOutputStream(m_Accepted.getOutputStream());
+    m_ConnectionData = new ConnectionData(m_Accepted, null) {
+      public OutputStream getOutputStream() {
+        return m_Out;
+      }
+    };
+    m_ConnectionData.setNegotiatedTerminalType(termtype);
+    m_ConnectionData.setTerminalGeometry(columns, rows);
+    //the negotiation swallows one byte, so it does not have
+    //to wait for its timeout
+    m_Client.getOutputStream().write('x');
+    m_TerminalIO = new TerminalIO(new Connection(m_ConnectionData));
+    receive();
+    resetCounters();
+  }//constructor
+
+  public TerminalIO getTerminalIO() {
+    return m_TerminalIO;
+  }//getTerminalIO
+
+  public ConnectionData getConnectionData() {
+    return m_ConnectionData;
+  }//getConnectionData
+
+  /**
+   * @return the client end of the connection.
+   */
+  public Socket getClient() {
+    return m_Client;
+  }//getClient
+
+  /**
+   * @return number of writes that reached the socket.
+   */
+  public int getWrites() {
+    return m_Out.m_Writes;
+  }//getWrites
+
+  /**
+   * @return number of bytes that reached the socket.
+   */
+  public long getBytes() {
+    return m_Out.m_Bytes;
+  }//getBytes
+
+  public void resetCounters() {
+    m_Out.m_Writes = 0;
+    m_Out.m_Bytes = 0;
+    m_Received = 0;
+  }//resetCounters
+
+  /**
+   * Reads everything that reached the socket since the last call
+   * on the client end.
+   *
+   * @return the bytes as the client got them.
+   */
+  public byte[] receive() throws IOException {
+    byte[] b = new byte[(int) (m_Out.m_Bytes - m_Received)];
+    InputStream in = m_Client.getInputStream();
+    for (int n = 0; n < b.length; ) {
+      int r = in.read(b, n, b.length - n);
+      if (r < 0) {
+        throw new EOFException();
+      }
+      n += r;
+    }
+    m_Received = m_Out.m_Bytes;
+    return b;
+  }//receive
+
+  public void close() throws IOException {
+    m_Client.close();
+    m_Accepted.close();
+    m_Server.close();
+  }//close
+
+  /**
+   * Sets up the terminals the way the app's telnetd.properties does.
+   */
+  private static void setupTerminals() throws IOException {
+    Properties p = new Properties();
+    p.setProperty("terminals", "ansi,vt100");
+    p.setProperty("term.vt100.class", "net.wimpi.telnetd.io.terminal.vt100");
+    p.setProperty("term.vt100.aliases", "vt100-am,vt102,dec-vt100");
+    p.setProperty("term.ansi.class", "net.wimpi.telnetd.io.terminal.ansi");
+    p.setProperty("term.ansi.aliases", "default,xterm-color,linux,screen");
+    try {
+      TerminalManager.createTerminalManager(p);
+    } catch (Exception ex) {
+      throw new IOException(ex.toString());
+    }
+  }//setupTerminals
+
+  /**
+   * Counts what passes through, one write per call.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+
+    volatile int m_Writes;
+    volatile long m_Bytes;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }//constructor
+
+    public void write(int b) throws IOException {
+      out.write(b);
+      m_Writes++;
+      m_Bytes++;
+    }//write
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      m_Writes++;
+      m_Bytes += len;
+    }//write
+
+  }//inner class CountingOutputStream
+
+}//class LoopbackTerminal
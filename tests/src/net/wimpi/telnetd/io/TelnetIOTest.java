@@ -0,0 +1,505 @@
+package net.wimpi.telnetd.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.wimpi.telnetd.net.Connection;
+import net.wimpi.telnetd.net.ConnectionData;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Tests {@link TelnetIO}. The bulk read path has to deliver exactly
+ * what the byte by byte path delivers, the output side has to put
+ * on the wire what translating UTF-8 byte by byte would.<br>
+ * Runs over a loopback socket pair, no ConnectionManager involved.
+ */
+public class TelnetIOTest extends TestCase {
+
+  private static Log log = LogFactory.getLog(TelnetIOTest.class);
+
+  private static final int IAC = 255;
+  private static final int NOP = 241;
+
+  private ServerSocket m_Server;
+  private Socket m_Client;
+  private Socket m_Accepted;
+  private TelnetIO m_IO;
+
+  protected void setUp() throws Exception {
+    m_Server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    m_Client = new Socket(m_Server.getInetAddress(), m_Server.getLocalPort());
+    m_Accepted = m_Server.accept();
+    m_IO = new TelnetIO();
+    m_IO.setConnection(new Connection(new ConnectionData(m_Accepted, null)));
+    //the negotiation in initIO() swallows one byte, so it does not
+    //have to wait for its timeout
+    m_Client.getOutputStream().write('x');
+    m_IO.initIO();
+    skipNegotiation();
+  }//setUp
+
+  protected void tearDown() throws Exception {
+    m_Client.close();
+    m_Accepted.close();
+    m_Server.close();
+  }//tearDown
+
+  public void testPlainRun() throws Exception {
+    send(bytes("hello world"));
+    assertEquals("hello world", readString(11));
+  }//testPlainRun
+
+  public void testCRSequences() throws Exception {
+    send(bytes("a\r\nb\r\0c"));
+    assertEquals("a\nb\nc", readString(5));
+  }//testCRSequences
+
+  public void testIAC() throws Exception {
+    send(new byte[]{'a', (byte) IAC, (byte) IAC, 'b', (byte) IAC, (byte) NOP, 'c'});
+    byte[] b = readFully(4);
+    assertTrue(Arrays.equals(new byte[]{'a', (byte) IAC, 'b', 'c'}, b));
+  }//testIAC
+
+  public void testNoBlockOnceDataIsRead() throws Exception {
+    send(bytes("12345"));
+    //let all of it arrive, so a single read can get it
+    Thread.sleep(200);
+    byte[] b = new byte[100];
+    assertEquals(5, m_IO.read(b, 0, b.length));
+  }//testNoBlockOnceDataIsRead
+
+  public void testBulkMatchesReference() throws Exception {
+    byte[][] stream = randomStream(new Random(42), 256 * 1024);
+    sendInBackground(stream[0]);
+    Random sizes = new Random(7);
+    byte[] b = new byte[stream[1].length];
+    int n = 0;
+    while (n < b.length) {
+      n += m_IO.read(b, n, Math.min(1 + sizes.nextInt(5000), b.length - n));
+    }
+    assertTrue(Arrays.equals(stream[1], b));
+  }//testBulkMatchesReference
+
+  public void testSingleMatchesReference() throws Exception {
+    byte[][] stream = randomStream(new Random(42), 64 * 1024);
+    sendInBackground(stream[0]);
+    byte[] b = new byte[stream[1].length];
+    for (int i = 0; i < b.length; i++) {
+      b[i] = (byte) m_IO.read();
+    }
+    assertTrue(Arrays.equals(stream[1], b));
+  }//testSingleMatchesReference
+
+  /**
+   * Compares the throughput of read() as the input side used
+   * it before (one call per byte) with read(byte[],int,int).
+   * Only reports the figures, timing on a device varies too
+   * much to fail on them.
+   */
+  public void testBenchmarkThroughput() throws Exception {
+    int size = 4 * 1024 * 1024;
+    byte[] data = new byte[size];
+    Random rnd = new Random(1);
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (' ' + rnd.nextInt(95));
+    }
+
+    //first round warms up, the second one counts
+    long single = 0;
+    long bulk = 0;
+    byte[] b = new byte[4096];
+    for (int round = 0; round < 2; round++) {
+      sendInBackground(data);
+      long start = System.nanoTime();
+      for (int i = 0; i < size; i++) {
+        m_IO.read();
+      }
+      single = System.nanoTime() - start;
+
+      sendInBackground(data);
+      start = System.nanoTime();
+      for (int n = 0; n < size; ) {
+        n += m_IO.read(b, 0, b.length);
+      }
+      bulk = System.nanoTime() - start;
+    }
+
+    log.info("read(): " + rate(size, single) + " bytes/s, read(byte[]): "
+        + rate(size, bulk) + " bytes/s");
+  }//testBenchmarkThroughput
+
+  public void testWriteCRLF() throws Exception {
+    m_IO.write("a\nb\rc\r\nd\r");
+    m_IO.write((byte) 'e');
+    m_IO.write(bytes("\rf\n"));
+    m_IO.flush();
+    assertEquals("a\r\nb\r\nc\r\nd\r\ne\r\nf\r\n",
+        new String(receive(18), "ISO-8859-1"));
+  }//testWriteCRLF
+
+  public void testWriteDoublesIAC() throws Exception {
+    m_IO.write(new byte[]{'a', (byte) IAC, 'b'});
+    m_IO.write((byte) IAC);
+    m_IO.flush();
+    assertTrue(Arrays.equals(
+        new byte[]{'a', (byte) IAC, (byte) IAC, 'b', (byte) IAC, (byte) IAC},
+        receive(6)));
+  }//testWriteDoublesIAC
+
+  public void testWriteUTF8() throws Exception {
+    String s = "\u00ff\u00e9\u20ac\ud83d\ude00x";
+    m_IO.write(s);
+    m_IO.flush();
+    byte[] b = receive(s.getBytes("UTF-8").length);
+    assertEquals(s, new String(b, "UTF-8"));
+  }//testWriteUTF8
+
+  public void testWriteUnpairedSurrogates() throws Exception {
+    m_IO.write("a\ud83db\ude00c\ud83d");
+    m_IO.flush();
+    assertEquals("a?b?c?", new String(receive(6), "ISO-8859-1"));
+  }//testWriteUnpairedSurrogates
+
+  public void testWriteMatchesReference() throws Exception {
+    Random rnd = new Random(42);
+    ReferenceEncoder ref = new ReferenceEncoder();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 2000; i++) {
+      if (rnd.nextInt(3) == 0) {
+        byte[] b = new byte[rnd.nextInt(40)];
+        for (int j = 0; j < b.length; j++) {
+          b[j] = (byte) pick(rnd, new int[]{IAC, 10, 13, rnd.nextInt(256)});
+        }
+        ref.write(b, expected);
+        m_IO.write(b);
+      } else {
+        String s = randomText(rnd, rnd.nextInt(40));
+        ref.write(s.getBytes("UTF-8"), expected);
+        m_IO.write(s);
+      }
+      if (rnd.nextInt(10) == 0) {
+        m_IO.flush();
+      }
+    }
+    m_IO.flush();
+    byte[] b = expected.toByteArray();
+    assertTrue(Arrays.equals(b, receive(b.length)));
+  }//testWriteMatchesReference
+
+  public void testDrainWithoutFlush() throws Exception {
+    //below the threshold nothing is sent without a flush
+    m_IO.write(new byte[100]);
+    Thread.sleep(200);
+    assertEquals(0, m_Client.getInputStream().available());
+    //above it, everything written so far goes out
+    char[] c = new char[9000];
+    Arrays.fill(c, 'x');
+    m_IO.write(new String(c));
+    byte[] b = receive(9100);
+    for (int i = 100; i < b.length; i++) {
+      assertEquals('x', b[i]);
+    }
+  }//testDrainWithoutFlush
+
+  /**
+   * Compares writing text through {@link TerminalIO#write(String)}
+   * with the old output path, which handed each byte of the platform
+   * encoding to a buffered stream on its own. Only reports the figures.
+   */
+  public void testBenchmarkWriteThroughput() throws Exception {
+    Random rnd = new Random(1);
+    String[] lines = new String[20000];
+    int size = 0;
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = randomText(rnd, 80) + "\n";
+      size += lines[i].length();
+    }
+
+    //first round warms up, the second one counts
+    long bulk = 0;
+    long single = 0;
+    for (int round = 0; round < 2; round++) {
+      bulk = timeTerminalIO(lines);
+      single = timeByteByByte(lines);
+    }
+    log.info("write(String): " + rate(size, bulk)
+        + " chars/s, byte by byte: " + rate(size, single) + " chars/s");
+  }//testBenchmarkWriteThroughput
+
+  /**
+   * @return nanoseconds it took to write the lines through a
+   *         TerminalIO, flushing every 50 lines.
+   */
+  private static long timeTerminalIO(String[] lines) throws Exception {
+    LoopbackTerminal terminal = new LoopbackTerminal("ansi", 80, 24);
+    try {
+      TerminalIO io = terminal.getTerminalIO();
+      io.setAutoflushing(false);
+      Thread sink = sinkInBackground(terminal.getClient().getInputStream());
+      long start = System.nanoTime();
+      for (int i = 0; i < lines.length; i++) {
+        io.write(lines[i]);
+        if (i % 50 == 49) {
+          io.flush();
+        }
+      }
+      io.flush();
+      long time = System.nanoTime() - start;
+      terminal.getConnectionData().getSocket().shutdownOutput();
+      sink.join();
+      return time;
+    } finally {
+      terminal.close();
+    }
+  }//timeTerminalIO
+
+  /**
+   * @return nanoseconds it took to write the lines the way the old
+   *         output path did, flushing every 50 lines.
+   */
+  private static long timeByteByByte(String[] lines) throws Exception {
+    LoopbackTerminal terminal = new LoopbackTerminal("ansi", 80, 24);
+    try {
+      Socket socket = terminal.getConnectionData().getSocket();
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+      ReferenceEncoder ref = new ReferenceEncoder();
+      Thread sink = sinkInBackground(terminal.getClient().getInputStream());
+      long start = System.nanoTime();
+      for (int i = 0; i < lines.length; i++) {
+        byte[] b = lines[i].getBytes();
+        for (int j = 0; j < b.length; j++) {
+          ref.write(b[j], out);
+        }
+        if (i % 50 == 49) {
+          out.flush();
+        }
+      }
+      out.flush();
+      long time = System.nanoTime() - start;
+      socket.shutdownOutput();
+      sink.join();
+      return time;
+    } finally {
+      terminal.close();
+    }
+  }//timeByteByByte
+
+  /**
+   * Builds a random telnet stream with CR sequences and IAC commands.
+   *
+   * @return the bytes on the wire and what reading them must yield.
+   */
+  private static byte[][] randomStream(Random rnd, int length) {
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    while (data.size() < length) {
+      switch (rnd.nextInt(20)) {
+        case 0:
+          wire.write(13);
+          wire.write(rnd.nextBoolean() ? 10 : 0);
+          data.write(10);
+          break;
+        case 1:
+          wire.write(IAC);
+          wire.write(IAC);
+          data.write(IAC);
+          break;
+        case 2:
+          wire.write(IAC);
+          wire.write(NOP);
+          break;
+        default:
+          int c = rnd.nextInt(255);
+          if (c == 13) {
+            c = 'x';
+          }
+          wire.write(c);
+          data.write(c);
+      }
+    }
+    //a command at the very end would make read() wait for more
+    wire.write('.');
+    data.write('.');
+    return new byte[][]{wire.toByteArray(), data.toByteArray()};
+  }//randomStream
+
+  /**
+   * Builds random text with line breaks, U+00FF, surrogate pairs
+   * and unpaired surrogates.
+   */
+  private static String randomText(Random rnd, int length) {
+    StringBuffer sbuf = new StringBuffer(length);
+    for (int i = 0; i < length; i++) {
+      switch (rnd.nextInt(12)) {
+        case 0:
+          sbuf.append('\n');
+          break;
+        case 1:
+          sbuf.append('\r');
+          break;
+        case 2:
+          sbuf.append('\u00ff');
+          break;
+        case 3:
+          sbuf.appendCodePoint(0x10000 + rnd.nextInt(0x100000));
+          break;
+        case 4:
+          sbuf.append((char) (0xD800 + rnd.nextInt(0x800)));
+          break;
+        case 5:
+          sbuf.append((char) (0x80 + rnd.nextInt(0xD800 - 0x80)));
+          break;
+        default:
+          sbuf.append((char) (' ' + rnd.nextInt(95)));
+      }
+    }
+    return sbuf.toString();
+  }//randomText
+
+  private static int pick(Random rnd, int[] choices) {
+    return choices[rnd.nextInt(choices.length)];
+  }//pick
+
+  /**
+   * Reads the option negotiation on the client end, so the output
+   * tests only see what they wrote. Everything up to a marker,
+   * which the negotiation cannot contain, is dropped.
+   */
+  private void skipNegotiation() throws IOException {
+    byte[] marker = bytes("<sync>");
+    m_IO.write(marker);
+    m_IO.flush();
+    m_Client.setSoTimeout(10000);
+    InputStream in = m_Client.getInputStream();
+    for (int matched = 0; matched < marker.length; ) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      matched = (b == marker[matched]) ? matched + 1 : (b == marker[0] ? 1 : 0);
+    }
+  }//skipNegotiation
+
+  /**
+   * Reads what TelnetIO sent on the client end.
+   */
+  private byte[] receive(int len) throws IOException {
+    m_Client.setSoTimeout(10000);
+    InputStream in = m_Client.getInputStream();
+    byte[] b = new byte[len];
+    for (int n = 0; n < len; ) {
+      int r = in.read(b, n, len - n);
+      if (r < 0) {
+        throw new EOFException();
+      }
+      n += r;
+    }
+    return b;
+  }//receive
+
+  /**
+   * Reads and drops everything until the end of the stream.
+   */
+  private static Thread sinkInBackground(final InputStream in) {
+    Thread t = new Thread() {
+      public void run() {
+        byte[] b = new byte[65536];
+        try {
+          while (in.read(b) >= 0) {
+          }
+        } catch (IOException ex) {
+          log.error("sinkInBackground()", ex);
+        }
+      }
+    };
+    t.start();
+    return t;
+  }//sinkInBackground
+
+  private void send(byte[] b) throws IOException {
+    OutputStream out = m_Client.getOutputStream();
+    out.write(b);
+    out.flush();
+  }//send
+
+  private void sendInBackground(final byte[] b) {
+    Thread t = new Thread() {
+      public void run() {
+        try {
+          send(b);
+        } catch (IOException ex) {
+          log.error("sendInBackground()", ex);
+        }
+      }
+    };
+    t.start();
+  }//sendInBackground
+
+  private byte[] readFully(int len) throws IOException {
+    byte[] b = new byte[len];
+    int n = 0;
+    while (n < len) {
+      int r = m_IO.read(b, n, len - n);
+      if (r <= 0) {
+        throw new EOFException();
+      }
+      n += r;
+    }
+    return b;
+  }//readFully
+
+  private String readString(int len) throws IOException {
+    return new String(readFully(len), "ISO-8859-1");
+  }//readString
+
+  private static byte[] bytes(String s) throws IOException {
+    return s.getBytes("ISO-8859-1");
+  }//bytes
+
+  private static long rate(int bytes, long nanos) {
+    return bytes * 1000000000L / Math.max(nanos, 1);
+  }//rate
+
+  /**
+   * Translates data bytes the way the telnet protocol wants them,
+   * one byte at a time: CR and LF become CRLF, IAC is doubled.
+   */
+  private static class ReferenceEncoder {
+
+    private boolean m_CRFlag;
+
+    void write(byte[] b, OutputStream out) throws IOException {
+      for (int i = 0; i < b.length; i++) {
+        write(b[i], out);
+      }
+    }//write
+
+    void write(byte b, OutputStream out) throws IOException {
+      if (!m_CRFlag && b == 10) {
+        out.write(13);
+      }
+      if (m_CRFlag && b != 10) {
+        out.write(10);
+      }
+      if (b == (byte) IAC) {
+        out.write(IAC);
+      }
+      out.write(b);
+      m_CRFlag = (b == 13);
+    }//write
+
+  }//inner class ReferenceEncoder
+
+}//class TelnetIOTest
@@ -0,0 +1,109 @@
+package net.wimpi.telnetd.io;
+
+import junit.framework.TestCase;
+import net.wimpi.telnetd.io.terminal.ColorHelper;
+import net.wimpi.telnetd.io.toolkit.Label;
+import net.wimpi.telnetd.io.toolkit.Statusbar;
+import net.wimpi.telnetd.io.toolkit.Titlebar;
+
+/**
+ * Tests the output frames of {@link TerminalIO}. Whatever is written
+ * inside a frame has to reach the socket in one write, once the
+ * outermost frame is committed.
+ */
+public class TerminalIOTest extends TestCase {
+
+  private LoopbackTerminal m_Terminal;
+  private TerminalIO m_IO;
+
+  protected void setUp() throws Exception {
+    m_Terminal = new LoopbackTerminal("ansi", 80, 24);
+    m_IO = m_Terminal.getTerminalIO();
+  }//setUp
+
+  protected void tearDown() throws Exception {
+    m_Terminal.close();
+  }//tearDown
+
+  public void testNoFrameWritesAtOnce() throws Exception {
+    m_IO.write("abc");
+    assertEquals(1, m_Terminal.getWrites());
+    m_IO.moveLeft(1);
+    assertEquals(2, m_Terminal.getWrites());
+  }//testNoFrameWritesAtOnce
+
+  public void testRedrawInOneWrite() throws Exception {
+    //each component frames itself, so without an outer frame
+    //every one of them goes out on its own
+    redraw();
+    assertEquals(3, m_Terminal.getWrites());
+    String unframed = new String(m_Terminal.receive(), "UTF-8");
+    m_Terminal.resetCounters();
+
+    m_IO.beginFrame();
+    redraw();
+    assertEquals(0, m_Terminal.getWrites());
+    m_IO.commitFrame();
+    assertEquals(1, m_Terminal.getWrites());
+    assertEquals(unframed, new String(m_Terminal.receive(), "UTF-8"));
+  }//testRedrawInOneWrite
+
+  public void testNestedFrames() throws Exception {
+    m_IO.write("outer");
+    m_IO.write("inner");
+    m_IO.write("more");
+    String unframed = new String(m_Terminal.receive(), "UTF-8");
+    m_Terminal.resetCounters();
+
+    m_IO.beginFrame();
+    m_IO.write("outer");
+    m_IO.beginFrame();
+    m_IO.write("inner");
+    m_IO.commitFrame();
+    assertEquals(0, m_Terminal.getWrites());
+    m_IO.write("more");
+    m_IO.commitFrame();
+    assertEquals(1, m_Terminal.getWrites());
+    assertEquals(unframed, new String(m_Terminal.receive(), "UTF-8"));
+  }//testNestedFrames
+
+  public void testFlushInsideFrame() throws Exception {
+    m_IO.beginFrame();
+    m_IO.write("abc");
+    m_IO.flush();
+    m_IO.setCursor(3, 4);
+    m_IO.flush();
+    assertEquals(0, m_Terminal.getWrites());
+    m_IO.commitFrame();
+    assertEquals(1, m_Terminal.getWrites());
+    //back to normal once the frame is done
+    m_IO.write("d");
+    assertEquals(2, m_Terminal.getWrites());
+  }//testFlushInsideFrame
+
+  public void testFrameWithoutAutoflush() throws Exception {
+    m_IO.setAutoflushing(false);
+    m_IO.beginFrame();
+    m_IO.write("abc");
+    m_IO.commitFrame();
+    assertEquals(1, m_Terminal.getWrites());
+  }//testFrameWithoutAutoflush
+
+  private void redraw() throws Exception {
+    Titlebar title = new Titlebar(m_IO, "title");
+    title.setTitleText("Remote Keyboard");
+    title.setAlignment(Titlebar.ALIGN_CENTER);
+    title.setForegroundColor(ColorHelper.WHITE);
+    title.setBackgroundColor(ColorHelper.BLUE);
+    Label label = new Label(m_IO, "label", "Some text to show");
+    Statusbar status = new Statusbar(m_IO, "status");
+    status.setStatusText("Connected");
+    status.setAlignment(Statusbar.ALIGN_LEFT);
+    status.setForegroundColor(ColorHelper.WHITE);
+    status.setBackgroundColor(ColorHelper.BLUE);
+    title.draw();
+    label.draw();
+    status.draw();
+  }//redraw
+
+}//class TerminalIOTest
@@ -0,0 +1,433 @@
+package net.wimpi.telnetd.io.terminal;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.wimpi.telnetd.io.TerminalIO;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Tests the sequences {@link BasicTerminal} hands out against the
+ * ones it used to build from scratch on every call. The tables and
+ * the cursor position cache must not change a single byte, and the
+ * shared arrays must not be altered by handing them out again.
+ */
+public class BasicTerminalTest extends TestCase {
+
+  private static Log log = LogFactory.getLog(BasicTerminalTest.class);
+
+  private static final int ROWS = 24;
+  private static final int COLUMNS = 80;
+
+  private static final int[] DIRECTIONS = {
+    TerminalIO.UP, TerminalIO.DOWN, TerminalIO.RIGHT, TerminalIO.LEFT, 0, 4711
+  };
+  private static final int[] ERASE_FUNCTIONS = {
+    TerminalIO.EEOL, TerminalIO.EBOL, TerminalIO.EEL, TerminalIO.EEOS,
+    TerminalIO.EBOS, TerminalIO.EES, 1102, 0, -1
+  };
+  private static final int[] SPECIAL_FUNCTIONS = {
+    TerminalIO.STORECURSOR, TerminalIO.RESTORECURSOR, TerminalIO.DEVICERESET,
+    TerminalIO.LINEWRAP, TerminalIO.NOLINEWRAP, 1050, 0, -1
+  };
+  private static final int[] GR_TYPES = {
+    TerminalIO.FCOLOR, TerminalIO.BCOLOR, TerminalIO.STYLE, TerminalIO.RESET, 0
+  };
+  private static final int[] EXTREMES = {
+    Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -1000000000, -10, -9, -1, 0,
+    9, 10, 99, 100, 999, 1000, 1000000000, Integer.MAX_VALUE
+  };
+
+  private ansi m_Terminal;
+  private ReferenceTerminal m_Reference;
+
+  protected void setUp() throws Exception {
+    m_Terminal = new ansi();
+    m_Reference = new ReferenceTerminal();
+  }//setUp
+
+  public void testCursorMoveSequence() {
+    for (int d = 0; d < DIRECTIONS.length; d++) {
+      for (int times = 0; times <= 50; times++) {
+        assertSequence(m_Reference.getCursorMoveSequence(DIRECTIONS[d], times),
+            m_Terminal.getCursorMoveSequence(DIRECTIONS[d], times));
+      }
+    }
+  }//testCursorMoveSequence
+
+  /**
+   * The whole screen and then some, twice, so the second round comes
+   * from the cache, followed by positions that collide in the cache.
+   */
+  public void testCursorPositioningSequence() {
+    for (int round = 0; round < 2; round++) {
+      for (int row = -5; row <= 300; row++) {
+        for (int col = -5; col <= 300; col++) {
+          assertPosition(row, col);
+        }
+      }
+    }
+    for (int i = 0; i < EXTREMES.length; i++) {
+      for (int j = 0; j < EXTREMES.length; j++) {
+        assertPosition(EXTREMES[i], EXTREMES[j]);
+      }
+    }
+    Random rnd = new Random(7);
+    for (int i = 0; i < 100000; i++) {
+      int row = rnd.nextInt(50);
+      //same slot as (row, col) for col + 256 * k, give or take
+      int col = rnd.nextInt(50) + 256 * rnd.nextInt(4);
+      assertPosition(row, col);
+      assertPosition(row + 8, col - 248);
+    }
+  }//testCursorPositioningSequence
+
+  /**
+   * Positions are handed over in an array the caller reuses, like
+   * TerminalIO does.
+   */
+  public void testCursorPositioningReusedArray() {
+    int[] pos = new int[2];
+    for (int row = 0; row < ROWS; row++) {
+      for (int col = 0; col < COLUMNS; col++) {
+        pos[0] = row;
+        pos[1] = col;
+        byte[] seq = m_Terminal.getCursorPositioningSequence(pos);
+        pos[0] = -1;
+        pos[1] = -1;
+        assertSequence(m_Reference.getCursorPositioningSequence(new int[]{row, col}),
+            m_Terminal.getCursorPositioningSequence(new int[]{row, col}));
+        assertSequence(m_Reference.getCursorPositioningSequence(new int[]{row, col}), seq);
+      }
+    }
+  }//testCursorPositioningReusedArray
+
+  public void testEraseSequence() {
+    for (int i = 0; i < ERASE_FUNCTIONS.length; i++) {
+      assertSequence(m_Reference.getEraseSequence(ERASE_FUNCTIONS[i]),
+          m_Terminal.getEraseSequence(ERASE_FUNCTIONS[i]));
+    }
+  }//testEraseSequence
+
+  public void testSpecialSequence() {
+    for (int i = 0; i < SPECIAL_FUNCTIONS.length; i++) {
+      assertSequence(m_Reference.getSpecialSequence(SPECIAL_FUNCTIONS[i]),
+          m_Terminal.getSpecialSequence(SPECIAL_FUNCTIONS[i]));
+    }
+  }//testSpecialSequence
+
+  /**
+   * Every type with the whole table, its edges and far beyond.
+   */
+  public void testGRSequence() {
+    for (int t = 0; t < GR_TYPES.length; t++) {
+      for (int param = -200; param <= 300; param++) {
+        assertSequence(m_Reference.getGRSequence(GR_TYPES[t], param),
+            m_Terminal.getGRSequence(GR_TYPES[t], param));
+      }
+      for (int i = 0; i < EXTREMES.length; i++) {
+        assertSequence(m_Reference.getGRSequence(GR_TYPES[t], EXTREMES[i]),
+            m_Terminal.getGRSequence(GR_TYPES[t], EXTREMES[i]));
+      }
+    }
+  }//testGRSequence
+
+  public void testScrollMarginsSequence() {
+    for (int i = 0; i < EXTREMES.length; i++) {
+      for (int j = 0; j < EXTREMES.length; j++) {
+        assertSequence(m_Reference.getScrollMarginsSequence(EXTREMES[i], EXTREMES[j]),
+            m_Terminal.getScrollMarginsSequence(EXTREMES[i], EXTREMES[j]));
+      }
+    }
+    for (int top = 0; top <= 100; top++) {
+      for (int bottom = top; bottom <= 100; bottom++) {
+        assertSequence(m_Reference.getScrollMarginsSequence(top, bottom),
+            m_Terminal.getScrollMarginsSequence(top, bottom));
+      }
+    }
+  }//testScrollMarginsSequence
+
+  public void testTranslateIntToDigitCodes() {
+    for (int i = 0; i < EXTREMES.length; i++) {
+      assertSequence(m_Reference.translateIntToDigitCodes(EXTREMES[i]),
+          m_Terminal.translateIntToDigitCodes(EXTREMES[i]));
+    }
+    Random rnd = new Random(11);
+    for (int i = 0; i < 100000; i++) {
+      int n = rnd.nextInt() >> rnd.nextInt(32);
+      assertSequence(m_Reference.translateIntToDigitCodes(n),
+          m_Terminal.translateIntToDigitCodes(n));
+    }
+  }//testTranslateIntToDigitCodes
+
+  /**
+   * Full screen redraws with the old and the new construction. Reports
+   * how many arrays of how many bytes a warmed up redraw allocates, and
+   * how long one takes. Only reports the figures.
+   */
+  public void testBenchmarkRedrawAllocations() {
+    Redraw old = new Redraw(m_Reference);
+    Redraw cached = new Redraw(m_Terminal);
+    assertEquals(old.run(), cached.run());
+
+    //first round warms up, the second one counts
+    long oldTime = 0;
+    long cachedTime = 0;
+    for (int round = 0; round < 2; round++) {
+      oldTime = time(old, 2000);
+      cachedTime = time(cached, 2000);
+    }
+    old.countFresh();
+    cached.countFresh();
+    log.info("old: " + old.m_Fresh + " arrays, " + old.m_FreshBytes + " bytes, "
+        + (oldTime / 1000) + " us per redraw");
+    log.info("cached: " + cached.m_Fresh + " arrays, " + cached.m_FreshBytes + " bytes, "
+        + (cachedTime / 1000) + " us per redraw");
+  }//testBenchmarkRedrawAllocations
+
+  private void assertPosition(int row, int col) {
+    byte[] seq = m_Terminal.getCursorPositioningSequence(new int[]{row, col});
+    assertSequence(m_Reference.getCursorPositioningSequence(new int[]{row, col}), seq);
+  }//assertPosition
+
+  private static void assertSequence(byte[] expected, byte[] actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertNotNull(actual);
+    assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+  }//assertSequence
+
+  /**
+   * @return the average time per run in nanoseconds.
+   */
+  private static long time(Redraw redraw, int runs) {
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      redraw.run();
+    }
+    return (System.nanoTime() - start) / runs;
+  }//time
+
+  /**
+   * Asks a terminal for the sequences of a full screen redraw, the
+   * way TerminalIO would: each row in a few colored runs, erased to
+   * its end, with the cursor stored and restored around it.
+   */
+  private static class Redraw {
+
+    private Terminal m_Terminal;
+    private int[] m_Pos = new int[2];
+    private IdentityHashMap m_Seen;
+    int m_Fresh;
+    int m_FreshBytes;
+
+    Redraw(Terminal t) {
+      m_Terminal = t;
+    }//constructor
+
+    /**
+     * @return the number of bytes the sequences take.
+     */
+    int run() {
+      int bytes = 0;
+      bytes += take(m_Terminal.getSpecialSequence(TerminalIO.STORECURSOR));
+      bytes += take(m_Terminal.getCursorPositioningSequence(TerminalIO.HOME));
+      for (int row = 1; row <= ROWS; row++) {
+        for (int col = 1; col < COLUMNS; col += COLUMNS / 4) {
+          m_Pos[0] = row;
+          m_Pos[1] = col;
+          bytes += take(m_Terminal.getCursorPositioningSequence(m_Pos));
+          bytes += take(m_Terminal.getGRSequence(TerminalIO.FCOLOR, 30 + (row + col) % 8));
+          bytes += take(m_Terminal.getGRSequence(TerminalIO.BCOLOR, 40 + row % 8));
+          bytes += take(m_Terminal.getGRSequence(TerminalIO.STYLE,
+              (col == 1) ? TerminalIO.BOLD : TerminalIO.BOLD_OFF));
+        }
+        bytes += take(m_Terminal.getEraseSequence(TerminalIO.EEOL));
+        bytes += take(m_Terminal.getGRSequence(TerminalIO.RESET, 0));
+      }
+      bytes += take(m_Terminal.getCursorMoveSequence(TerminalIO.LEFT, 1));
+      bytes += take(m_Terminal.getSpecialSequence(TerminalIO.RESTORECURSOR));
+      return bytes;
+    }//run
+
+    /**
+     * Runs once more and counts the arrays that were not handed out
+     * before, i.e. the ones this redraw allocated.
+     */
+    void countFresh() {
+      m_Seen = new IdentityHashMap();
+      run();
+      m_Fresh = 0;
+      m_FreshBytes = 0;
+      run();
+      m_Seen = null;
+    }//countFresh
+
+    private int take(byte[] seq) {
+      if (m_Seen != null && m_Seen.put(seq, seq) == null) {
+        m_Fresh++;
+        m_FreshBytes += seq.length;
+      }
+      return seq.length;
+    }//take
+
+  }//inner class Redraw
+
+  /**
+   * The sequences as BasicTerminal built them before the tables and
+   * the position cache, every one of them from scratch.
+   */
+  private static class ReferenceTerminal extends ansi {
+
+    public byte[] getCursorMoveSequence(int direction, int times) {
+      byte[] sequence = null;
+
+      if (times == 1) {
+        sequence = new byte[3];
+      } else {
+        sequence = new byte[times * 3];
+      }
+
+      for (int g = 0; g < times * 3; g++) {
+
+        sequence[g] = ESC;
+        sequence[g + 1] = LSB;
+        switch (direction) {
+          case TerminalIO.UP:
+            sequence[g + 2] = A;
+            break;
+          case TerminalIO.DOWN:
+            sequence[g + 2] = B;
+            break;
+          case TerminalIO.RIGHT:
+            sequence[g + 2] = C;
+            break;
+          case TerminalIO.LEFT:
+            sequence[g + 2] = D;
+            break;
+          default:
+            break;
+        }
+        g = g + 2;
+      }
+
+      return sequence;
+    }//getCursorMoveSequence
+
+    public byte[] getCursorPositioningSequence(int[] pos) {
+      byte[] sequence = null;
+
+      if (pos[0] == TerminalIO.HOME[0] && pos[1] == TerminalIO.HOME[1]) {
+        sequence = new byte[3];
+        sequence[0] = ESC;
+        sequence[1] = LSB;
+        sequence[2] = H;
+      } else {
+        byte[] rowdigits = translateIntToDigitCodes(pos[0]);
+        byte[] columndigits = translateIntToDigitCodes(pos[1]);
+        int offset = 0;
+        sequence = new byte[4 + rowdigits.length + columndigits.length];
+        sequence[0] = ESC;
+        sequence[1] = LSB;
+        System.arraycopy(rowdigits, 0, sequence, 2, rowdigits.length);
+        offset = 2 + rowdigits.length;
+        sequence[offset] = SEMICOLON;
+        offset++;
+        System.arraycopy(columndigits, 0, sequence, offset, columndigits.length);
+        offset = offset + columndigits.length;
+        sequence[offset] = H;
+      }
+      return sequence;
+    }//getCursorPositioningSequence
+
+    public byte[] getEraseSequence(int eraseFunc) {
+      switch (eraseFunc) {
+        case TerminalIO.EEOL:
+          return new byte[]{ESC, LSB, LE};
+        case TerminalIO.EBOL:
+          return new byte[]{ESC, LSB, 49, LE};
+        case TerminalIO.EEL:
+          return new byte[]{ESC, LSB, 50, LE};
+        case TerminalIO.EEOS:
+          return new byte[]{ESC, LSB, SE};
+        case TerminalIO.EBOS:
+          return new byte[]{ESC, LSB, 49, SE};
+        case TerminalIO.EES:
+          return new byte[]{ESC, LSB, 50, SE};
+        default:
+          return null;
+      }
+    }//getEraseSequence
+
+    public byte[] getSpecialSequence(int function) {
+      switch (function) {
+        case TerminalIO.STORECURSOR:
+          return new byte[]{ESC, 55};
+        case TerminalIO.RESTORECURSOR:
+          return new byte[]{ESC, 56};
+        case TerminalIO.DEVICERESET:
+          return new byte[]{ESC, 99};
+        case TerminalIO.LINEWRAP:
+          return new byte[]{ESC, LSB, 55, 104};
+        case TerminalIO.NOLINEWRAP:
+          return new byte[]{ESC, LSB, 55, 108};
+        default:
+          return null;
+      }
+    }//getSpecialSequence
+
+    public byte[] getGRSequence(int type, int param) {
+      byte[] sequence = new byte[0];
+
+      switch (type) {
+        case TerminalIO.FCOLOR:
+        case TerminalIO.BCOLOR:
+        case TerminalIO.STYLE:
+          byte[] digits = translateIntToDigitCodes(param);
+          sequence = new byte[3 + digits.length];
+          sequence[0] = ESC;
+          sequence[1] = LSB;
+          System.arraycopy(digits, 0, sequence, 2, digits.length);
+          sequence[2 + digits.length] = 109;
+          break;
+        case TerminalIO.RESET:
+          sequence = new byte[]{ESC, LSB, 52, 56, 109};
+          break;
+      }
+      return sequence;
+    }//getGRSequence
+
+    public byte[] getScrollMarginsSequence(int topmargin, int bottommargin) {
+      byte[] sequence = new byte[0];
+
+      if (supportsScrolling()) {
+        byte[] topdigits = translateIntToDigitCodes(topmargin);
+        byte[] bottomdigits = translateIntToDigitCodes(bottommargin);
+        int offset = 0;
+        sequence = new byte[4 + topdigits.length + bottomdigits.length];
+        sequence[0] = ESC;
+        sequence[1] = LSB;
+        System.arraycopy(topdigits, 0, sequence, 2, topdigits.length);
+        offset = 2 + topdigits.length;
+        sequence[offset] = SEMICOLON;
+        offset++;
+        System.arraycopy(bottomdigits, 0, sequence, offset, bottomdigits.length);
+        offset = offset + bottomdigits.length;
+        sequence[offset] = r;
+      }
+      return sequence;
+    }//getScrollMarginsSequence
+
+    public byte[] translateIntToDigitCodes(int in) {
+      return Integer.toString(in).getBytes();
+    }//translateIntToDigitCodes
+
+  }//inner class ReferenceTerminal
+
+}//class BasicTerminalTest
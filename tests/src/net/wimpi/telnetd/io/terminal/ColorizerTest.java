@@ -0,0 +1,266 @@
+package net.wimpi.telnetd.io.terminal;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Tests {@link Colorizer} against the algorithm it used before the
+ * single pass and the cache, on random markup. Cached results and
+ * plain text must come out exactly as the old code put them.
+ */
+public class ColorizerTest extends TestCase {
+
+  private static Log log = LogFactory.getLog(ColorizerTest.class);
+
+  private static final char MARKER = (char) ColorHelper.MARKER_CODE;
+  private static final String KEYS = "SRGYBMCWsrgybmcwfdijuvenha";
+  private static final String RESET = "\033[0m";
+
+  private Colorizer m_Colorizer;
+  private ReferenceColorizer m_Reference;
+
+  protected void setUp() throws Exception {
+    m_Colorizer = Colorizer.getReference();
+    m_Reference = new ReferenceColorizer();
+  }//setUp
+
+  /**
+   * Fresh strings, so the cache only hits by chance.
+   */
+  public void testRandomMarkup() {
+    Random rnd = new Random(3);
+    for (int i = 0; i < 20000; i++) {
+      assertColorized(randomMarkup(rnd, rnd.nextInt(200)));
+    }
+    //longer than what is cached
+    for (int i = 0; i < 50; i++) {
+      assertColorized(randomMarkup(rnd, 1000 + rnd.nextInt(3000)));
+    }
+  }//testRandomMarkup
+
+  /**
+   * A small set of strings over and over, as equal but distinct
+   * instances and with all flags, so most calls are answered from
+   * the cache and entries keep replacing each other.
+   */
+  public void testCacheHits() {
+    Random rnd = new Random(5);
+    String[] strs = new String[200];
+    for (int i = 0; i < strs.length; i++) {
+      strs[i] = randomMarkup(rnd, 1 + rnd.nextInt(100));
+    }
+    for (int i = 0; i < 50000; i++) {
+      String str = new String(strs[rnd.nextInt((i % 2 == 0) ? 8 : strs.length)]);
+      boolean support = rnd.nextBoolean();
+      boolean forcebold = rnd.nextBoolean();
+      assertEquals(m_Reference.colorize(str, support, forcebold),
+          m_Colorizer.colorize(str, support, forcebold));
+    }
+  }//testCacheHits
+
+  public void testPlainText() {
+    Random rnd = new Random(9);
+    assertColorized("");
+    for (int i = 0; i < 5000; i++) {
+      StringBuffer sbuf = new StringBuffer();
+      int len = rnd.nextInt(100);
+      for (int j = 0; j < len; j++) {
+        sbuf.append((char) (2 + rnd.nextInt(0x3000)));
+      }
+      assertColorized(sbuf.toString());
+    }
+  }//testPlainText
+
+  public void testColorHelperMarkup() {
+    assertColorized(ColorHelper.colorizeText("COLOR", ColorHelper.WHITE, ColorHelper.BLUE));
+    assertColorized(ColorHelper.boldcolorizeText("BANNER", ColorHelper.YELLOW, ColorHelper.GREEN)
+        + ColorHelper.underlinedText("UNDER") + ColorHelper.blinkingText("BLINK"));
+    assertColorized(ColorHelper.italicText(ColorHelper.colorizeBackground("     ", ColorHelper.RED)));
+  }//testColorHelperMarkup
+
+  /**
+   * A marker at the very end has no key, it is dropped. The old code
+   * ran past the end of the string.
+   */
+  public void testTrailingMarker() {
+    String str = "abc" + MARKER;
+    assertEquals("abc" + RESET, m_Colorizer.colorize(str, true));
+    assertEquals("abc", m_Colorizer.colorize(str, false));
+    assertEquals("abc" + RESET, m_Colorizer.colorize(str, true, true));
+    assertEquals(RESET, m_Colorizer.colorize(String.valueOf(MARKER), true));
+    String marked = ColorHelper.boldText("x") + MARKER;
+    assertEquals(m_Reference.colorize(marked.substring(0, marked.length() - 1), true, false),
+        m_Colorizer.colorize(marked, true));
+    try {
+      m_Reference.colorize(str, true, false);
+      fail("The old code used to throw");
+    } catch (IndexOutOfBoundsException ex) {
+      //what the old code did
+    }
+  }//testTrailingMarker
+
+  /**
+   * A key beyond ASCII is unknown, like an unmapped ASCII key it
+   * resets all attributes. The old code looked the key up by its
+   * first byte in the platform encoding, which is negative in UTF-8,
+   * so it threw on Android.
+   */
+  public void testKeysBeyondAscii() {
+    char[] keys = {'\u0080', '\u00e9', '\u20ac', '\uffff'};
+    for (int k = 0; k < keys.length; k++) {
+      String str = "a" + MARKER + keys[k] + "b";
+      assertEquals("a\033[0mb" + RESET, m_Colorizer.colorize(str, true));
+      assertEquals("a\033[0;1mb" + RESET, m_Colorizer.colorize(str, true, true));
+      assertEquals("ab", m_Colorizer.colorize(str, false));
+      assertEquals(m_Reference.colorize("a" + MARKER + '\u007f' + "b", true, true),
+          m_Colorizer.colorize(str, true, true));
+    }
+  }//testKeysBeyondAscii
+
+  /**
+   * What a redraw writes: bars and labels with markup that repeat,
+   * plain lines that do not. Reports the time per call of the old and
+   * the new implementation. Only reports the figures.
+   */
+  public void testBenchmarkColorize() {
+    String[] bars = {
+      ColorHelper.boldcolorizeText("Remote Keyboard", ColorHelper.WHITE, ColorHelper.BLUE),
+      ColorHelper.colorizeText("Connected", ColorHelper.YELLOW, ColorHelper.BLUE),
+      ColorHelper.underlinedText("F1") + " Help " + ColorHelper.underlinedText("F10") + " Quit"
+    };
+    Random rnd = new Random(1);
+    String[] lines = new String[1000];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = (i % 4 == 0) ? randomMarkup(rnd, 80) : randomPlain(rnd, 80);
+    }
+
+    //first round warms up, the second one counts
+    long old = 0;
+    long now = 0;
+    for (int round = 0; round < 2; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < 100000; i++) {
+        m_Reference.colorize(bars[i % bars.length], true, false);
+        m_Reference.colorize(lines[i % lines.length], true, false);
+      }
+      old = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 0; i < 100000; i++) {
+        m_Colorizer.colorize(bars[i % bars.length], true, false);
+        m_Colorizer.colorize(lines[i % lines.length], true, false);
+      }
+      now = System.nanoTime() - start;
+    }
+    log.info("200000 calls, old: " + (old / 200000) + " ns per call, new: "
+        + (now / 200000) + " ns per call");
+  }//testBenchmarkColorize
+
+  private void assertColorized(String str) {
+    for (int flags = 0; flags < 4; flags++) {
+      boolean support = (flags & 1) != 0;
+      boolean forcebold = (flags & 2) != 0;
+      String expected = m_Reference.colorize(str, support, forcebold);
+      assertEquals(expected, m_Colorizer.colorize(str, support, forcebold));
+      //once more, from the cache if it was cached
+      assertEquals(expected, m_Colorizer.colorize(str, support, forcebold));
+    }
+  }//assertColorized
+
+  /**
+   * Text with markers, each followed by a key the old code could
+   * handle: mostly known keys, some unknown ASCII ones.
+   */
+  private static String randomMarkup(Random rnd, int len) {
+    StringBuffer sbuf = new StringBuffer(len + 2);
+    while (sbuf.length() < len) {
+      int what = rnd.nextInt(10);
+      if (what < 3) {
+        sbuf.append(MARKER);
+        if (rnd.nextInt(10) == 0) {
+          sbuf.append((char) rnd.nextInt(128));
+        } else {
+          sbuf.append(KEYS.charAt(rnd.nextInt(KEYS.length())));
+        }
+      } else {
+        sbuf.append(randomPlain(rnd, 1 + rnd.nextInt(8)));
+      }
+    }
+    return sbuf.toString();
+  }//randomMarkup
+
+  private static String randomPlain(Random rnd, int len) {
+    StringBuffer sbuf = new StringBuffer(len);
+    for (int i = 0; i < len; i++) {
+      sbuf.append((rnd.nextInt(20) == 0) ? '\u00e4' : (char) (' ' + rnd.nextInt(95)));
+    }
+    return sbuf.toString();
+  }//randomPlain
+
+  /**
+   * Colorizes the way Colorizer did before the single pass and the
+   * cache: looking up and building each escape sequence as it goes.
+   */
+  private static class ReferenceColorizer {
+
+    private int[] m_ColorMapping = new int[128];
+
+    ReferenceColorizer() {
+      int[] attrs = {
+        30, 31, 32, 33, 34, 35, 36, 37, 40, 41, 42, 43, 44, 45, 46, 47,
+        1, 22, 3, 23, 4, 24, 5, 25, 8, 0
+      };
+      for (int k = 0; k < KEYS.length(); k++) {
+        m_ColorMapping[KEYS.charAt(k)] = attrs[k];
+      }
+    }//constructor
+
+    String colorize(String str, boolean support, boolean forcebold) {
+      StringBuffer out = new StringBuffer(str.length() + 20);
+      int parsecursor = 0;
+      int foundcursor = 0;
+
+      boolean done = false;
+      while (!done) {
+        foundcursor = str.indexOf(ColorHelper.MARKER_CODE, parsecursor);
+        if (foundcursor != -1) {
+          out.append(str.substring(parsecursor, foundcursor));
+          if (support) {
+            out.append(addEscapeSequence(str.substring(foundcursor + 1, foundcursor + 2), forcebold));
+          }
+          parsecursor = foundcursor + 2;
+        } else {
+          out.append(str.substring(parsecursor, str.length()));
+          done = true;
+        }
+      }
+      if (support) out.append(addEscapeSequence("a", false));
+
+      return out.toString();
+    }//colorize
+
+    private String addEscapeSequence(String attribute, boolean forcebold) {
+      StringBuffer tmpbuf = new StringBuffer(10);
+
+      byte[] tmpbytes = attribute.getBytes();
+      int key = (int) tmpbytes[0];
+
+      tmpbuf.append((char) 27);
+      tmpbuf.append((char) 91);
+      int attr = m_ColorMapping[key];
+      tmpbuf.append(attr);
+      if (forcebold && attr != 1) {
+        tmpbuf.append((char) 59);
+        tmpbuf.append(1);
+      }
+      tmpbuf.append((char) 109);
+
+      return tmpbuf.toString();
+    }//addEscapeSequence
+
+  }//inner class ReferenceColorizer
+
+}//class ColorizerTest
@@ -0,0 +1,31 @@
+package net.wimpi.telnetd.net;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+/**
+ * An unconnected socket that claims to come from the given address,
+ * so connections can be made without any network.
+ */
+class AddressedSocket extends Socket {
+
+  private InetAddress m_Address;
+
+  AddressedSocket(InetAddress addr) {
+    m_Address = addr;
+  }//constructor
+
+  AddressedSocket(String addr) throws UnknownHostException {
+    this(InetAddress.getByName(addr));
+  }//constructor
+
+  public InetAddress getInetAddress() {
+    return m_Address;
+  }//getInetAddress
+
+  public int getPort() {
+    return 23;
+  }//getPort
+
+}//class AddressedSocket
@@ -0,0 +1,298 @@
+package net.wimpi.telnetd.net;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ConnectionManager}. The idle checks run on a simulated
+ * clock, the housekeeping is driven by the test, step by step, so
+ * every event can be checked against the time it is due. The registry
+ * of open connections is hammered from many threads.
+ */
+public class ConnectionManagerTest extends TestCase {
+
+  private static final int WARNING = 1000;
+  private static final int DISCONNECT = 500;
+  private static final int HOUSEKEEPING = 100;
+  private static final int STEP = 10;
+
+  private SimulatedClockManager m_Manager;
+
+  protected void setUp() throws Exception {
+    m_Manager = new SimulatedClockManager();
+  }//setUp
+
+  /**
+   * Hundreds of connections, made at different times, some of them
+   * active for a while. Each is warned once and timed out once, at
+   * the time it is due, and closes on the time out like a shell would.
+   */
+  public void testIdleAndTimeoutFireOnce() throws Exception {
+    Random rnd = new Random(42);
+    Watcher[] watchers = new Watcher[400];
+    long[] activeUntil = new long[watchers.length];
+    for (int i = 0; i < watchers.length; i++) {
+      watchers[i] = connect(true);
+      activeUntil[i] = (i % 3 == 0) ? 0 : m_Manager.m_Now + rnd.nextInt(3000);
+      //stagger them
+      if (i % 10 == 9) {
+        step(STEP, null, null);
+      }
+    }
+    long end = m_Manager.m_Now + 3000 + WARNING + DISCONNECT + 2 * HOUSEKEEPING;
+    while (m_Manager.m_Now < end) {
+      step(STEP, watchers, activeUntil);
+    }
+
+    for (int i = 0; i < watchers.length; i++) {
+      Watcher w = watchers[i];
+      long due = w.m_Data.getLastActivity() + WARNING;
+      assertEquals(1, w.m_Idle.size());
+      assertDue(due, w.m_Idle.get(0));
+      assertEquals(1, w.m_TimedOut.size());
+      assertDue(due + DISCONNECT, w.m_TimedOut.get(0));
+      assertFalse(w.m_Connection.isActive());
+    }
+    assertEquals(0, m_Manager.openConnectionCount());
+    assertEquals(0, m_Manager.getConnectionsByAdddress(InetAddress.getByName("127.0.0.1")).length);
+  }//testIdleAndTimeoutFireOnce
+
+  /**
+   * A connection that does not close on the time out gets it
+   * again every housekeeping interval.
+   */
+  public void testTimedOutRepeats() throws Exception {
+    Watcher[] watchers = new Watcher[200];
+    for (int i = 0; i < watchers.length; i++) {
+      watchers[i] = connect(false);
+      step(STEP, null, null);
+    }
+    long end = m_Manager.m_Now + WARNING + DISCONNECT + 10 * HOUSEKEEPING;
+    while (m_Manager.m_Now < end) {
+      step(STEP, null, null);
+    }
+
+    for (int i = 0; i < watchers.length; i++) {
+      Watcher w = watchers[i];
+      long timedout = w.m_Data.getLastActivity() + WARNING + DISCONNECT;
+      assertEquals(1, w.m_Idle.size());
+      assertEquals((m_Manager.m_Now - timedout) / HOUSEKEEPING + 1, w.m_TimedOut.size());
+      for (int j = 0; j < w.m_TimedOut.size(); j++) {
+        assertDue(timedout + j * HOUSEKEEPING, w.m_TimedOut.get(j));
+      }
+      assertTrue(w.m_Connection.isActive());
+    }
+    assertEquals(watchers.length, m_Manager.openConnectionCount());
+  }//testTimedOutRepeats
+
+  /**
+   * Activity only stamps the connection, the deadline stays where it
+   * is. When it comes due, the check finds the connection was active
+   * and moves it on, so there is about one check per warning timeout.
+   */
+  public void testActivityDoesNotMoveDeadline() throws Exception {
+    Watcher w = connect(true);
+    int checks = 0;
+    for (int t = 0; t < 10 * WARNING; t += STEP) {
+      w.m_Data.activity();
+      checks += step(STEP, null, null);
+    }
+    assertEquals(0, w.m_Idle.size());
+    assertTrue("checks: " + checks, checks <= 11);
+
+    long due = w.m_Data.getLastActivity() + WARNING;
+    while (m_Manager.m_Now < due + DISCONNECT) {
+      step(STEP, null, null);
+    }
+    assertEquals(1, w.m_Idle.size());
+    assertDue(due, w.m_Idle.get(0));
+    assertEquals(1, w.m_TimedOut.size());
+  }//testActivityDoesNotMoveDeadline
+
+  /**
+   * Activity after the warning allows for another one.
+   */
+  public void testWarnedAgainAfterActivity() throws Exception {
+    Watcher w = connect(true);
+    while (w.m_Idle.isEmpty()) {
+      step(STEP, null, null);
+    }
+    w.m_Data.activity();
+    long due = w.m_Data.getLastActivity() + WARNING;
+    while (m_Manager.m_Now < due + DISCONNECT) {
+      step(STEP, null, null);
+    }
+    assertEquals(2, w.m_Idle.size());
+    assertDue(due, w.m_Idle.get(1));
+    assertEquals(1, w.m_TimedOut.size());
+    assertDue(due + DISCONNECT, w.m_TimedOut.get(0));
+  }//testWarnedAgainAfterActivity
+
+  /**
+   * Many threads register and unregister connections on a few
+   * addresses, so sets are dropped and created all the time. A
+   * registered connection must always be found by its address, and
+   * nothing may be left behind.
+   */
+  public void testRegisterConcurrently() throws Exception {
+    final InetAddress[] addrs = new InetAddress[3];
+    for (int i = 0; i < addrs.length; i++) {
+      addrs[i] = InetAddress.getByName("127.0.0." + (i + 1));
+    }
+    final List failures = new ArrayList();
+    Thread[] threads = new Thread[16];
+    for (int t = 0; t < threads.length; t++) {
+      final Random rnd = new Random(t);
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            List live = new ArrayList();
+            for (int i = 0; i < 20000; i++) {
+              if (live.size() < 3 && (live.isEmpty() || rnd.nextBoolean())) {
+                Connection con = new Connection(new ConnectionData(
+                    new AddressedSocket(addrs[rnd.nextInt(addrs.length)]), m_Manager));
+                m_Manager.register(con);
+                live.add(con);
+              } else {
+                m_Manager.unregister((Connection) live.remove(rnd.nextInt(live.size())));
+              }
+              for (int j = 0; j < live.size(); j++) {
+                Connection con = (Connection) live.get(j);
+                InetAddress addr = con.getConnectionData().getInetAddress();
+                if (!Arrays.asList(m_Manager.getConnectionsByAdddress(addr)).contains(con)) {
+                  throw new IllegalStateException(con + " lost from " + addr);
+                }
+              }
+            }
+            for (int j = 0; j < live.size(); j++) {
+              m_Manager.unregister((Connection) live.get(j));
+            }
+          } catch (Throwable ex) {
+            synchronized (failures) {
+              failures.add(ex);
+            }
+          }
+        }
+      };
+    }
+    for (int t = 0; t < threads.length; t++) {
+      threads[t].start();
+    }
+    for (int t = 0; t < threads.length; t++) {
+      threads[t].join();
+    }
+
+    assertEquals(failures.toString(), 0, failures.size());
+    assertEquals(0, m_Manager.openConnectionCount());
+    //no empty sets left behind either
+    Field f = ConnectionManager.class.getDeclaredField("m_ConnectionsByAddress");
+    f.setAccessible(true);
+    assertEquals(0, ((Map) f.get(m_Manager)).size());
+  }//testRegisterConcurrently
+
+  /**
+   * Makes a connection on the manager, with a watcher for its events.
+   *
+   * @param close whether the connection closes on the time out.
+   */
+  private Watcher connect(boolean close) throws Exception {
+    ConnectionData cd = new ConnectionData(
+        new AddressedSocket(InetAddress.getByName("127.0.0.1")), m_Manager);
+    Connection con = new Connection(cd);
+    Watcher w = new Watcher(con, close);
+    con.addConnectionListener(w);
+    m_Manager.manage(con);
+    return w;
+  }//connect
+
+  /**
+   * Moves the clock on, keeping connections active until the time
+   * given for them, and does the housekeeping that is due.
+   *
+   * @return the number of deadlines that were due.
+   */
+  private int step(int millis, Watcher[] watchers, long[] activeUntil) {
+    m_Manager.m_Now += millis;
+    if (watchers != null) {
+      for (int i = 0; i < watchers.length; i++) {
+        if (m_Manager.m_Now <= activeUntil[i]) {
+          watchers[i].m_Data.activity();
+        }
+      }
+    }
+    return m_Manager.housekeepDue();
+  }//step
+
+  /**
+   * An event must come in the step it is due.
+   */
+  private static void assertDue(long due, Object fired) {
+    long time = ((Long) fired).longValue();
+    assertTrue("due " + due + ", fired " + time, time >= due && time < due + STEP);
+  }//assertDue
+
+  /**
+   * A manager on a clock that only moves when the test says so.
+   */
+  private static class SimulatedClockManager extends ConnectionManager {
+
+    volatile long m_Now = 1000000;
+
+    SimulatedClockManager() {
+      super(1000, WARNING, DISCONNECT, HOUSEKEEPING, null, "dummy", false);
+    }//constructor
+
+    protected long currentTimeMillis() {
+      return m_Now;
+    }//currentTimeMillis
+
+  }//inner class SimulatedClockManager
+
+  /**
+   * Records when the events of a connection fire.
+   */
+  private class Watcher implements ConnectionListener {
+
+    Connection m_Connection;
+    ConnectionData m_Data;
+    boolean m_Close;
+    List m_Idle = new ArrayList();
+    List m_TimedOut = new ArrayList();
+
+    Watcher(Connection con, boolean close) {
+      m_Connection = con;
+      m_Data = con.getConnectionData();
+      m_Close = close;
+    }//constructor
+
+    public void connectionIdle(ConnectionEvent ce) {
+      assertSame(m_Connection, ce.getConnection());
+      m_Idle.add(new Long(m_Manager.m_Now));
+    }//connectionIdle
+
+    public void connectionTimedOut(ConnectionEvent ce) {
+      assertSame(m_Connection, ce.getConnection());
+      m_TimedOut.add(new Long(m_Manager.m_Now));
+      if (m_Close) {
+        m_Connection.close();
+      }
+    }//connectionTimedOut
+
+    public void connectionLogoutRequest(ConnectionEvent ce) {
+      fail();
+    }//connectionLogoutRequest
+
+    public void connectionSentBreak(ConnectionEvent ce) {
+      fail();
+    }//connectionSentBreak
+
+  }//inner class Watcher
+
+}//class ConnectionManagerTest
@@ -0,0 +1,197 @@
+package net.wimpi.telnetd.net;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link HostNameResolver} with a lookup that takes its time,
+ * like a reverse lookup on a network without reverse DNS.
+ */
+public class HostNameResolverTest extends TestCase {
+
+  private static final long LOOKUP_TIME = 500;
+  private static final long TIMEOUT = 60000;
+
+  private SlowResolver m_Resolver;
+
+  protected void setUp() throws Exception {
+    m_Resolver = new SlowResolver();
+    HostNameResolver.setReference(m_Resolver);
+  }//setUp
+
+  protected void tearDown() throws Exception {
+    HostNameResolver.setReference(null);
+  }//tearDown
+
+  /**
+   * A connection knows its address right away and its name once
+   * the lookup is done.
+   */
+  public void testHostNameAtOnce() throws Exception {
+    ConnectionData cd = new ConnectionData(new AddressedSocket("10.0.0.1"), null);
+    long start = System.currentTimeMillis();
+    cd.resolveHostName();
+    assertEquals("10.0.0.1", cd.getHostName());
+    assertEquals(Locale.ENGLISH, cd.getLocale());
+    assertTrue(System.currentTimeMillis() - start < LOOKUP_TIME);
+
+    start = System.currentTimeMillis();
+    while (!"host1.example.de".equals(cd.getHostName())) {
+      if (System.currentTimeMillis() - start > TIMEOUT) {
+        fail("Not resolved");
+      }
+      Thread.sleep(5);
+    }
+    assertEquals(new Locale("de", "DE"), cd.getLocale());
+    assertEquals(1, m_Resolver.getLookups("10.0.0.1"));
+  }//testHostNameAtOnce
+
+  /**
+   * Many threads resolve the same few addresses at the same time.
+   * There is one lookup per address, and every listener is told
+   * once, after the lookup completed.
+   */
+  public void testConcurrentResolvesCoalesced() throws Exception {
+    final InetAddress[] addrs = new InetAddress[3];
+    for (int i = 0; i < addrs.length; i++) {
+      addrs[i] = InetAddress.getByName("10.0.0." + (i + 1));
+    }
+    final Recorder[] recorders = new Recorder[60];
+    Thread[] threads = new Thread[recorders.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int n = i;
+      recorders[n] = new Recorder();
+      threads[i] = new Thread() {
+        public void run() {
+          m_Resolver.resolve(addrs[n % addrs.length], recorders[n]);
+        }
+      };
+    }
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].start();
+    }
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+    }
+    for (int i = 0; i < recorders.length; i++) {
+      recorders[i].await();
+    }
+    //give stray calls a chance to show
+    Thread.sleep(LOOKUP_TIME);
+
+    for (int i = 0; i < addrs.length; i++) {
+      assertEquals(1, m_Resolver.getLookups(addrs[i].getHostAddress()));
+    }
+    for (int i = 0; i < recorders.length; i++) {
+      Recorder r = recorders[i];
+      assertEquals(1, r.m_Names.size());
+      assertEquals("host" + (i % addrs.length + 1) + ".example.de", r.m_Names.get(0));
+      assertTrue(r.m_LookupDone);
+    }
+  }//testConcurrentResolvesCoalesced
+
+  /**
+   * A cached name is passed on in the calling thread, before
+   * resolve() returns, without another lookup.
+   */
+  public void testCacheAnswersSynchronously() throws Exception {
+    InetAddress addr = InetAddress.getByName("10.0.0.2");
+    assertNull(m_Resolver.getCachedHostName(addr));
+    Recorder first = new Recorder();
+    m_Resolver.resolve(addr, first);
+    assertEquals(0, first.m_Names.size());
+    first.await();
+    assertNotSame(Thread.currentThread(), first.m_Thread);
+
+    Recorder second = new Recorder();
+    long start = System.currentTimeMillis();
+    m_Resolver.resolve(addr, second);
+    assertTrue(System.currentTimeMillis() - start < LOOKUP_TIME);
+    assertEquals(1, second.m_Names.size());
+    assertEquals("host2.example.de", second.m_Names.get(0));
+    assertSame(Thread.currentThread(), second.m_Thread);
+    assertEquals("host2.example.de", m_Resolver.getCachedHostName(addr));
+    assertEquals(1, m_Resolver.getLookups("10.0.0.2"));
+  }//testCacheAnswersSynchronously
+
+  /**
+   * A lookup that fails yields the textual address.
+   */
+  public void testFailedLookup() throws Exception {
+    InetAddress addr = InetAddress.getByName("10.0.0.99");
+    Recorder r = new Recorder();
+    m_Resolver.resolve(addr, r);
+    r.await();
+    assertEquals("10.0.0.99", r.m_Names.get(0));
+  }//testFailedLookup
+
+  /**
+   * Takes its time for each lookup and counts them. Names are made
+   * up from the last part of the address, 99 fails.
+   */
+  private static class SlowResolver extends HostNameResolver {
+
+    private Map m_Lookups = new HashMap();  //address -> Integer
+
+    protected String lookup(InetAddress addr) {
+      String ip = addr.getHostAddress();
+      synchronized (this) {
+        Integer n = (Integer) m_Lookups.get(ip);
+        m_Lookups.put(ip, new Integer((n == null) ? 1 : n.intValue() + 1));
+      }
+      try {
+        Thread.sleep(LOOKUP_TIME);
+      } catch (InterruptedException ex) {
+        //just be quicker
+      }
+      String last = ip.substring(ip.lastIndexOf('.') + 1);
+      if (last.equals("99")) {
+        throw new RuntimeException("No such host");
+      }
+      return "host" + last + ".example.de";
+    }//lookup
+
+    synchronized int getLookups(String ip) {
+      Integer n = (Integer) m_Lookups.get(ip);
+      return (n == null) ? 0 : n.intValue();
+    }//getLookups
+
+  }//inner class SlowResolver
+
+  /**
+   * Records what it is told, and whether the lookup was done
+   * by then.
+   */
+  private class Recorder implements HostNameResolver.Listener {
+
+    List m_Names = new ArrayList();
+    volatile boolean m_LookupDone;
+    volatile Thread m_Thread;
+
+    public synchronized void hostNameResolved(InetAddress addr, String name) {
+      //the name is cached once the lookup is through
+      m_LookupDone = m_Resolver.getCachedHostName(addr) != null;
+      m_Thread = Thread.currentThread();
+      m_Names.add(name);
+      notifyAll();
+    }//hostNameResolved
+
+    synchronized void await() throws InterruptedException {
+      long start = System.currentTimeMillis();
+      while (m_Names.isEmpty()) {
+        if (System.currentTimeMillis() - start > TIMEOUT) {
+          fail("Listener not called");
+        }
+        wait(100);
+      }
+    }//await
+
+  }//inner class Recorder
+
+}//class HostNameResolverTest
@@ -0,0 +1,261 @@
+package net.wimpi.telnetd.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+import net.wimpi.telnetd.io.BasicTerminalIO;
+import net.wimpi.telnetd.io.terminal.TerminalManager;
+import net.wimpi.telnetd.shell.Shell;
+import net.wimpi.telnetd.shell.ShellManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs loopback clients against both engines, selected through the
+ * <tt>.engine</tt> property like in telnetd.properties. The clients
+ * talk to a shell that echoes what it reads.
+ */
+public class PortListenerTest extends TestCase {
+
+  private static Log log = LogFactory.getLog(PortListenerTest.class);
+
+  private static final long TIMEOUT = 60000;
+
+  protected void setUp() throws Exception {
+    if (TerminalManager.getReference() == null) {
+      Properties p = new Properties();
+      p.setProperty("terminals", "ansi");
+      p.setProperty("term.ansi.class", "net.wimpi.telnetd.io.terminal.ansi");
+      p.setProperty("term.ansi.aliases", "default");
+      TerminalManager.createTerminalManager(p);
+    }
+    Properties p = new Properties();
+    p.setProperty("shells", "echo");
+    p.setProperty("shell.echo.class", EchoShell.class.getName());
+    ShellManager.createShellManager(p);
+  }//setUp
+
+  public void testBlockingEngine() throws Exception {
+    runClients("blocking", 20, 10);
+  }//testBlockingEngine
+
+  public void testSelectorEngine() throws Exception {
+    runClients("nio", 20, 10);
+  }//testSelectorEngine
+
+  /**
+   * Hundreds of clients on each engine. Reports the heap and the
+   * threads the connections took, and the round trip time of the
+   * echoes. Only reports the figures.
+   */
+  public void testBenchmarkLoad() throws Exception {
+    //first round warms up, the second one counts
+    for (int round = 0; round < 2; round++) {
+      String blocking = runClients("blocking", 300, 20);
+      String nio = runClients("nio", 300, 20);
+      if (round == 1) {
+        log.info("blocking: " + blocking);
+        log.info("nio: " + nio);
+      }
+    }
+  }//testBenchmarkLoad
+
+  /**
+   * Connects the given number of clients to a new listener, has
+   * each of them send and wait for the given number of echoes,
+   * round robin, and disconnects them again.
+   *
+   * @return the figures for the log.
+   */
+  private String runClients(String engine, int count, int echoes) throws Exception {
+    PortListener pl = startListener(engine, count);
+    ConnectionManager cm = pl.getConnectionManager();
+    Client[] clients = new Client[count];
+    try {
+      long heap = usedHeap();
+      int threads = threadCount();
+      int port = pl.m_ServerSocket.getLocalPort();
+      for (int i = 0; i < count; i++) {
+        clients[i] = new Client(port);
+      }
+      //once every one of them echoed, all of them are fully set up
+      for (int i = 0; i < count; i++) {
+        clients[i].echo('a');
+      }
+      assertEquals(count, cm.openConnectionCount());
+      heap = usedHeap() - heap;
+      threads = threadCount() - threads;
+
+      long[] rtt = new long[count * echoes];
+      for (int e = 0; e < echoes; e++) {
+        for (int i = 0; i < count; i++) {
+          rtt[e * count + i] = clients[i].echo((char) ('a' + e % 16));
+        }
+      }
+      Arrays.sort(rtt);
+
+      for (int i = 0; i < count; i++) {
+        clients[i].quit();
+      }
+      long start = System.currentTimeMillis();
+      while (cm.openConnectionCount() > 0) {
+        if (System.currentTimeMillis() - start > TIMEOUT) {
+          fail(cm.openConnectionCount() + " connections left");
+        }
+        Thread.sleep(10);
+      }
+
+      return count + " clients, " + (heap / count) + " bytes and "
+          + ((float) threads / count) + " threads per client, round trip median "
+          + (rtt[rtt.length / 2] / 1000) + " us, 99th percentile "
+          + (rtt[rtt.length * 99 / 100] / 1000) + " us";
+    } finally {
+      for (int i = 0; i < count; i++) {
+        if (clients[i] != null) {
+          clients[i].close();
+        }
+      }
+      pl.stop();
+    }
+  }//runClients
+
+  private static PortListener startListener(String engine, int maxcon) throws Exception {
+    Properties p = new Properties();
+    p.setProperty("test.port", "0");
+    p.setProperty("test.floodprotection", String.valueOf(maxcon));
+    p.setProperty("test.maxcon", String.valueOf(maxcon));
+    p.setProperty("test.engine", engine);
+    p.setProperty("test.time_to_warning", "3600000");
+    p.setProperty("test.time_to_timedout", "60000");
+    p.setProperty("test.housekeepinginterval", "1000");
+    p.setProperty("test.inputmode", "character");
+    p.setProperty("test.loginshell", "echo");
+    p.setProperty("test.connectionfilter", "none");
+    PortListener pl = PortListener.createPortListener("test", p);
+    if ("nio".equals(engine)) {
+      assertTrue(pl instanceof SelectorPortListener);
+    } else {
+      assertFalse(pl instanceof SelectorPortListener);
+    }
+    pl.start();
+    long start = System.currentTimeMillis();
+    while (pl.m_ServerSocket == null || !pl.m_ServerSocket.isBound()) {
+      if (System.currentTimeMillis() - start > TIMEOUT) {
+        fail("Listener did not start");
+      }
+      Thread.sleep(10);
+    }
+    return pl;
+  }//startListener
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }//usedHeap
+
+  private static int threadCount() {
+    ThreadGroup root = Thread.currentThread().getThreadGroup();
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    return root.activeCount();
+  }//threadCount
+
+  /**
+   * The client end of a session.
+   */
+  private static class Client {
+
+    private Socket m_Socket;
+    private InputStream m_In;
+    private OutputStream m_Out;
+
+    Client(int port) throws IOException {
+      m_Socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+      m_Socket.setSoTimeout((int) TIMEOUT);
+      m_Socket.setTcpNoDelay(true);
+      m_In = m_Socket.getInputStream();
+      m_Out = m_Socket.getOutputStream();
+      //the negotiation swallows one byte, so it does not have
+      //to wait for its timeout
+      m_Out.write('x');
+    }//constructor
+
+    /**
+     * Sends a letter and waits for it to come back. Whatever else
+     * arrives, i.e. the option negotiation, is skipped; it never
+     * contains letters.
+     *
+     * @return the round trip time in nanoseconds.
+     */
+    long echo(char c) throws IOException {
+      long start = System.nanoTime();
+      m_Out.write(c);
+      int b;
+      do {
+        b = m_In.read();
+        if (b < 0) {
+          throw new EOFException();
+        }
+      } while (b != c);
+      return System.nanoTime() - start;
+    }//echo
+
+    void quit() throws IOException {
+      m_Out.write('q');
+    }//quit
+
+    void close() throws IOException {
+      m_Socket.close();
+    }//close
+
+  }//inner class Client
+
+  /**
+   * Echoes what it reads, until it reads a 'q'.
+   */
+  public static class EchoShell implements Shell {
+
+    public static Shell createShell() {
+      return new EchoShell();
+    }//createShell
+
+    public void run(Connection con) {
+      BasicTerminalIO io = con.getTerminalIO();
+      try {
+        int c;
+        while ((c = io.read()) >= 0 && c != 'q') {
+          io.write((char) c);
+        }
+      } catch (IOException ex) {
+        //client went away
+      }
+    }//run
+
+    public void connectionIdle(ConnectionEvent ce) {
+    }//connectionIdle
+
+    public void connectionTimedOut(ConnectionEvent ce) {
+    }//connectionTimedOut
+
+    public void connectionLogoutRequest(ConnectionEvent ce) {
+    }//connectionLogoutRequest
+
+    public void connectionSentBreak(ConnectionEvent ce) {
+    }//connectionSentBreak
+
+  }//inner class EchoShell
+
+}//class PortListenerTest